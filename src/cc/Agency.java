@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -37,11 +38,21 @@ public abstract class Agency {
 	protected int targetId, maxDistance, maxDegree;
 	protected int targetDegree;
 	protected Properties config;
+	protected String wireFormat;
+	protected Transport transport;
+	// The Deflater level to compress our connections with, or 0 for none.
+	protected int compression;
+	protected boolean merkleSigning;
+	protected boolean pipelined;
 
 
 	private long startSetupTime, startProtoTime, finishTime;
-	private AtomicLong networkBytes;
+	private AtomicLong networkBytes, uncompressedBytes;
+	// Bytes sent to and received from each peer, then the same before
+	// compression, in that order.
+	private LinkedHashMap<String, long[]> peerBytes;
 	private long agencyCpuTime, telecomCpuTime;
+	private long poolHits, poolMisses;
 	private Date timeStamp; // The date and time when the protocol began
 
 	public static final String ID = "ID";
@@ -55,6 +66,18 @@ public abstract class Agency {
 	public static final String SIGNING_KEYPATH = "SIGKEYPATH";
 	public static final String OUTPUT_PATH = "OUTPUTPATH";
 	public static final String TIMING_RECORD_PATH = "TIMINGPATH";
+	// The top line of the timing log, one column per value in reportTiming().
+	public static final String TIMING_HEADER = "Timestamp,Agencies," +
+			"Degree of target,Ciphertexts in result,Maximum path length," +
+			"Maximum branching degree,Setup time (ms),Protocol time (ms)," +
+			"Total time (ms),Agency CPU Time (ms),Telecom CPU Time (ms)," +
+			"Bytes transferred (KB),Pool hits,Pool misses,Uncompressed bytes (KB),";
+	// If true, agencies sign the root of a MerkleTree over each batch of
+	// telecom ciphertexts instead of the batch itself.
+	public static final String MERKLE_SIGNING = "MERKLESIGNING";
+	// If true, each telecom response is signed and its follow-up requests sent
+	// as soon as it arrives, instead of one distance at a time.
+	public static final String PIPELINED = "PIPELINED";
 	public static final int MAX_TRIES = 10;
 	public static final long SLEEP_BETWEEN_TRIES = 1000;
 
@@ -156,6 +179,13 @@ public abstract class Agency {
 		maxDistance = Integer.parseInt(config.getProperty(MAX_DISTANCE, "0"));
 		maxDegree = Integer.parseInt(config.getProperty(MAX_DEGREE, "2147483647"));
 		id = Integer.parseInt(config.getProperty(ID));
+		wireFormat = config.getProperty(WireFormat.WIRE_FORMAT, WireFormat.JAVA);
+		transport = Transport.forName(config.getProperty(Transport.TRANSPORT,
+				Transport.BLOCKING));
+		compression = Integer.parseInt(config.getProperty(Compression.COMPRESSION,
+				"" + Compression.NONE));
+		merkleSigning = Boolean.parseBoolean(config.getProperty(MERKLE_SIGNING, "false"));
+		pipelined = Boolean.parseBoolean(config.getProperty(PIPELINED, "false"));
 		timeStamp = new Date();
 		if (!config.getProperty(OUTPUT_PATH, "").isEmpty()) {
 			SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy, h:mm a z");
@@ -192,6 +222,8 @@ public abstract class Agency {
 		}
 		targetId = Integer.parseInt(config.getProperty(TARGET_ID, "0"));
 		networkBytes = new AtomicLong();
+		uncompressedBytes = new AtomicLong();
+		peerBytes = new LinkedHashMap<String, long[]>();
 		agencyCpuTime = 0;
 		telecomCpuTime = 0;
 		agencyCiphertexts = new ArrayList<BigInteger[]>();
@@ -200,11 +232,41 @@ public abstract class Agency {
 
 
 	/**
-	 * Stores a number of bytes sent or received over a network. Thread-safe.
-	 * @param bytesTransferred The number of bytes sent or received.
+	 * Stores the number of bytes sent to and received from a peer over the
+	 * network. Thread-safe.
+	 * @param peer A name for the peer, used when reporting.
+	 * @param sent The number of bytes sent to the peer.
+	 * @param received The number of bytes received from the peer.
 	 */
-	public void recordBytes(long bytesTransferred) {
-		networkBytes.addAndGet(bytesTransferred);
+	public void recordBytes(String peer, long sent, long received) {
+		recordBytes(peer, sent, received, sent, received);
+	}
+
+	/**
+	 * Stores the number of bytes sent to and received from a peer over a
+	 * compressed connection. Thread-safe.
+	 * @param peer A name for the peer, used when reporting.
+	 * @param sent The number of bytes sent to the peer.
+	 * @param received The number of bytes received from the peer.
+	 * @param uncompressedSent The number of bytes sent, before compression.
+	 * @param uncompressedReceived The number of bytes received, after
+	 * decompression.
+	 */
+	public void recordBytes(String peer, long sent, long received,
+			long uncompressedSent, long uncompressedReceived) {
+		networkBytes.addAndGet(sent + received);
+		uncompressedBytes.addAndGet(uncompressedSent + uncompressedReceived);
+		synchronized (peerBytes) {
+			long[] counts = peerBytes.get(peer);
+			if (counts == null) {
+				counts = new long[4];
+				peerBytes.put(peer, counts);
+			}
+			counts[0] += sent;
+			counts[1] += received;
+			counts[2] += uncompressedSent;
+			counts[3] += uncompressedReceived;
+		}
 	}
 
 	/**
@@ -225,6 +287,18 @@ public abstract class Agency {
 		telecomCpuTime += time;
 	}
 
+	/**
+	 * Stores how many agency encryptions a telecom served from its randomness
+	 * pools, and how many it had to compute inline.
+	 * Not thread-safe.
+	 * @param hits Encryptions that used precomputed randomness.
+	 * @param misses Encryptions that found the pool empty.
+	 */
+	public void recordTelecomPoolUse(long hits, long misses) {
+		poolHits += hits;
+		poolMisses += misses;
+	}
+
 	/**
 	 * Adds the specified telecomCiphertext to the list, marking that we will
 	 * send this as a request to the telecoms. 
@@ -249,6 +323,19 @@ public abstract class Agency {
 		return ciphertexts;
 	}
 
+	/**
+	 * Signs a batch of telecom ciphertexts, or the root of a MerkleTree over the
+	 * batch if Merkle signing is on.
+	 * @param ciphertexts The batch to sign.
+	 * @return This agency's signature.
+	 */
+	protected byte[] signCiphertexts(TelecomCiphertext[] ciphertexts) {
+		if (merkleSigning) {
+			return keys.sign(new MerkleTree(ciphertexts));
+		}
+		return keys.sign(ciphertexts);
+	}
+
 	/**
 	 * @return the number of telecom ciphertexts in investigationLists
 	 */
@@ -322,17 +409,31 @@ public abstract class Agency {
 		agencyCpuTime /= 1000000L;
 		telecomCpuTime /= 1000000L;
 		long kilobytes = networkBytes.get() / 1024L;
+		long uncompressedKilobytes = uncompressedBytes.get() / 1024L;
 		println("Setup time (ms)       : " + (startProtoTime - startSetupTime));
 		println("Protocol runtime (ms) : " + (finishTime - startProtoTime));
 		println("Total runtime (ms)    : " + (finishTime - startSetupTime));
 		println("Agency CPU Time (ms)  : " + agencyCpuTime);
 		println("Telecom CPU Time (ms) : " + telecomCpuTime);
 		println("Bytes transferred (KB): " + kilobytes);
+		if (uncompressedBytes.get() != networkBytes.get()) {
+			println("  uncompressed (KB)   : " + uncompressedKilobytes);
+		}
+		for (String peer : peerBytes.keySet()) {
+			long[] counts = peerBytes.get(peer);
+			String line = "  " + peer + " sent / received (KB): " +
+					counts[0] / 1024L + " / " + counts[1] / 1024L;
+			if (counts[2] != counts[0] || counts[3] != counts[1]) {
+				line += " (uncompressed " + counts[2] / 1024L + " / " +
+						counts[3] / 1024L + ")";
+			}
+			println(line);
+		}
+		println("Pool hits / misses    : " + poolHits + " / " + poolMisses);
 
 		/* 
-		 * If a log file has been specified, save timing info to it.
-		 * The top line of the log file should be:
-		 * Timestamp,Agencies,Degree of target,Ciphertexts in result,Maximum path length,Maximum branching degree,Setup time (ms),Protocol time (ms),Total time (ms),Agency CPU Time (ms),Telecom CPU Time (ms),Bytes transferred (KB),
+		 * If a log file has been specified, save timing info to it. A new log
+		 * file starts with TIMING_HEADER.
 		 */
 		if (suppressTiming || config.getProperty(TIMING_RECORD_PATH, "").isEmpty()) {
 			return;
@@ -341,9 +442,13 @@ public abstract class Agency {
 		SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy h:mm:ss a"); 
 		try {
 			File file = new File(config.getProperty(TIMING_RECORD_PATH));
-			file.createNewFile();
+			boolean created = file.createNewFile();
 			FileWriter fw = new FileWriter(file, true);
 			BufferedWriter bw = new BufferedWriter(fw);
+			if (created) {
+				bw.write(TIMING_HEADER);
+				bw.newLine();
+			}
 			bw.write(sdf.format(timeStamp) + ",");
 			bw.write(numAgencies + ",");
 			bw.write(targetDegree + ",");
@@ -356,6 +461,9 @@ public abstract class Agency {
 			bw.write(agencyCpuTime + ",");
 			bw.write(telecomCpuTime + ",");
 			bw.write(kilobytes + ",");
+			bw.write(poolHits + ",");
+			bw.write(poolMisses + ",");
+			bw.write(uncompressedKilobytes + ",");
 			bw.newLine();
 			bw.flush();
 			bw.close();
@@ -375,6 +483,21 @@ public abstract class Agency {
 		}
 	}
 
+	/**
+	 * @return the wire format used on all our connections
+	 */
+	public String getWireFormat() {
+		return wireFormat;
+	}
+
+	/**
+	 * @return the Deflater level we ask our peers to compress with, or
+	 * Compression.NONE
+	 */
+	public int getCompression() {
+		return compression;
+	}
+
 	/**
 	 * 
 	 * @return the targetId
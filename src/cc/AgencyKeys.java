@@ -7,7 +7,7 @@ import java.util.Properties;
 
 public class AgencyKeys extends Keys {
 
-	private CommutativeElGamal privateKey;
+	private CommutativeCipher privateKey;
 
 	public AgencyKeys(String privateKeyFilename, String publicKeyFilename,
 			String keysPath, int id, int[] agencyIds)
@@ -28,7 +28,17 @@ public class AgencyKeys extends Keys {
 		BigInteger privateKey = new BigInteger(pk.getProperty(KeyGen.PRIVATE_KEY));
 		String primeString = pk.getProperty(KeyGen.PRIME);
 		String genString = pk.getProperty(KeyGen.GENERATOR);
-		if (primeString != null && genString != null) {
+		String curveName = pk.getProperty(KeyGen.CURVE);
+		String groupName = pk.getProperty(ModpGroup.GROUP);
+		if (groupName != null) {
+			ModpGroup group = ModpGroup.forName(groupName);
+			primeString = group.getPrime().toString();
+			genString = group.getGenerator().toString();
+		}
+		if (curveName != null) {
+			this.privateKey = new CommutativeECElGamal(elgid,
+					ECCurve.forName(curveName), privateKey);
+		} else if (primeString != null && genString != null) {
 			this.privateKey = new CommutativeElGamal(elgid, new BigInteger(primeString), new BigInteger(genString), privateKey);
 		} else {
 			this.privateKey = new CommutativeElGamal(elgid, privateKey);
@@ -38,7 +48,7 @@ public class AgencyKeys extends Keys {
 	/**
 	 * @return the privateKey
 	 */
-	public CommutativeElGamal getPrivateKey() {
+	public CommutativeCipher getPrivateKey() {
 		return privateKey;
 	}
 
@@ -0,0 +1,86 @@
+package cc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size set of non-negative ints that many threads can add to without
+ * locking, and that can be cleared in constant time.
+ *
+ * Each 64-bit word holds 48 bits of the set and a 16-bit epoch tag. A word
+ * whose tag is not the current epoch counts as empty, so clear() only has to
+ * move to the next epoch. Words are brought up to date lazily by add(). Once
+ * every 65535 clears the tags wrap around and the words are zeroed for real.
+ * @author Aaron Segal
+ */
+public class AtomicEpochBitSet {
+
+	private static final int BITS_PER_WORD = 48;
+	private static final long BITS_MASK = (1L << BITS_PER_WORD) - 1;
+	private static final int MAX_EPOCH = 0xFFFF;
+
+	private AtomicLongArray words;
+	private int size;
+	// Zeroed words have tag 0, so the epoch starts at 1.
+	private volatile int epoch = 1;
+
+	/**
+	 * @param size One more than the largest int that will be added.
+	 */
+	public AtomicEpochBitSet(int size) {
+		this.size = size;
+		words = new AtomicLongArray((size + BITS_PER_WORD - 1) / BITS_PER_WORD);
+	}
+
+	/**
+	 * Adds i to the set. This is thread-safe and does not block.
+	 * @param i The int to add, from 0 to size - 1.
+	 * @return True if i was not already in the set.
+	 */
+	public boolean add(int i) {
+		int index = i / BITS_PER_WORD;
+		long bit = 1L << (i % BITS_PER_WORD);
+		long tag = (long) epoch << BITS_PER_WORD;
+		while (true) {
+			long word = words.get(index);
+			long bits = (word & ~BITS_MASK) == tag ? word & BITS_MASK : 0;
+			if ((bits & bit) != 0) {
+				return false;
+			}
+			if (words.compareAndSet(index, word, tag | bits | bit)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param i An int from 0 to size - 1.
+	 * @return True if i is in the set.
+	 */
+	public boolean contains(int i) {
+		long word = words.get(i / BITS_PER_WORD);
+		long tag = (long) epoch << BITS_PER_WORD;
+		return (word & ~BITS_MASK) == tag &&
+				(word & (1L << (i % BITS_PER_WORD))) != 0;
+	}
+
+	/**
+	 * Empties the set. This must not run at the same time as add().
+	 */
+	public void clear() {
+		if (epoch == MAX_EPOCH) {
+			for (int i = 0; i < words.length(); i++) {
+				words.set(i, 0);
+			}
+			epoch = 1;
+		} else {
+			epoch++;
+		}
+	}
+
+	/**
+	 * @return the number of ints this set can hold
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,219 @@
+package cc;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+
+import cc.SignedTelecomCiphertext.QueryType;
+import cc.TelecomResponse.MsgType;
+
+/**
+ * Reads protocol messages written by BinaryObjectOutputStream.
+ * @author Aaron Segal
+ */
+public class BinaryObjectInputStream extends ObjectInputStream {
+
+	private DataInputStream in;
+
+	public BinaryObjectInputStream(InputStream in) throws IOException {
+		super();
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		int magic = this.in.readInt();
+		if (magic != BinaryObjectOutputStream.MAGIC) {
+			throw new StreamCorruptedException(
+					"Not a binary wire format stream; check " + WireFormat.WIRE_FORMAT);
+		}
+		int version = this.in.readUnsignedByte();
+		if (version != BinaryObjectOutputStream.VERSION) {
+			throw new StreamCorruptedException("Unsupported wire format version " +
+					version);
+		}
+	}
+
+	@Override
+	protected Object readObjectOverride() throws IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case BinaryObjectOutputStream.TAG_NULL:
+			return null;
+		case BinaryObjectOutputStream.TAG_SIGNED_TC:
+			return readSignedTelecomCiphertext();
+		case BinaryObjectOutputStream.TAG_SIGNED_TR:
+			return readSignedTelecomResponse();
+		case BinaryObjectOutputStream.TAG_SIGNED_TR_ARRAY:
+			SignedTelecomResponse[] signedTRs =
+					new SignedTelecomResponse[readVarInt()];
+			for (int i = 0; i < signedTRs.length; i++) {
+				if (in.readBoolean()) {
+					signedTRs[i] = readSignedTelecomResponse();
+				}
+			}
+			return signedTRs;
+		case BinaryObjectOutputStream.TAG_BYTES:
+			return readBytes();
+		case BinaryObjectOutputStream.TAG_BYTES_ARRAY:
+			return readBytesArray();
+		case BinaryObjectOutputStream.TAG_BOOLEAN:
+			return in.readBoolean();
+		default:
+			throw new StreamCorruptedException("Unknown message tag " + tag);
+		}
+	}
+
+	private SignedTelecomCiphertext readSignedTelecomCiphertext()
+			throws IOException {
+		QueryType type = QueryType.values()[in.readUnsignedByte()];
+		int maxDegree = readVarInt();
+		TelecomCiphertext[] ciphertexts = readTelecomCiphertexts();
+		byte[][] signatures = readBytesArray();
+		SignedTelecomCiphertext signedTC =
+				new SignedTelecomCiphertext(ciphertexts, signatures.length);
+		signedTC.setType(type);
+		signedTC.setMaxDegree(maxDegree);
+		for (int i = 0; i < signatures.length; i++) {
+			signedTC.addSignature(-i-1, signatures[i]);
+		}
+		if (in.readBoolean()) {
+			byte[] root = readBytes();
+			int offset = readVarInt();
+			int size = readVarInt();
+			byte[][][] paths = null;
+			if (in.readBoolean()) {
+				paths = new byte[ciphertexts.length][][];
+				for (int i = 0; i < paths.length; i++) {
+					paths[i] = readBytesArray();
+				}
+			}
+			signedTC.setMerkleChunk(root, offset, size, paths);
+		}
+		return signedTC;
+	}
+
+	private SignedTelecomResponse readSignedTelecomResponse() throws IOException {
+		int telecomId = readSignedVarInt();
+		TelecomResponse[] responses = new TelecomResponse[readVarInt()];
+		for (int i = 0; i < responses.length; i++) {
+			responses[i] = readTelecomResponse();
+		}
+		SignedTelecomResponse signedTR =
+				new SignedTelecomResponse(responses, telecomId);
+		signedTR.setSignature(readBytes());
+		signedTR.setCpuTime(readVarLong());
+		signedTR.setPoolHits(readVarLong());
+		signedTR.setPoolMisses(readVarLong());
+		signedTR.setMore(in.readBoolean());
+		signedTR.setSequence(readVarInt());
+		return signedTR;
+	}
+
+	private TelecomResponse readTelecomResponse() throws IOException {
+		TelecomResponse response =
+				new TelecomResponse(MsgType.values()[in.readUnsignedByte()]);
+		if (in.readBoolean()) {
+			response.setAgencyCiphertext(readAgencyCiphertext());
+		}
+		if (in.readBoolean()) {
+			response.setTelecomCiphertexts(readTelecomCiphertexts());
+		}
+		return response;
+	}
+
+	private BigInteger[] readAgencyCiphertext() throws IOException {
+		BigInteger[] agencyCiphertext = new BigInteger[readVarInt()];
+		byte[] element = new byte[readVarInt()];
+		for (int i = 0; i < agencyCiphertext.length; i++) {
+			if (MessageEncoder.isAgencyId(i, agencyCiphertext.length)) {
+				agencyCiphertext[i] = BigInteger.valueOf(readSignedVarInt());
+			} else {
+				in.readFully(element);
+				agencyCiphertext[i] = new BigInteger(1, element);
+			}
+		}
+		return agencyCiphertext;
+	}
+
+	private TelecomCiphertext[] readTelecomCiphertexts() throws IOException {
+		TelecomCiphertext[] telecomCiphertexts = new TelecomCiphertext[readVarInt()];
+		int width = readVarInt();
+		for (int i = 0; i < telecomCiphertexts.length; i++) {
+			int owner = readVarInt();
+			byte[] encryptedId = new byte[width > 0 ? width : readVarInt()];
+			in.readFully(encryptedId);
+			telecomCiphertexts[i] = new TelecomCiphertext(encryptedId, owner);
+		}
+		return telecomCiphertexts;
+	}
+
+	private byte[] readBytes() throws IOException {
+		int length = readVarInt();
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length - 1];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private byte[][] readBytesArray() throws IOException {
+		byte[][] bytesArray = new byte[readVarInt()][];
+		for (int i = 0; i < bytesArray.length; i++) {
+			bytesArray[i] = readBytes();
+		}
+		return bytesArray;
+	}
+
+	private int readVarInt() throws IOException {
+		return (int) readVarLong();
+	}
+
+	private int readSignedVarInt() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Malformed varint");
+	}
+
+	@Override
+	public int read() throws IOException {
+		return in.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		return in.read(b, off, len);
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		return in.readInt();
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		return in.readLong();
+	}
+
+	@Override
+	public int available() throws IOException {
+		return in.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
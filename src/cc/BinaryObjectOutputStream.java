@@ -0,0 +1,155 @@
+package cc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes protocol messages in a compact, versioned binary format instead of
+ * Java serialization. Each message is a tag byte followed by its fields in the
+ * layout of MessageEncoder.
+ *
+ * Only the messages exchanged by cc agencies and telecoms are supported:
+ * SignedTelecomCiphertext, SignedTelecomResponse, SignedTelecomResponse[],
+ * byte[], byte[][] and Boolean. writeObject throws NotSerializableException for
+ * anything else.
+ * @author Aaron Segal
+ */
+public class BinaryObjectOutputStream extends ObjectOutputStream {
+
+	public static final int MAGIC = 0x43435746; // "CCWF"
+	public static final int VERSION = 2;
+
+	// One tag byte precedes each message.
+	public static final int TAG_NULL = 0;
+	public static final int TAG_SIGNED_TC = 1;
+	public static final int TAG_SIGNED_TR = 2;
+	public static final int TAG_SIGNED_TR_ARRAY = 3;
+	public static final int TAG_BYTES = 4;
+	public static final int TAG_BYTES_ARRAY = 5;
+	public static final int TAG_BOOLEAN = 6;
+
+	private MessageEncoder encoder;
+	private DataOutputStream out;
+
+	public BinaryObjectOutputStream(OutputStream out) throws IOException {
+		super();
+		encoder = new MessageEncoder(new BufferedOutputStream(out));
+		this.out = encoder.getStream();
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.flush();
+	}
+
+	@Override
+	protected void writeObjectOverride(Object obj) throws IOException {
+		if (obj == null) {
+			out.writeByte(TAG_NULL);
+		} else if (obj instanceof SignedTelecomCiphertext) {
+			out.writeByte(TAG_SIGNED_TC);
+			writeSignedTelecomCiphertext((SignedTelecomCiphertext) obj);
+		} else if (obj instanceof SignedTelecomResponse) {
+			out.writeByte(TAG_SIGNED_TR);
+			writeSignedTelecomResponse((SignedTelecomResponse) obj);
+		} else if (obj instanceof SignedTelecomResponse[]) {
+			out.writeByte(TAG_SIGNED_TR_ARRAY);
+			SignedTelecomResponse[] signedTRs = (SignedTelecomResponse[]) obj;
+			encoder.writeVarInt(signedTRs.length);
+			for (SignedTelecomResponse signedTR : signedTRs) {
+				out.writeBoolean(signedTR != null);
+				if (signedTR != null) {
+					writeSignedTelecomResponse(signedTR);
+				}
+			}
+		} else if (obj instanceof byte[]) {
+			out.writeByte(TAG_BYTES);
+			encoder.writeBytes((byte[]) obj);
+		} else if (obj instanceof byte[][]) {
+			out.writeByte(TAG_BYTES_ARRAY);
+			encoder.writeBytesArray((byte[][]) obj);
+		} else if (obj instanceof Boolean) {
+			out.writeByte(TAG_BOOLEAN);
+			out.writeBoolean((Boolean) obj);
+		} else {
+			throw new NotSerializableException(obj.getClass().getName());
+		}
+	}
+
+	private void writeSignedTelecomCiphertext(SignedTelecomCiphertext signedTC)
+			throws IOException {
+		out.writeByte(signedTC.getType().ordinal());
+		encoder.writeVarInt(signedTC.getMaxDegree());
+		encoder.writeTelecomCiphertexts(signedTC.getCiphertexts());
+		int numAgencies = signedTC.getNumAgencies();
+		byte[][] signatures = new byte[numAgencies][];
+		for (int i = 0; i < numAgencies; i++) {
+			signatures[i] = signedTC.getSignature(-i-1);
+		}
+		encoder.writeBytesArray(signatures);
+		out.writeBoolean(signedTC.isMerkle());
+		if (signedTC.isMerkle()) {
+			encoder.writeBytes(signedTC.getMerkleRoot());
+			encoder.writeVarInt(signedTC.getMerkleOffset());
+			encoder.writeVarInt(signedTC.getMerkleSize());
+			byte[][][] paths = signedTC.getMerklePaths();
+			out.writeBoolean(paths != null);
+			if (paths != null) {
+				for (byte[][] path : paths) {
+					encoder.writeBytesArray(path);
+				}
+			}
+		}
+	}
+
+	private void writeSignedTelecomResponse(SignedTelecomResponse signedTR)
+			throws IOException {
+		encoder.writeSignedVarInt(signedTR.getTelecomId());
+		encoder.writeTelecomResponses(signedTR.getTelecomResponses());
+		encoder.writeBytes(signedTR.getSignature());
+		encoder.writeVarLong(signedTR.getCpuTime());
+		encoder.writeVarLong(signedTR.getPoolHits());
+		encoder.writeVarLong(signedTR.getPoolMisses());
+		out.writeBoolean(signedTR.isMore());
+		encoder.writeVarInt(signedTR.getSequence());
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void writeInt(int i) throws IOException {
+		out.writeInt(i);
+	}
+
+	@Override
+	public void writeLong(long l) throws IOException {
+		out.writeLong(l);
+	}
+
+	/**
+	 * There is no handle table to reset in this format.
+	 */
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
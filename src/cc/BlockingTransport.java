@@ -0,0 +1,65 @@
+package cc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+/**
+ * The default transport: each connection is a java.net.Socket, read and
+ * written directly by the thread using it.
+ * @author Aaron Segal
+ */
+public class BlockingTransport extends Transport {
+
+	@Override
+	public Connection connect(String host, int port) throws IOException {
+		return new SocketConnection(new Socket(host, port));
+	}
+
+	@Override
+	public Listener listen(int port) throws IOException {
+		final ServerSocket serverSocket = new ServerSocket(port);
+		return new Listener() {
+			public Connection accept() throws IOException {
+				return new SocketConnection(serverSocket.accept());
+			}
+
+			public void close() throws IOException {
+				serverSocket.close();
+			}
+		};
+	}
+
+	private static class SocketConnection implements Connection {
+
+		private Socket socket;
+
+		public SocketConnection(Socket socket) {
+			this.socket = socket;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return socket.getInputStream();
+		}
+
+		public OutputStream getOutputStream() throws IOException {
+			return socket.getOutputStream();
+		}
+
+		public InetAddress getInetAddress() {
+			return socket.getInetAddress();
+		}
+
+		public SocketAddress getRemoteSocketAddress() {
+			return socket.getRemoteSocketAddress();
+		}
+
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+}
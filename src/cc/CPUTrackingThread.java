@@ -6,11 +6,14 @@ import java.lang.management.ThreadMXBean;
 public abstract class CPUTrackingThread extends Thread {
 
 	private ThreadMXBean bean;
-	private long cpuTime;
+	private volatile long cpuTime;
+	// How much of cpuTime has already been handed out by getNewCpuTime()
+	private long reportedCpuTime;
 
 	public CPUTrackingThread() {
 		super();
 		cpuTime = 0;
+		reportedCpuTime = 0;
 		bean = ManagementFactory.getThreadMXBean();
 	}
 
@@ -18,6 +21,15 @@ public abstract class CPUTrackingThread extends Thread {
 
 	public void run() {
 		runReal();
+		updateCpuTime();
+	}
+
+	/**
+	 * Records the CPU time this thread has used so far. Long-lived threads
+	 * should call this whenever they finish a piece of work, since run() only
+	 * records it when the thread ends. Must be called from this thread.
+	 */
+	protected void updateCpuTime() {
 		cpuTime = bean.getCurrentThreadCpuTime();
 	}
 
@@ -28,4 +40,15 @@ public abstract class CPUTrackingThread extends Thread {
 		return cpuTime;
 	}
 
+	/**
+	 * Returns the CPU time recorded since the last time this method was called.
+	 * @return the CPU time (ns)
+	 */
+	public synchronized long getNewCpuTime() {
+		long total = cpuTime;
+		long newCpuTime = total - reportedCpuTime;
+		reportedCpuTime = total;
+		return newCpuTime;
+	}
+
 }
@@ -0,0 +1,69 @@
+package cc;
+
+import java.math.BigInteger;
+
+/**
+ * Layered encryption of agency ciphertexts. A ciphertext is an array
+ * (id1, c1, id2, c1', ..., c2): one (id, c1) pair for each layer, sorted by id,
+ * followed by the shared second component. Layers can be added and removed in
+ * any order.
+ *
+ * CommutativeElGamal works in a MODP group and CommutativeECElGamal on an
+ * elliptic curve. Their ciphertexts can't be mixed, so all agency keys in a
+ * deployment must be of the same kind.
+ * @author Aaron Segal
+ */
+public interface CommutativeCipher {
+
+	/**
+	 * @return the id of this keypair
+	 */
+	public int getID();
+
+	/**
+	 * @return the public key, in the form written to public key files
+	 */
+	public BigInteger getPublicKey();
+
+	/**
+	 * Adds a layer of encryption under another party's public key.
+	 * @param id ID of publicKey used for encryption
+	 * @param publicKey public key
+	 * @param data A ciphertext, or a one-element array holding the plaintext.
+	 * @return The ciphertext with the new layer added.
+	 */
+	public BigInteger[] encrypt(int id, BigInteger publicKey, BigInteger[] data);
+
+	/**
+	 * Adds a layer of encryption under this object's public key.
+	 */
+	public BigInteger[] encrypt(BigInteger[] data);
+
+	/**
+	 * Encrypts a plaintext under several public keys at once. The result is a
+	 * ciphertext of the same form as adding the layers one by one with
+	 * encrypt(int, BigInteger, BigInteger[]), but the shared second component
+	 * is computed in one go.
+	 * @param ids IDs of the public keys, all different
+	 * @param publicKeys public keys, one per id
+	 * @param data The plaintext.
+	 * @return The ciphertext with a layer for every key.
+	 */
+	public BigInteger[] encryptForAll(int[] ids, BigInteger[] publicKeys,
+			BigInteger data);
+
+	/**
+	 * Removes this key's layer of encryption. If there is no such layer, the
+	 * data is returned unchanged.
+	 * @param data A ciphertext with at least two layers.
+	 * @return The ciphertext without our layer.
+	 */
+	public BigInteger[] partialDecrypt(BigInteger[] data);
+
+	/**
+	 * Removes the last layer of encryption, which must be this key's.
+	 * @param data A ciphertext with one layer.
+	 * @return The plaintext.
+	 */
+	public BigInteger decrypt(BigInteger[] data);
+}
@@ -0,0 +1,149 @@
+package cc;
+
+import java.math.BigInteger;
+
+/**
+ * CommutativeElGamal on an elliptic curve. The plaintext is a non-negative
+ * integer, such as a user id, which the first layer of encryption embeds in a
+ * point and the last layer of decryption extracts again. Each layer adds two
+ * encoded points of about 258 bits on P-256, where the MODP group adds two
+ * 1024-bit numbers.
+ */
+public class CommutativeECElGamal extends ECElGamal implements CommutativeCipher {
+
+	private int id;
+
+	/**
+	 * Generates a new CommutativeECElGamal object on the selected curve, with
+	 * randomly generated keys and selected id.
+	 * @param id The id for this keypair.
+	 * @param curve The curve.
+	 */
+	public CommutativeECElGamal(int id, ECCurve curve) {
+		super(curve);
+		this.id = id;
+	}
+
+	/**
+	 * Generates a new CommutativeECElGamal object on the selected curve, with
+	 * selected private key and id.
+	 * @param id The id for this keypair.
+	 * @param curve The curve.
+	 * @param privateKey A number between 1 and the order of the curve.
+	 */
+	public CommutativeECElGamal(int id, ECCurve curve, BigInteger privateKey) {
+		super(curve, privateKey);
+		this.id = id;
+	}
+
+	public int getID() {
+		return id;
+	}
+
+	public void setID(int id) {
+		this.id = id;
+	}
+
+	public BigInteger[] encrypt(int id, BigInteger publicKey, BigInteger[] data) {
+		BigInteger[] out = new BigInteger[data.length + 2];
+		BigInteger last = data[data.length-1];
+		if (data.length == 1) {
+			// Not yet encrypted, so the plaintext still has to become a point.
+			last = getCurve().encode(getCurve().embed(last));
+		}
+		BigInteger[] c = encrypt(publicKey, last);
+		int i;
+		BigInteger idbi = BigInteger.valueOf(id);
+		//Copy (id, c1) pairs from old data until it's time to insert our id
+		for (i = 0; i < data.length - 1 && data[i].compareTo(idbi) <= 0; i += 2) {
+			out[i] = data[i];
+			out[i+1] = data[i+1];
+		}
+		//It's now time to insert our (id, c1) pair
+		out[i] = idbi;
+		out[i+1] = c[0];
+		//Now copy until the last element
+		for (; i < data.length - 1; i++) {
+			out[i+2] = data[i];
+		}
+		//Finally, insert the last element
+		out[i+2] = c[1];
+		return out;
+	}
+
+	public BigInteger[] encrypt(BigInteger[] data) {
+		return encrypt(id, getPublicKey(), data);
+	}
+
+	/**
+	 * Encrypts data under every public key at once: the c1 of each layer is
+	 * computed as usual, and the multiples of the public keys are summed into
+	 * one c2 that is encoded once.
+	 */
+	public BigInteger[] encryptForAll(int[] ids, BigInteger[] publicKeys,
+			BigInteger data) {
+		ECCurve curve = getCurve();
+		int layers = ids.length;
+		BigInteger[] out = new BigInteger[2 * layers + 1];
+		BigInteger[] c2 = curve.embed(data);
+		for (int i = 0; i < layers; i++) {
+			// Insertion sort by id, so the pairs come out in the usual order.
+			int slot = i;
+			while (slot > 0 && out[2 * slot - 2].intValue() > ids[i]) {
+				out[2 * slot] = out[2 * slot - 2];
+				out[2 * slot + 1] = out[2 * slot - 1];
+				slot--;
+			}
+			BigInteger y = curve.randomScalar(getRNG());
+			out[2 * slot] = BigInteger.valueOf(ids[i]);
+			out[2 * slot + 1] = curve.encode(curve.multiply(curve.getGenerator(), y));
+			c2 = curve.add(c2, curve.multiply(curve.decode(publicKeys[i]), y));
+		}
+		out[2 * layers] = curve.encode(c2);
+		return out;
+	}
+
+	public BigInteger[] partialDecrypt(BigInteger[] data) {
+		int i;
+
+		//Find the c1 used with this key's id
+		for (i = 0; i < data.length - 1; i += 2) {
+			if (data[i].intValue() == id) {
+				break;
+			}
+		}
+		//If you can't find it, don't change data
+		if (i == data.length - 1) {
+			System.err.println("Error: Could not decrypt with id " + id);
+			return data;
+		}
+
+		//Once it's found, remove a layer of encryption
+		BigInteger[] partialCipher = {data[i+1], data[data.length-1]};
+		BigInteger partialPlain = super.decrypt(partialCipher);
+		BigInteger[] out = new BigInteger[data.length - 2];
+		int j;
+		for (j = 0; j < i; j++) {
+			out[j] = data[j];
+		}
+		for (j = i; j < out.length - 1; j++) {
+			out[j] = data[j+2];
+		}
+		out[out.length - 1] = partialPlain;
+
+		return out;
+	}
+
+	public BigInteger decrypt(BigInteger[] data) {
+		if (data.length > 3) {
+			System.err.println("Error! You cannot fully decrypt multiply-encrypted data.");
+			return data[data.length - 1];
+		}
+		if (data.length == 3 && data[0].intValue() != id) {
+			System.err.println("Error - id used to encrypt does not match this id");
+			return data[data.length - 1];
+		}
+		BigInteger[] decryptData = {data[data.length - 2], data[data.length - 1]};
+		return getCurve().extract(getCurve().decode(super.decrypt(decryptData)));
+	}
+}
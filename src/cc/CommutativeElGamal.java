@@ -1,8 +1,9 @@
 package cc;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
-public class CommutativeElGamal extends ElGamal {
+public class CommutativeElGamal extends ElGamal implements CommutativeCipher {
 
 	private int id;
 
@@ -82,6 +83,19 @@ public class CommutativeElGamal extends ElGamal {
 		this.id = id;
 	}
 
+	/**
+	 * Generates a new ElGamal object with selected group, generator, exponent
+	 * length and id, and randomly generated keys.
+	 * @param id The id for this keypair.
+	 * @param p A prime number.
+	 * @param g A generator of the group Zp*.
+	 * @param exponentBits The exponent length; see ModpGroup.
+	 */
+	public CommutativeElGamal(int id, BigInteger p, BigInteger g, int exponentBits) {
+		super(p, g, exponentBits);
+		this.id = id;
+	}
+
 	/**
 	 * Generates a new ElGamal object with preset group and generator, and selected 
 	 * private key and id.
@@ -160,6 +174,52 @@ public class CommutativeElGamal extends ElGamal {
 		return encrypt(id, getPublicKey(), data);
 	}
 
+	/**
+	 * Encrypts data under every public key at once. The c1 of each layer is
+	 * computed as usual, and c2 = data * pk1^y1 * pk2^y2 * ... as one
+	 * multi-exponentiation. Keys with a RandomnessPool use its pairs instead.
+	 */
+	public BigInteger[] encryptForAll(int[] ids, BigInteger[] publicKeys,
+			BigInteger data) {
+		BigInteger p = getPrime();
+		BigInteger g = getGenerator();
+		int layers = ids.length;
+		BigInteger[] out = new BigInteger[2 * layers + 1];
+		BigInteger[] bases = new BigInteger[layers];
+		BigInteger[] exponents = new BigInteger[layers];
+		int powers = 0;
+		BigInteger c2 = data;
+		for (int i = 0; i < layers; i++) {
+			// Insertion sort by id, so the pairs come out in the usual order.
+			int slot = i;
+			while (slot > 0 && out[2 * slot - 2].intValue() > ids[i]) {
+				out[2 * slot] = out[2 * slot - 2];
+				out[2 * slot + 1] = out[2 * slot - 1];
+				slot--;
+			}
+			out[2 * slot] = BigInteger.valueOf(ids[i]);
+			RandomnessPool pool = RandomnessPool.get(g, publicKeys[i], p);
+			if (pool != null) {
+				BigInteger[] pair = pool.take();
+				out[2 * slot + 1] = pair[0];
+				c2 = c2.multiply(pair[1]).mod(p);
+			} else {
+				BigInteger y = new BigInteger(getExponentBits(), getRNG());
+				out[2 * slot + 1] = FixedBaseTable.modPow(g, y, p);
+				bases[powers] = publicKeys[i];
+				exponents[powers] = y;
+				powers++;
+			}
+		}
+		if (powers > 0) {
+			c2 = c2.multiply(MultiExponentiation.modPow(
+					Arrays.copyOf(bases, powers), Arrays.copyOf(exponents, powers),
+					p)).mod(p);
+		}
+		out[2 * layers] = c2;
+		return out;
+	}
+
 	public BigInteger[] partialDecrypt(BigInteger[] data) {
 		int i;
 
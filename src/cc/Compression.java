@@ -0,0 +1,93 @@
+package cc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Optional Deflate compression of the traffic on a connection. The RSA and
+ * ElGamal values in our messages don't compress, but the framing around them
+ * does, so whether this is worth it depends on the link; see
+ * CompressionBenchmark.
+ *
+ * When a connection opens, each side sends the level it wants. The connection
+ * is compressed only if both sides asked for it, and each side compresses what
+ * it sends at its own level. Every flush ends a Deflate block, so the peer can
+ * read each message as soon as it is sent.
+ * @author Aaron Segal
+ */
+public class Compression {
+
+	// Config key: the Deflater level (1 to 9) to compress with, or 0 for none.
+	public static final String COMPRESSION = "COMPRESSION";
+	public static final int NONE = 0;
+	// Size of the Deflater and Inflater buffers.
+	public static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Tells the peer the level we want and learns theirs. Both sides must call
+	 * this before opening their object streams.
+	 * @param in The stream from the peer.
+	 * @param out The stream to the peer.
+	 * @param level Our level, or NONE.
+	 * @return True if the connection is to be compressed.
+	 * @throws IOException
+	 */
+	public static boolean negotiate(InputStream in, OutputStream out, int level)
+			throws IOException {
+		if (level < NONE || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Bad compression level " + level);
+		}
+		out.write(level);
+		out.flush();
+		int peerLevel = in.read();
+		if (peerLevel < 0) {
+			throw new EOFException("Connection closed before compression was agreed");
+		}
+		return level != NONE && peerLevel != NONE;
+	}
+
+	/**
+	 * Compresses everything written to a stream. Closing the returned stream
+	 * frees its Deflater.
+	 * @param out The stream to the peer.
+	 * @param level The Deflater level.
+	 * @return The stream to write to.
+	 */
+	public static OutputStream compress(OutputStream out, int level) {
+		return new DeflaterOutputStream(out, new Deflater(level), BUFFER_SIZE, true) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					def.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Decompresses everything read from a stream. Closing the returned stream
+	 * frees its Inflater.
+	 * @param in The stream from the peer.
+	 * @return The stream to read from.
+	 */
+	public static InputStream decompress(InputStream in) {
+		return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inf.end();
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,170 @@
+package cc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import cc.SignedTelecomCiphertext.QueryType;
+
+/**
+ * Measures what COMPRESSION would save on the link between the leader and a
+ * telecom. Reads a telecom config file, builds one query for users in the
+ * telecom's own data and answers it, then encodes the request and the signed
+ * response in each wire format and compresses them at several levels, printing
+ * the sizes and the time taken to compress and decompress.
+ * Run it against the telecoms in tests/pokec and tests/lognorm to compare
+ * real and generated data.
+ *
+ * Usage: java cc.CompressionBenchmark config_file [-c config_file] [-n query_size] [-r repetitions]
+ * @author Aaron Segal
+ */
+public class CompressionBenchmark {
+
+	// How far to look for user ids to put in the query
+	public static final int MAX_USER_ID = 10000000;
+	// The Deflater levels to try
+	public static final int[] LEVELS = {1, 3, 6, 9};
+
+	private static void usage() {
+		System.err.println("Usage: java cc.CompressionBenchmark config_file [-c config_file] [-n query_size] [-r repetitions]");
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			usage();
+			System.exit(1);
+		}
+		Properties config = new Properties();
+		int querySize = 200;
+		int repetitions = 3;
+		try {
+			FileReader configFile = new FileReader(args[0]);
+			config.load(configFile);
+			configFile.close();
+			for (int i = 1; i < args.length; i++) {
+				if (i + 1 == args.length) {
+					usage();
+					System.exit(1);
+				} else if (args[i].equals("-c")) {
+					FileReader configFile2 = new FileReader(args[++i]);
+					config.load(configFile2);
+					configFile2.close();
+				} else if (args[i].equals("-n")) {
+					querySize = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-r")) {
+					repetitions = Integer.parseInt(args[++i]);
+				} else {
+					usage();
+					System.exit(1);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Could not load config file");
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		int numAgencies = Integer.parseInt(config.getProperty(Telecom.NUM_AGENCIES, "0"));
+		int numTelecoms = Integer.parseInt(config.getProperty(Telecom.NUM_TELECOMS, "0"));
+		int id = Integer.parseInt(config.getProperty(Telecom.ID));
+		String inputFile = config.getProperty(Telecom.INPUT_FILE);
+		String contactFormat = config.getProperty(Telecom.CONTACT_FORMAT);
+		TelecomKeys keys;
+		try {
+			keys = new TelecomKeys(config.getProperty(Telecom.PRIVATE_KEY),
+					config.getProperty(Telecom.PUBLIC_KEYS),
+					config.getProperty(Telecom.SIGNING_KEYPATH),
+					id,
+					Agency.getAgencyIds(numAgencies));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		// Query the first querySize users this telecom knows about.
+		TelecomData data = new TelecomData(inputFile, contactFormat, numTelecoms,
+				keys, Runtime.getRuntime().availableProcessors());
+		ArrayList<TelecomCiphertext> query = new ArrayList<TelecomCiphertext>();
+		for (int userId = 0; query.size() < querySize && userId < MAX_USER_ID; userId++) {
+			if (data.getNeighbors(userId) != null) {
+				query.add(new TelecomCiphertext(keys.encrypt(id, userId), id));
+			}
+		}
+		if (query.isEmpty()) {
+			System.err.println("No users found in " + inputFile);
+			return;
+		}
+		TelecomCiphertext[] ciphertexts = query.toArray(new TelecomCiphertext[0]);
+		SignedTelecomCiphertext request =
+				new SignedTelecomCiphertext(ciphertexts, numAgencies);
+		TelecomResponse[] responses =
+				data.queryResponse(ciphertexts, QueryType.SEARCH);
+		SignedTelecomResponse response = new SignedTelecomResponse(responses, id);
+		response.setSignature(keys.sign(response));
+
+		System.out.println("Query of " + ciphertexts.length + " users");
+		System.out.println("Message,Wire format,Level,Size (KB),Compressed (KB),Ratio,Compress (ms),Decompress (ms)");
+		try {
+			for (String format : new String[] {WireFormat.JAVA, WireFormat.BINARY}) {
+				report("request", format, encode(format, request), repetitions);
+				report("response", format, encode(format, response), repetitions);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the bytes sent for one message, including the stream header
+	 */
+	private static byte[] encode(String format, Object message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = WireFormat.newOutputStream(format, bytes);
+		out.writeObject(message);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Compresses a message at each level and prints a line for each.
+	 */
+	private static void report(String message, String format, byte[] raw,
+			int repetitions) throws IOException {
+		for (int level : LEVELS) {
+			byte[] compressed = null;
+			long bestCompress = Long.MAX_VALUE;
+			long bestDecompress = Long.MAX_VALUE;
+			// The first run warms up the JIT and isn't timed.
+			for (int r = 0; r <= repetitions; r++) {
+				long start = System.nanoTime();
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				OutputStream out = Compression.compress(bytes, level);
+				out.write(raw);
+				out.close();
+				compressed = bytes.toByteArray();
+				long middle = System.nanoTime();
+				InputStream in = Compression.decompress(
+						new ByteArrayInputStream(compressed));
+				byte[] buffer = new byte[Compression.BUFFER_SIZE];
+				while (in.read(buffer) >= 0) {}
+				in.close();
+				long end = System.nanoTime();
+				if (r > 0) {
+					bestCompress = Math.min(bestCompress, middle - start);
+					bestDecompress = Math.min(bestDecompress, end - middle);
+				}
+			}
+			System.out.println(message + "," + format + "," + level + "," +
+					raw.length / 1024 + "," + compressed.length / 1024 + "," +
+					String.format("%.2f", (double) raw.length / compressed.length) +
+					"," + String.format("%.2f", bestCompress / 1e6) +
+					"," + String.format("%.2f", bestDecompress / 1e6));
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package cc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Collects contacts for the data generators and splits them up into one
+ * IntContactMap per telecom.
+ *
+ * Contacts are kept as a flat list of (user, contact) pairs until build(), so
+ * that generating or converting a large graph doesn't need a boxed HashSet per
+ * user. Duplicate contacts are dropped by build().
+ * @author Aaron Segal
+ */
+public class ContactListBuilder {
+
+	private int[] users = new int[1024];
+	private int[] contacts = new int[1024];
+	private int numContacts = 0;
+	// Users added with addUser(), who appear even if they have no contacts.
+	private int[] emptyUsers = new int[16];
+	private int numEmptyUsers = 0;
+	private int maxUserId = -1;
+
+	/**
+	 * Makes sure a user appears in the output, even if it has no contacts.
+	 * @param userId The user. Must not be negative.
+	 */
+	public void addUser(int userId) {
+		checkUserId(userId);
+		if (numEmptyUsers == emptyUsers.length) {
+			emptyUsers = Arrays.copyOf(emptyUsers, emptyUsers.length * 2);
+		}
+		emptyUsers[numEmptyUsers++] = userId;
+	}
+
+	/**
+	 * Records that a user contacted another. Only the first user gets the
+	 * contact; call this twice for an undirected link.
+	 * @param userId The user whose contact list gets the contact.
+	 * @param contactId The contact.
+	 */
+	public void addContact(int userId, int contactId) {
+		checkUserId(userId);
+		checkUserId(contactId);
+		if (numContacts == users.length) {
+			users = Arrays.copyOf(users, users.length * 2);
+			contacts = Arrays.copyOf(contacts, contacts.length * 2);
+		}
+		users[numContacts] = userId;
+		contacts[numContacts] = contactId;
+		numContacts++;
+	}
+
+	private void checkUserId(int userId) {
+		if (userId < 0) {
+			throw new IllegalArgumentException("Bad user id " + userId);
+		}
+		maxUserId = Math.max(maxUserId, userId);
+	}
+
+	/**
+	 * Splits the contacts among the telecoms, as given by DataGen.provider().
+	 * @param numTelecoms The number of telecoms.
+	 * @return An IntContactMap for each telecom.
+	 */
+	public IntContactMap[] build(int numTelecoms) {
+		// Count each user's contacts, then place them, as in a counting sort.
+		int[] start = new int[maxUserId + 2];
+		for (int i = 0; i < numContacts; i++) {
+			start[users[i] + 1]++;
+		}
+		for (int u = 0; u <= maxUserId; u++) {
+			start[u + 1] += start[u];
+		}
+		int[] sorted = new int[numContacts];
+		int[] next = Arrays.copyOf(start, maxUserId + 1);
+		for (int i = 0; i < numContacts; i++) {
+			sorted[next[users[i]]++] = contacts[i];
+		}
+		next = null;
+
+		boolean[] present = new boolean[maxUserId + 1];
+		for (int i = 0; i < numEmptyUsers; i++) {
+			present[emptyUsers[i]] = true;
+		}
+		int[] counts = new int[numTelecoms];
+		for (int u = 0; u <= maxUserId; u++) {
+			if (present[u] || start[u + 1] > start[u]) {
+				counts[DataGen.provider(u, numTelecoms)]++;
+			}
+		}
+		IntContactMap[] maps = new IntContactMap[numTelecoms];
+		for (int i = 0; i < numTelecoms; i++) {
+			maps[i] = new IntContactMap(counts[i]);
+		}
+		for (int u = 0; u <= maxUserId; u++) {
+			if (!present[u] && start[u + 1] == start[u]) {
+				continue;
+			}
+			Arrays.sort(sorted, start[u], start[u + 1]);
+			int length = 0;
+			for (int i = start[u]; i < start[u + 1]; i++) {
+				if (length == 0 || sorted[i] != sorted[start[u] + length - 1]) {
+					sorted[start[u] + length] = sorted[i];
+					length++;
+				}
+			}
+			maps[DataGen.provider(u, numTelecoms)].put(u,
+					Arrays.copyOfRange(sorted, start[u], start[u] + length));
+		}
+		return maps;
+	}
+
+	/**
+	 * Writes each telecom's contacts to filename0, filename1, etc.
+	 * @param maps The contacts of each telecom, from build().
+	 * @param filename The prefix of the files to write.
+	 * @param format TelecomData.SERIALIZED or TelecomData.MAPPED.
+	 */
+	public static void writeAll(IntContactMap[] maps, String filename, String format) {
+		for (int i = 0; i < maps.length; i++) {
+			try {
+				TelecomData.writeContacts(maps[i], filename + i, format);
+				System.out.println("Wrote " + maps[i].size() + " users to " + filename + i);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package cc;
+
+/**
+ * A telecom's plaintext contact data: for each of its users, the ids of the
+ * users they contacted. Implementations must be safe for concurrent reads.
+ * @author Aaron Segal
+ */
+public interface ContactStore {
+
+	/**
+	 * @param userId A user id.
+	 * @return True if the user is in this store.
+	 */
+	public boolean contains(int userId);
+
+	/**
+	 * @param userId A user id.
+	 * @return The user's contacts, or null if the user is not in this store.
+	 * Callers must not modify the array.
+	 */
+	public int[] getNeighbors(int userId);
+
+	/**
+	 * @return The largest user id in this store, or -1 if it is empty.
+	 */
+	public int getMaxUserId();
+}
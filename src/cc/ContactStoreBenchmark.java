@@ -0,0 +1,169 @@
+package cc;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Measures the memory and GC cost of holding a telecom's contact data, and how
+ * fast lookups into it are. Loads one contact file, then looks up random user
+ * ids as ResponseWorker would, and prints the load time, the heap in use, the
+ * resident set size, and the GC pauses taken by each stage.
+ *
+ * The hashmap format keeps the data in the deserialized HashMap&lt;Integer, int[]&gt;
+ * as the telecoms used to, to give a baseline. Run each format in its own JVM.
+ *
+ * Usage: java cc.ContactStoreBenchmark contact_file [hashmap|serialized|mapped] [-n lookups]
+ * @author Aaron Segal
+ */
+public class ContactStoreBenchmark {
+
+	public static final String HASHMAP = "hashmap";
+
+	private static void usage() {
+		System.err.println("Usage: java cc.ContactStoreBenchmark contact_file [hashmap|serialized|mapped] [-n lookups]");
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			usage();
+			System.exit(1);
+		}
+		String format = TelecomData.SERIALIZED;
+		int lookups = 10000000;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-n") && i + 1 < args.length) {
+				lookups = Integer.parseInt(args[++i]);
+			} else if (!args[i].startsWith("-")) {
+				format = args[i];
+			} else {
+				usage();
+				System.exit(1);
+			}
+		}
+
+		System.out.println("Format: " + format);
+		long[] gc = gcTotals();
+		long start = System.nanoTime();
+		ContactStore contacts;
+		try {
+			if (format.equalsIgnoreCase(HASHMAP)) {
+				contacts = loadHashMap(args[0]);
+			} else {
+				contacts = TelecomData.openContacts(args[0], format);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		long loadTime = System.nanoTime() - start;
+		System.out.println("Load time (ms): " + loadTime / 1000000L);
+		gc = printGc("Load", gc);
+
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		System.out.println("Heap used after GC (MB): " +
+				(runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+		gc = gcTotals();
+
+		// Look up random ids, as the agencies' queries would.
+		Random rand = new Random(0);
+		int range = contacts.getMaxUserId() + 1;
+		long found = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			int[] neighbors = contacts.getNeighbors(rand.nextInt(range));
+			if (neighbors != null) {
+				found += neighbors.length;
+			}
+		}
+		long lookupTime = System.nanoTime() - start;
+		System.out.println("Lookups: " + lookups + ", contacts found: " + found);
+		System.out.println("Lookup time (ns/lookup): " +
+				String.format("%.1f", (double) lookupTime / lookups));
+		printGc("Lookup", gc);
+		String rss = residentSetSize();
+		if (rss != null) {
+			System.out.println("Resident set size: " + rss);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ContactStore loadHashMap(String filename) throws IOException {
+		final HashMap<Integer, int[]> map;
+		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename));
+		try {
+			map = (HashMap<Integer, int[]>) ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Malformed contact data in " + filename, e);
+		} finally {
+			ois.close();
+		}
+		int max = -1;
+		for (int userId : map.keySet()) {
+			max = Math.max(max, userId);
+		}
+		final int maxUserId = max;
+		return new ContactStore() {
+			public boolean contains(int userId) {
+				return map.containsKey(userId);
+			}
+
+			public int[] getNeighbors(int userId) {
+				return map.get(userId);
+			}
+
+			public int getMaxUserId() {
+				return maxUserId;
+			}
+		};
+	}
+
+	/**
+	 * @return the number of collections and the time spent in them (ms), over
+	 * all collectors.
+	 */
+	private static long[] gcTotals() {
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(bean.getCollectionCount(), 0);
+			totals[1] += Math.max(bean.getCollectionTime(), 0);
+		}
+		return totals;
+	}
+
+	private static long[] printGc(String stage, long[] before) {
+		long[] after = gcTotals();
+		System.out.println(stage + " GC: " + (after[0] - before[0]) +
+				" collections, " + (after[1] - before[1]) + " ms");
+		return after;
+	}
+
+	/**
+	 * @return VmRSS from /proc/self/status, or null where there is none.
+	 */
+	private static String residentSetSize() {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("VmRSS:")) {
+						return line.substring("VmRSS:".length()).trim();
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// Not on Linux.
+		}
+		return null;
+	}
+}
@@ -0,0 +1,39 @@
+package cc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes all writes through to an underlying stream, counting the bytes.
+ * Wrapping a socket's stream with this lets us account for traffic without
+ * serializing anything a second time.
+ * @author Aaron Segal
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+	private long count = 0;
+
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long getCount() {
+		return count;
+	}
+}
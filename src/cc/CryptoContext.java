@@ -0,0 +1,147 @@
+package cc;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.HashMap;
+
+import javax.crypto.Cipher;
+
+/**
+ * Hands each thread its own Cipher and Signature objects, which are not
+ * thread-safe, so that any thread can encrypt, decrypt, sign or verify without
+ * being told which slot is its own. An object is created and initialized the
+ * first time a thread asks for it with a given algorithm and key, and the same
+ * object is returned to that thread afterwards.
+ *
+ * The objects are only valid in the thread that got them: they must not be
+ * passed to other threads or kept across tasks run by a shared executor.
+ * @author Aaron Segal
+ */
+public class CryptoContext {
+
+	private ThreadLocal<HashMap<Slot, Object>> objects =
+			new ThreadLocal<HashMap<Slot, Object>>() {
+		@Override
+		protected HashMap<Slot, Object> initialValue() {
+			return new HashMap<Slot, Object>();
+		}
+	};
+
+	/**
+	 * Identifies one cached object: an algorithm, what it is for and its key.
+	 */
+	private static class Slot {
+		private String algorithm;
+		private int mode;
+		private Key key;
+
+		private Slot(String algorithm, int mode, Key key) {
+			this.algorithm = algorithm;
+			this.mode = mode;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Slot)) {
+				return false;
+			}
+			Slot other = (Slot) o;
+			return algorithm.equals(other.algorithm) && mode == other.mode &&
+					key == other.key;
+		}
+
+		@Override
+		public int hashCode() {
+			return algorithm.hashCode() * 31 + mode +
+					System.identityHashCode(key);
+		}
+	}
+
+	// Modes for Signature slots, which don't clash with the Cipher modes.
+	private static final int SIGN = -1;
+	private static final int VERIFY = -2;
+	// Mode for Cipher slots the caller initializes itself.
+	private static final int UNINITIALIZED = 0;
+
+	/**
+	 * @param transformation The Cipher transformation, e.g. RSA/ECB/PKCS1Padding.
+	 * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE.
+	 * @param key The key to initialize the Cipher with.
+	 * @return This thread's Cipher for that transformation, mode and key.
+	 * @throws GeneralSecurityException if the Cipher can't be made.
+	 */
+	public Cipher getCipher(String transformation, int mode, Key key)
+			throws GeneralSecurityException {
+		HashMap<Slot, Object> threadObjects = objects.get();
+		Slot slot = new Slot(transformation, mode, key);
+		Cipher cipher = (Cipher) threadObjects.get(slot);
+		if (cipher == null) {
+			cipher = Cipher.getInstance(transformation);
+			cipher.init(mode, key);
+			threadObjects.put(slot, cipher);
+		}
+		return cipher;
+	}
+
+	/**
+	 * Returns a Cipher that the caller initializes before each use, for
+	 * transformations such as AES/GCM that need new parameters every time.
+	 * @param transformation The Cipher transformation.
+	 * @return This thread's uninitialized Cipher for that transformation.
+	 * @throws GeneralSecurityException if the Cipher can't be made.
+	 */
+	public Cipher getCipher(String transformation) throws GeneralSecurityException {
+		HashMap<Slot, Object> threadObjects = objects.get();
+		Slot slot = new Slot(transformation, UNINITIALIZED, null);
+		Cipher cipher = (Cipher) threadObjects.get(slot);
+		if (cipher == null) {
+			cipher = Cipher.getInstance(transformation);
+			threadObjects.put(slot, cipher);
+		}
+		return cipher;
+	}
+
+	/**
+	 * @param algorithm The signature algorithm.
+	 * @param provider The provider to get it from.
+	 * @param key The signing key.
+	 * @return This thread's Signature for signing with that key.
+	 * @throws GeneralSecurityException if the Signature can't be made.
+	 */
+	public Signature getSigner(String algorithm, String provider, PrivateKey key)
+			throws GeneralSecurityException {
+		HashMap<Slot, Object> threadObjects = objects.get();
+		Slot slot = new Slot(algorithm, SIGN, key);
+		Signature signer = (Signature) threadObjects.get(slot);
+		if (signer == null) {
+			signer = Signature.getInstance(algorithm, provider);
+			signer.initSign(key);
+			threadObjects.put(slot, signer);
+		}
+		return signer;
+	}
+
+	/**
+	 * @param algorithm The signature algorithm.
+	 * @param provider The provider to get it from.
+	 * @param key The verification key.
+	 * @return This thread's Signature for verifying with that key.
+	 * @throws GeneralSecurityException if the Signature can't be made.
+	 */
+	public Signature getVerifier(String algorithm, String provider, PublicKey key)
+			throws GeneralSecurityException {
+		HashMap<Slot, Object> threadObjects = objects.get();
+		Slot slot = new Slot(algorithm, VERIFY, key);
+		Signature verifier = (Signature) threadObjects.get(slot);
+		if (verifier == null) {
+			verifier = Signature.getInstance(algorithm, provider);
+			verifier.initVerify(key);
+			threadObjects.put(slot, verifier);
+		}
+		return verifier;
+	}
+}
@@ -11,6 +11,9 @@ package cc;
  * path/verify_1.key
  * path/verify_2.key
  * 
+ * With -p it also writes a random AES key for every ordered pair of ids,
+ * stored as path/envelope_S_R.key, which S uses to seal ids for R.
+ * 
  */
 
 import java.io.File;
@@ -30,15 +33,17 @@ public class CryptoKeyGen {
 	public static final String PRIVATE_PREFIX = "priv_";
 	public static final String VERIFY_PREFIX = "verify_";
 	public static final String SIGNING_PREFIX = "sign_";
+	public static final String ENVELOPE_PREFIX = "envelope_";
 	public static final String SUFFIX = ".key";
 	public static final String ENCRYPTION_ALGORITHM = "RSA";
 	public static final String SIGNING_ALGORITHM = "DSA";
 	public static final int KEY_SIZE = 2048;
 
 	public static void usage() {
-		System.out.println("Usage: cc.CryptoKeyGen path minId maxId [-e] [-s]");
+		System.out.println("Usage: cc.CryptoKeyGen path minId maxId [-e] [-s] [-p]");
 		System.out.println("-e\t to generate encryption/decryption keys");
 		System.out.println("-s\t to generate signing/verification keys");
+		System.out.println("-p\t to generate per-pair envelope keys");
 	}
 
 	public static void generateKeys(String algorithm,
@@ -74,16 +79,19 @@ public class CryptoKeyGen {
 		}
 		boolean encryptionWanted = false;
 		boolean signingWanted = false;
+		boolean envelopesWanted = false;
 		for (int i = 3; i < args.length; i++) {
 			if (args[i].equals("-e")) {
 				encryptionWanted = true;
 			} else if (args[i].equals("-s")) {
 				signingWanted = true;
+			} else if (args[i].equals("-p")) {
+				envelopesWanted = true;
 			}
 		}
 
-		if (!(encryptionWanted || signingWanted)) {
-			System.out.println("Please provide -e for encryption keys or -s for signing keys.");
+		if (!(encryptionWanted || signingWanted || envelopesWanted)) {
+			System.out.println("Please provide -e for encryption keys, -s for signing keys or -p for envelope keys.");
 			usage();
 			return;
 		}
@@ -123,5 +131,24 @@ public class CryptoKeyGen {
 				e.printStackTrace();
 			}
 		}
+
+		if (envelopesWanted) {
+			try {
+				SecureRandom random = new SecureRandom();
+				for (int sender = minId; sender <= maxId; sender++) {
+					for (int receiver = minId; receiver <= maxId; receiver++) {
+						byte[] key = new byte[TelecomKeys.ENVELOPE_KEY_BYTES];
+						random.nextBytes(key);
+						FileOutputStream keyFile = new FileOutputStream(path +
+								File.separator + ENVELOPE_PREFIX + sender + "_" +
+								receiver + SUFFIX);
+						keyFile.write(key);
+						keyFile.close();
+					}
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
 	}
 }
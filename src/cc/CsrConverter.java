@@ -0,0 +1,35 @@
+package cc;
+
+import java.io.IOException;
+
+/**
+ * Converts telecom contact files written by DataGen or DataConverter into
+ * the memory-mapped CSR format read by MappedContactStore.
+ * @author Aaron Segal
+ */
+public class CsrConverter {
+
+	public static void usage() {
+		System.err.println("Usage: java cc.CsrConverter inputFile outputFile");
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			usage();
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			ContactStore contacts = new SerializedContactStore(args[0]);
+			System.out.println("Read " + args[0] + " in " +
+					(System.currentTimeMillis() - start) + " ms");
+			MappedContactStore.write(contacts, args[1]);
+			start = System.currentTimeMillis();
+			new MappedContactStore(args[1]);
+			System.out.println("Wrote " + args[1] + "; it opens in " +
+					(System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
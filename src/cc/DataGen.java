@@ -1,10 +1,5 @@
 package cc;
 
-import java.io.IOException;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Random;
 
@@ -19,7 +14,8 @@ import java.util.Random;
  *   "Large" nodes have 3-5000 contacts (chosen uniformly).
  * The large type represent businesses.
  * 
- * The files are written to filename0, filename1, etc.
+ * The files are written to filename0, filename1, etc., in the given format
+ * (serialized by default, or mapped).
  */
 
 public class DataGen {
@@ -36,7 +32,7 @@ public class DataGen {
 
 
 	public static void usage() {
-		System.err.println("Usage: java cc.DataGen filename numTelecoms numUsers");
+		System.err.println("Usage: java cc.DataGen filename numTelecoms numUsers [serialized|mapped]");
 	}
 
 	// Method to return which telecom owns which user id.
@@ -59,6 +55,7 @@ public class DataGen {
 		}
 		int nTelecoms = Integer.parseInt(args[1]);
 		int nUsers = Integer.parseInt(args[2]);
+		String format = args.length > 3 ? args[3] : TelecomData.SERIALIZED;
 		if (LARGE_MAX >= nUsers) {
 			System.err.println("Please allow for more than " + LARGE_MAX + " users.");
 			return;
@@ -66,11 +63,7 @@ public class DataGen {
 
 		Random rand = new Random();
 
-		ArrayList<HashMap<Integer, HashSet<Integer>>> graph =
-				new ArrayList<HashMap<Integer, HashSet<Integer>>>();
-		for (int i = 0; i < nTelecoms; i++) {
-			graph.add(new HashMap<Integer, HashSet<Integer>>());
-		}
+		ContactListBuilder graph = new ContactListBuilder();
 
 		// For each user, generate a set of contacts and store it.
 		for (int currId = 1; currId <= nUsers; currId++) {
@@ -97,35 +90,15 @@ public class DataGen {
 				}
 			}
 
-			// Add this user's data to the appropriate telecom
-			graph.get(provider(currId, nTelecoms)).put(currId, userData);
+			// Add this user's data; it goes to the appropriate telecom in build()
+			for (int contactId : userData) {
+				graph.addContact(currId, contactId);
+			}
 		}
 
 		System.out.println(nUsers + " users generated");
 
-		// Now store data to file, converting from HashSet<Integer> to int[].
-		for (int i = 0; i < graph.size(); i++) {
-			try {
-				FileOutputStream fos = new FileOutputStream(args[0] + i);
-				ObjectOutputStream oos = new ObjectOutputStream(fos);
-				HashMap<Integer, HashSet<Integer>> telecomData = graph.get(i);
-				HashMap<Integer, int[]> convertedData = new HashMap<Integer, int[]>();
-				for (int userId : telecomData.keySet()) {
-					HashSet<Integer> setData = telecomData.get(userId);
-					int[] arrayData = new int[setData.size()];
-					int j = 0;
-					for (int k : setData) {
-						arrayData[j] = k;
-						j++;
-					}
-					convertedData.put(userId, arrayData);
-				}
-				oos.writeObject(convertedData);
-				System.out.println("Wrote " + telecomData.size() + " users to " + args[0] + i);
-				oos.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		// Now store data to file.
+		ContactListBuilder.writeAll(graph.build(nTelecoms), args[0], format);
 	}
-}
\ No newline at end of file
+}
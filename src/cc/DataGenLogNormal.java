@@ -1,11 +1,5 @@
 package cc;
 
-import java.io.IOException;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Random;
 
 import org.apache.commons.math3.distribution.LogNormalDistribution;
@@ -21,7 +15,8 @@ import org.apache.commons.math3.distribution.LogNormalDistribution;
  * When a user makes a contact, it picks another id randomly, and both user ids add
  *   the other to their contact lists.
  * 
- * The files are written to filename0, filename1, etc.
+ * The files are written to filename0, filename1, etc., in the given format
+ * (serialized by default, or mapped).
  */
 
 public class DataGenLogNormal {
@@ -32,7 +27,7 @@ public class DataGenLogNormal {
 	public static double SIGMA2 = 1.5454;
 
 	public static void usage() {
-		System.err.println("Usage: java cc.DataGen filename numTelecoms numUsers");
+		System.err.println("Usage: java cc.DataGenLogNormal filename numTelecoms numUsers [serialized|mapped]");
 	}
 
 	public static void main(String[] args) {
@@ -42,26 +37,20 @@ public class DataGenLogNormal {
 		}
 		int nTelecoms = Integer.parseInt(args[1]);
 		int nUsers = Integer.parseInt(args[2]);
+		String format = args.length > 3 ? args[3] : TelecomData.SERIALIZED;
 
 		Random rand = new Random();
 		LogNormalDistribution logNorm = new LogNormalDistribution(MU, SIGMA2);
 
-		ArrayList<HashMap<Integer, HashSet<Integer>>> graph =
-				new ArrayList<HashMap<Integer, HashSet<Integer>>>();
-		for (int i = 0; i < nTelecoms; i++) {
-			graph.add(new HashMap<Integer, HashSet<Integer>>());
-		}
+		ContactListBuilder graph = new ContactListBuilder();
 
 		// For each user, generate a blank set of contacts.
 		for (int currId = 1; currId <= nUsers; currId++) {
-			HashSet<Integer> userData = new HashSet<Integer>();
-			graph.get(DataGen.provider(currId, nTelecoms)).put(currId, userData);
+			graph.addUser(currId);
 		}
 
 		// For each user, fill out its set of contacts.
 		for (int currId = 1; currId <= nUsers; currId++) {
-			HashSet<Integer> userData = graph.get(DataGen.provider(currId, nTelecoms)).get(currId);
-
 			// Choose a random number of new contacts to make. Pick them at random.
 			int outDegree = (int)Math.ceil(logNorm.sample());
 			for (int j = 0; j < outDegree; j++) {
@@ -71,13 +60,10 @@ public class DataGenLogNormal {
 					idToAdd++;
 				}
 				// Add the chosen contact to this user's set, and vice versa.
-				userData.add(idToAdd);
-				graph.get(DataGen.provider(idToAdd, nTelecoms)).get(idToAdd).add(currId);
+				graph.addContact(currId, idToAdd);
+				graph.addContact(idToAdd, currId);
 			}
 
-			// Add this user's data to the appropriate telecom
-			graph.get(DataGen.provider(currId, nTelecoms)).put(currId, userData);
-
 			if (currId % 100 == 0) {
 				System.out.println(currId + " users generated");
 			}
@@ -87,29 +73,7 @@ public class DataGenLogNormal {
 			System.out.println(nUsers + " users generated");
 		}
 
-		// Now store data to file, converting from HashSet<Integer> to int[].
-		for (int i = 0; i < graph.size(); i++) {
-			try {
-				FileOutputStream fos = new FileOutputStream(args[0] + i);
-				ObjectOutputStream oos = new ObjectOutputStream(fos);
-				HashMap<Integer, HashSet<Integer>> telecomData = graph.get(i);
-				HashMap<Integer, int[]> convertedData = new HashMap<Integer, int[]>();
-				for (int userId : telecomData.keySet()) {
-					HashSet<Integer> setData = telecomData.get(userId);
-					int[] arrayData = new int[setData.size()];
-					int j = 0;
-					for (int k : setData) {
-						arrayData[j] = k;
-						j++;
-					}
-					convertedData.put(userId, arrayData);
-				}
-				oos.writeObject(convertedData);
-				System.out.println("Wrote " + telecomData.size() + " users to " + args[0] + i);
-				oos.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		// Now store data to file. Duplicate contacts are dropped here.
+		ContactListBuilder.writeAll(graph.build(nTelecoms), args[0], format);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,410 @@
+package cc;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A prime-order elliptic curve y^2 = x^3 - 3x + b over GF(p), with the point
+ * arithmetic EC-ElGamal needs, in pure Java. Points are BigInteger[] {x, y} in
+ * affine coordinates, or null for the point at infinity. Sums are computed in
+ * Jacobian coordinates, so that only the final result needs an inversion.
+ *
+ * In ciphertexts and key files a point is a single BigInteger: x, plus 2 or 3
+ * (depending on the parity of y) shifted above the field bits, as in the
+ * compressed encoding of SEC 1. That is about a quarter of the size of a
+ * 1024-bit MODP group element.
+ *
+ * Like FixedBaseTable, tables of multiples of a fixed point can be registered,
+ * after which multiply() uses them automatically. A multiplication by a
+ * registered point then costs one addition per window and no doublings.
+ * @author Aaron Segal
+ */
+public class ECCurve {
+
+	public static final ECCurve P256 = new ECCurve("P-256",
+			"ffffffff00000001000000000000000000000000ffffffffffffffffffffffff",
+			"5ac635d8aa3a93e7b3ebbd55769886bc651d06b0cc53b0f63bce3c3e27d2604b",
+			"6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296",
+			"4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5",
+			"ffffffff00000000ffffffffffffffffbce6faada7179e84f3b9cac2fc632551");
+	public static final ECCurve P384 = new ECCurve("P-384",
+			"fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffe"
+			+ "ffffffff0000000000000000ffffffff",
+			"b3312fa7e23ee7e4988e056be3f82d19181d9c6efe8141120314088f5013875a"
+			+ "c656398d8a2ed19d2a85c8edd3ec2aef",
+			"aa87ca22be8b05378eb1c71ef320ad746e1d3b628ba79b9859f741e082542a38"
+			+ "5502f25dbf55296c3a545e3872760ab7",
+			"3617de4a96262c6f5d9e98bf9292dc29f8f41dbd289a147ce9da3113b5f0b8c0"
+			+ "0a60b1ce1d7e819d7a431d7c90ea0e5f",
+			"ffffffffffffffffffffffffffffffffffffffffffffffffc7634d81f4372ddf"
+			+ "581a0db248b0a77aecec196accc52973");
+
+	// The low bits of x that are tried in turn to find a point for a message.
+	public static final int EMBEDDING_BITS = 8;
+	// Bits of the scalar handled per addition. Tables for fixed points use
+	// wider windows, since they are built once: 8 bits take about 1.3MB per
+	// point on P-256 and cut a multiplication to 32 additions.
+	public static final int WINDOW_BITS = 4;
+	public static final int FIXED_WINDOW_BITS = 8;
+
+	private static final BigInteger THREE = BigInteger.valueOf(3);
+
+	private String name;
+	private BigInteger p; // field prime, 3 mod 4
+	private BigInteger b;
+	private BigInteger n; // order of the generator, prime
+	private BigInteger[] generator;
+	private int fieldBits;
+	private BigInteger sqrtExponent;
+	// Barrett reduction constant: mu = floor(4^fieldBits / p)
+	private BigInteger mu;
+	// table[i][j] = j * 2^(i*FIXED_WINDOW_BITS) * point, keyed by the encoded
+	// point
+	private ConcurrentHashMap<BigInteger, BigInteger[][][]> tables =
+			new ConcurrentHashMap<BigInteger, BigInteger[][][]>();
+
+	private ECCurve(String name, String p, String b, String gx, String gy,
+			String n) {
+		this.name = name;
+		this.p = new BigInteger(p, 16);
+		this.b = new BigInteger(b, 16);
+		this.n = new BigInteger(n, 16);
+		generator = new BigInteger[] {new BigInteger(gx, 16), new BigInteger(gy, 16)};
+		fieldBits = this.p.bitLength();
+		sqrtExponent = this.p.add(BigInteger.ONE).shiftRight(2);
+		mu = BigInteger.ONE.shiftLeft(2 * fieldBits).divide(this.p);
+	}
+
+	/**
+	 * @param name P-256 or P-384.
+	 * @return The curve with that name.
+	 */
+	public static ECCurve forName(String name) {
+		if (name.equalsIgnoreCase(P256.name)) {
+			return P256;
+		} else if (name.equalsIgnoreCase(P384.name)) {
+			return P384;
+		}
+		throw new IllegalArgumentException("Unknown curve " + name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public BigInteger[] getGenerator() {
+		return generator;
+	}
+
+	/**
+	 * @return the prime order of the generator
+	 */
+	public BigInteger getOrder() {
+		return n;
+	}
+
+	/**
+	 * @return A random scalar between 1 and the order of the generator.
+	 */
+	public BigInteger randomScalar(Random rng) {
+		BigInteger k;
+		do {
+			k = new BigInteger(n.bitLength(), rng);
+		} while (k.signum() == 0 || k.compareTo(n) >= 0);
+		return k;
+	}
+
+	public boolean isOnCurve(BigInteger[] point) {
+		if (point == null) {
+			return true;
+		}
+		return point[0].compareTo(p) < 0 && point[1].compareTo(p) < 0 &&
+				rhs(point[0]).equals(point[1].multiply(point[1]).mod(p));
+	}
+
+	public BigInteger[] add(BigInteger[] a, BigInteger[] b) {
+		return toAffine(addAffine(toJacobian(a), b));
+	}
+
+	public BigInteger[] negate(BigInteger[] a) {
+		if (a == null) {
+			return null;
+		}
+		return new BigInteger[] {a[0], sub(BigInteger.ZERO, a[1])};
+	}
+
+	public BigInteger[] subtract(BigInteger[] a, BigInteger[] b) {
+		return add(a, negate(b));
+	}
+
+	/**
+	 * Computes k * point, using a registered table for the point if there is
+	 * one.
+	 * @param point The point.
+	 * @param k The scalar.
+	 * @return k * point
+	 */
+	public BigInteger[] multiply(BigInteger[] point, BigInteger k) {
+		if (point == null) {
+			return null;
+		}
+		k = k.mod(n);
+		BigInteger[][][] table = tables.get(encode(point));
+		if (table != null) {
+			return toAffine(multiply(table, k));
+		}
+		// Left to right, one window at a time, adding in a small multiple.
+		BigInteger[][] multiples = table(point, 1, WINDOW_BITS)[0];
+		BigInteger[] r = null;
+		int windows = (k.bitLength() + WINDOW_BITS - 1) / WINDOW_BITS;
+		for (int i = windows - 1; i >= 0; i--) {
+			for (int d = 0; d < WINDOW_BITS; d++) {
+				r = doubleJacobian(r);
+			}
+			int digit = digit(k, i, WINDOW_BITS);
+			if (digit != 0) {
+				r = addAffine(r, multiples[digit]);
+			}
+		}
+		return toAffine(r);
+	}
+
+	private BigInteger[] multiply(BigInteger[][][] table, BigInteger k) {
+		BigInteger[] r = null;
+		int windows = (k.bitLength() + FIXED_WINDOW_BITS - 1) / FIXED_WINDOW_BITS;
+		for (int i = 0; i < windows; i++) {
+			int digit = digit(k, i, FIXED_WINDOW_BITS);
+			if (digit != 0) {
+				r = addAffine(r, table[i][digit]);
+			}
+		}
+		return r;
+	}
+
+	private static int digit(BigInteger k, int window, int windowBits) {
+		int digit = 0;
+		for (int b = windowBits - 1; b >= 0; b--) {
+			digit = (digit << 1) | (k.testBit(window * windowBits + b) ? 1 : 0);
+		}
+		return digit;
+	}
+
+	/**
+	 * Builds and registers a table of multiples of point, unless one has
+	 * already been registered. Thread-safe.
+	 * @param point The fixed point, such as the generator or a public key.
+	 */
+	public void precompute(BigInteger[] point) {
+		BigInteger key = encode(point);
+		if (!tables.containsKey(key)) {
+			int windows = (n.bitLength() + FIXED_WINDOW_BITS - 1) / FIXED_WINDOW_BITS;
+			tables.putIfAbsent(key, table(point, windows, FIXED_WINDOW_BITS));
+		}
+	}
+
+	/**
+	 * @return table[i][j] = j * 2^(i*windowBits) * point, in affine coordinates
+	 */
+	private BigInteger[][][] table(BigInteger[] point, int windows,
+			int windowBits) {
+		int digits = 1 << windowBits;
+		BigInteger[][][] table = new BigInteger[windows][digits][];
+		BigInteger[] windowBase = point;
+		for (int i = 0; i < windows; i++) {
+			BigInteger[] sum = toJacobian(windowBase);
+			table[i][1] = windowBase;
+			for (int j = 2; j < digits; j++) {
+				sum = addAffine(sum, windowBase);
+				table[i][j] = toAffine(sum);
+			}
+			windowBase = toAffine(addAffine(sum, windowBase));
+		}
+		return table;
+	}
+
+	/**
+	 * Encodes a point as one BigInteger.
+	 */
+	public BigInteger encode(BigInteger[] point) {
+		if (point == null) {
+			return BigInteger.ZERO;
+		}
+		int prefix = point[1].testBit(0) ? 3 : 2;
+		return BigInteger.valueOf(prefix).shiftLeft(fieldBits).or(point[0]);
+	}
+
+	/**
+	 * Decodes a point encoded by encode().
+	 * @throws IllegalArgumentException if it is not a point on this curve.
+	 */
+	public BigInteger[] decode(BigInteger encoded) {
+		if (encoded.signum() == 0) {
+			return null;
+		}
+		BigInteger[][][] table = tables.get(encoded);
+		if (table != null) {
+			// A registered point, such as a public key, is in its table.
+			return table[0][1];
+		}
+		int prefix = encoded.shiftRight(fieldBits).intValue();
+		BigInteger x = encoded.subtract(BigInteger.valueOf(prefix).shiftLeft(fieldBits));
+		BigInteger y = null;
+		if ((prefix == 2 || prefix == 3) && x.compareTo(p) < 0) {
+			y = sqrt(rhs(x));
+		}
+		if (y == null) {
+			throw new IllegalArgumentException("Not a point on " + name);
+		}
+		if (y.testBit(0) != (prefix == 3)) {
+			y = p.subtract(y);
+		}
+		return new BigInteger[] {x, y};
+	}
+
+	/**
+	 * Finds a point whose x coordinate is the message followed by
+	 * EMBEDDING_BITS more bits. About half of all x have a point, so the
+	 * chance of finding none is 2^-256.
+	 * @param message A non-negative message, at most the field size less
+	 * EMBEDDING_BITS + 1 bits long.
+	 * @return The point.
+	 */
+	public BigInteger[] embed(BigInteger message) {
+		if (message.signum() < 0 ||
+				message.bitLength() > fieldBits - EMBEDDING_BITS - 1) {
+			throw new IllegalArgumentException("Message does not fit on " + name);
+		}
+		BigInteger x = message.shiftLeft(EMBEDDING_BITS);
+		for (int j = 0; j < 1 << EMBEDDING_BITS; j++) {
+			BigInteger y = sqrt(rhs(x));
+			if (y != null) {
+				return new BigInteger[] {x, y};
+			}
+			x = x.add(BigInteger.ONE);
+		}
+		throw new IllegalArgumentException("No point found for message " + message);
+	}
+
+	/**
+	 * @return the message embedded in a point by embed()
+	 */
+	public BigInteger extract(BigInteger[] point) {
+		return point[0].shiftRight(EMBEDDING_BITS);
+	}
+
+	// x^3 - 3x + b, for 0 <= x < p
+	private BigInteger rhs(BigInteger x) {
+		BigInteger x3 = mul(mul(x, x), x);
+		return add(sub(x3, add(add(x, x), x)), b);
+	}
+
+	// Since p = 3 mod 4, a^((p+1)/4) is a square root of a if it has one.
+	private BigInteger sqrt(BigInteger a) {
+		BigInteger y = a.modPow(sqrtExponent, p);
+		return mul(y, y).equals(a) ? y : null;
+	}
+
+	/*
+	 * Field arithmetic on numbers in [0, p). Multiplication uses Barrett
+	 * reduction, as in FixedBaseTable, which is cheaper than BigInteger.mod.
+	 */
+
+	private BigInteger mul(BigInteger a, BigInteger b) {
+		BigInteger x = a.multiply(b);
+		BigInteger q = x.shiftRight(fieldBits - 1).multiply(mu).shiftRight(fieldBits + 1);
+		BigInteger r = x.subtract(q.multiply(p));
+		while (r.compareTo(p) >= 0) {
+			r = r.subtract(p);
+		}
+		return r;
+	}
+
+	private BigInteger add(BigInteger a, BigInteger b) {
+		BigInteger r = a.add(b);
+		return r.compareTo(p) >= 0 ? r.subtract(p) : r;
+	}
+
+	private BigInteger sub(BigInteger a, BigInteger b) {
+		BigInteger r = a.subtract(b);
+		return r.signum() < 0 ? r.add(p) : r;
+	}
+
+	private static BigInteger[] toJacobian(BigInteger[] point) {
+		if (point == null) {
+			return null;
+		}
+		return new BigInteger[] {point[0], point[1], BigInteger.ONE};
+	}
+
+	private BigInteger[] toAffine(BigInteger[] point) {
+		if (point == null) {
+			return null;
+		}
+		BigInteger zInverse = point[2].modInverse(p);
+		BigInteger zInverse2 = mul(zInverse, zInverse);
+		return new BigInteger[] {mul(point[0], zInverse2),
+				mul(mul(point[1], zInverse2), zInverse)};
+	}
+
+	/**
+	 * Doubles a point in Jacobian coordinates, using a = -3
+	 * (dbl-2001-b in the Explicit-Formulas Database).
+	 */
+	private BigInteger[] doubleJacobian(BigInteger[] point) {
+		if (point == null || point[1].signum() == 0) {
+			return null;
+		}
+		BigInteger x = point[0], y = point[1], z = point[2];
+		BigInteger delta = mul(z, z);
+		BigInteger gamma = mul(y, y);
+		BigInteger beta = mul(x, gamma);
+		BigInteger alpha = mul(sub(x, delta), add(x, delta));
+		alpha = add(add(alpha, alpha), alpha);
+		BigInteger beta4 = add(beta, beta);
+		beta4 = add(beta4, beta4);
+		BigInteger x3 = sub(mul(alpha, alpha), add(beta4, beta4));
+		BigInteger yz = add(y, z);
+		BigInteger z3 = sub(sub(mul(yz, yz), gamma), delta);
+		BigInteger gamma8 = mul(gamma, gamma);
+		gamma8 = add(gamma8, gamma8);
+		gamma8 = add(gamma8, gamma8);
+		gamma8 = add(gamma8, gamma8);
+		BigInteger y3 = sub(mul(alpha, sub(beta4, x3)), gamma8);
+		return new BigInteger[] {x3, y3, z3};
+	}
+
+	/**
+	 * Adds an affine point to a point in Jacobian coordinates
+	 * (madd-2007-bl in the Explicit-Formulas Database).
+	 */
+	private BigInteger[] addAffine(BigInteger[] a, BigInteger[] b) {
+		if (b == null) {
+			return a;
+		} else if (a == null) {
+			return toJacobian(b);
+		}
+		BigInteger x1 = a[0], y1 = a[1], z1 = a[2];
+		BigInteger z1z1 = mul(z1, z1);
+		BigInteger u2 = mul(b[0], z1z1);
+		BigInteger s2 = mul(mul(b[1], z1), z1z1);
+		BigInteger h = sub(u2, x1);
+		BigInteger r = sub(s2, y1);
+		r = add(r, r);
+		if (h.signum() == 0) {
+			// Same x: either the same point, or opposite points.
+			return r.signum() == 0 ? doubleJacobian(a) : null;
+		}
+		BigInteger hh = mul(h, h);
+		BigInteger i = add(hh, hh);
+		i = add(i, i);
+		BigInteger j = mul(h, i);
+		BigInteger v = mul(x1, i);
+		BigInteger x3 = sub(sub(mul(r, r), j), add(v, v));
+		BigInteger y1j = mul(y1, j);
+		BigInteger y3 = sub(mul(r, sub(v, x3)), add(y1j, y1j));
+		BigInteger z1h = add(z1, h);
+		BigInteger z3 = sub(sub(mul(z1h, z1h), z1z1), hh);
+		return new BigInteger[] {x3, y3, z3};
+	}
+}
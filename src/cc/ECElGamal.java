@@ -0,0 +1,84 @@
+package cc;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * ElGamal on an elliptic curve. Messages and ciphertext components are points,
+ * each encoded as one BigInteger by ECCurve.encode(), as is the public key.
+ */
+public class ECElGamal {
+
+	private Random rng;
+	private ECCurve curve;
+	private BigInteger privateKey;
+	private BigInteger[] publicPoint;
+	private BigInteger publicKey;
+
+	/**
+	 * Generates a new ECElGamal object on the selected curve, with randomly
+	 * generated keys.
+	 * @param curve The curve.
+	 */
+	public ECElGamal(ECCurve curve) {
+		this(curve, curve.randomScalar(new SecureRandom()));
+	}
+
+	/**
+	 * Generates a new ECElGamal object on the selected curve, with a selected
+	 * private key.
+	 * @param curve The curve.
+	 * @param privateKey A number between 1 and the order of the curve.
+	 */
+	public ECElGamal(ECCurve curve, BigInteger privateKey) {
+		rng = new SecureRandom();
+		this.curve = curve;
+		this.privateKey = privateKey;
+		publicPoint = curve.multiply(curve.getGenerator(), privateKey);
+		publicKey = curve.encode(publicPoint);
+	}
+
+	protected BigInteger getPrivateKey() {
+		return privateKey;
+	}
+
+	public BigInteger getPublicKey() {
+		return publicKey;
+	}
+
+	public ECCurve getCurve() {
+		return curve;
+	}
+
+	public Random getRNG() {
+		return rng;
+	}
+
+	/**
+	 * Encrypts a point, using a public key on the same curve as this object.
+	 * If tables of multiples have been precomputed for the generator or the
+	 * public key, they are used.
+	 * @param publicKey Public key.
+	 * @param data Encoded point to encrypt.
+	 * @return Encrypted data (two encoded points)
+	 */
+	public BigInteger[] encrypt(BigInteger publicKey, BigInteger data) {
+		BigInteger y = curve.randomScalar(rng);
+		BigInteger[] c = new BigInteger[2];
+		c[0] = curve.encode(curve.multiply(curve.getGenerator(), y));
+		c[1] = curve.encode(curve.add(curve.decode(data),
+				curve.multiply(curve.decode(publicKey), y)));
+		return c;
+	}
+
+	/**
+	 * Decrypts ciphertext using this object's private key.
+	 * @param c The ciphertext to decrypt.
+	 * @return The encoded plaintext point.
+	 */
+	public BigInteger decrypt(BigInteger[] c) {
+		BigInteger[] s = curve.multiply(curve.decode(c[0]), privateKey);
+		return curve.encode(curve.subtract(curve.decode(c[1]), s));
+	}
+}
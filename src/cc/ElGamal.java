@@ -11,6 +11,8 @@ public class ElGamal {
 	private BigInteger g; // generator
 	private BigInteger privateKey;
 	private BigInteger publicKey;
+	// Length of the random exponent y of each encryption.
+	private int exponentBits;
 
 	public static final BigInteger prime1024 = new BigInteger("FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80D"
 			+ "C1CD129024E088A67CC74020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F14374FE135"
@@ -30,7 +32,8 @@ public class ElGamal {
 		rng = new SecureRandom();
 		p = prime1024;
 		g = generator1024;
-		privateKey = new BigInteger(p.bitLength() - 1, rng);
+		exponentBits = p.bitLength() - 1;
+		privateKey = new BigInteger(exponentBits, rng);
 		publicKey = g.modPow(privateKey, p);
 	}
 
@@ -43,7 +46,25 @@ public class ElGamal {
 		rng = new SecureRandom();
 		this.p = p;
 		this.g = g;
-		privateKey = new BigInteger(p.bitLength() - 1, rng);
+		exponentBits = p.bitLength() - 1;
+		privateKey = new BigInteger(exponentBits, rng);
+		publicKey = g.modPow(privateKey, p);
+	}
+
+	/**
+	 * Generates a new ElGamal object with selected group and generator, and
+	 * randomly generated keys, using exponents of the selected length for the
+	 * private key and for encryption.
+	 * @param p A prime number.
+	 * @param g A generator of the group Zp*.
+	 * @param exponentBits The exponent length; see ModpGroup.
+	 */
+	public ElGamal(BigInteger p, BigInteger g, int exponentBits) {
+		rng = new SecureRandom();
+		this.p = p;
+		this.g = g;
+		setExponentBits(exponentBits);
+		privateKey = new BigInteger(exponentBits, rng);
 		publicKey = g.modPow(privateKey, p);
 	}
 
@@ -57,6 +78,7 @@ public class ElGamal {
 		rng = new SecureRandom();
 		this.p = p;
 		this.g = g;
+		exponentBits = p.bitLength() - 1;
 		this.privateKey = privateKey;
 		publicKey = g.modPow(privateKey, p);
 	}
@@ -69,6 +91,7 @@ public class ElGamal {
 		rng = new SecureRandom();
 		p = prime1024;
 		g = generator1024;
+		exponentBits = p.bitLength() - 1;
 		this.privateKey = privateKey;
 		publicKey = g.modPow(privateKey, p);
 	}
@@ -93,8 +116,29 @@ public class ElGamal {
 		return rng;
 	}
 
+	/**
+	 * @return the length of the random exponents used to encrypt
+	 */
+	public int getExponentBits() {
+		return exponentBits;
+	}
+
+	/**
+	 * Sets the length of the random exponents used to encrypt. The private key
+	 * is not changed.
+	 * @param exponentBits Between ModpGroup.MIN_EXPONENT_BITS and
+	 * p.bitLength() - 1.
+	 * @throws IllegalArgumentException if the length is out of range.
+	 */
+	public void setExponentBits(int exponentBits) {
+		this.exponentBits = ModpGroup.checkExponentBits(p, exponentBits);
+	}
+
 	/**
 	 * Encrypts data, using public key that belongs to the same group as this ElGamal object.
+	 * If a RandomnessPool has been registered for the public key, its precomputed
+	 * randomness is used. Otherwise, if FixedBaseTables have been precomputed for
+	 * the generator or public key, they are used for the exponentiations.
 	 * @param data BigInteger data to encrypt.
 	 * @param publicKey Public key.
 	 * @return Encrypted data (two bigIntegers)
@@ -102,9 +146,17 @@ public class ElGamal {
 	public BigInteger[] encrypt(BigInteger publicKey, BigInteger data) {
 		BigInteger[] c = new BigInteger[2];
 
-		BigInteger y = new BigInteger(p.bitLength() - 1, rng);
-		c[0] = g.modPow(y, p);
-		c[1] = publicKey.modPow(y, p);
+		RandomnessPool pool = RandomnessPool.get(g, publicKey, p);
+		if (pool != null) {
+			BigInteger[] pair = pool.take();
+			c[0] = pair[0];
+			c[1] = pair[1].multiply(data).mod(p);
+			return c;
+		}
+
+		BigInteger y = new BigInteger(exponentBits, rng);
+		c[0] = FixedBaseTable.modPow(g, y, p);
+		c[1] = FixedBaseTable.modPow(publicKey, y, p);
 		c[1] = c[1].multiply(data);
 		c[1] = c[1].mod(p);
 		return c;
@@ -0,0 +1,186 @@
+package cc;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed table for exponentiating a fixed base modulo a fixed prime.
+ * The exponent is split into windows of windowBits bits, and for each window i
+ * we store base^(j * 2^(i*windowBits)) for every possible digit j. An
+ * exponentiation then costs one modular multiplication per window, instead of
+ * one squaring per bit as in BigInteger.modPow. Reductions use Barrett's
+ * method, which costs two multiplications rather than a long division.
+ *
+ * Tables are registered globally by (base, modulus), so that ElGamal picks them
+ * up automatically once they have been built.
+ * @author Aaron Segal
+ */
+public class FixedBaseTable {
+
+	// 8-bit windows on a 1024-bit modulus take about 5MB per base, and cut the
+	// cost of an exponentiation to 128 modular multiplications.
+	public static final int DEFAULT_WINDOW_BITS = 8;
+
+	private static final ConcurrentHashMap<List<BigInteger>, FixedBaseTable> tables =
+			new ConcurrentHashMap<List<BigInteger>, FixedBaseTable>();
+
+	private BigInteger base;
+	private BigInteger modulus;
+	private int windowBits;
+	private int maxBits;
+	// Barrett reduction constants: mu = floor(4^k / modulus), k = modulus bits
+	private int k;
+	private BigInteger mu;
+	// table[i][j] = base^(j * 2^(i*windowBits)) mod modulus
+	private BigInteger[][] table;
+
+	/**
+	 * Builds a table for base, able to handle exponents of up to maxBits bits.
+	 * @param base The fixed base.
+	 * @param modulus The fixed modulus.
+	 * @param maxBits The largest exponent bit length the table should cover.
+	 * @param windowBits The number of exponent bits handled per multiplication.
+	 */
+	public FixedBaseTable(BigInteger base, BigInteger modulus, int maxBits,
+			int windowBits) {
+		this.base = base;
+		this.modulus = modulus;
+		this.windowBits = windowBits;
+		k = modulus.bitLength();
+		mu = BigInteger.ONE.shiftLeft(2 * k).divide(modulus);
+		int windows = (maxBits + windowBits - 1) / windowBits;
+		this.maxBits = windows * windowBits;
+		int digits = 1 << windowBits;
+		table = new BigInteger[windows][digits];
+		BigInteger windowBase = base.mod(modulus);
+		for (int i = 0; i < windows; i++) {
+			table[i][0] = BigInteger.ONE;
+			for (int j = 1; j < digits; j++) {
+				table[i][j] = multiplyMod(table[i][j-1], windowBase);
+			}
+			// base^(2^((i+1)*windowBits)) = base^((digits-1) * 2^(i*windowBits)) * windowBase
+			windowBase = multiplyMod(table[i][digits-1], windowBase);
+		}
+	}
+
+	/**
+	 * Computes base^exponent mod modulus using the table. Falls back to
+	 * BigInteger.modPow if the exponent is negative or too long for the table.
+	 * @param exponent The exponent.
+	 * @return base^exponent mod modulus
+	 */
+	public BigInteger pow(BigInteger exponent) {
+		if (exponent.signum() < 0 || exponent.bitLength() > maxBits) {
+			return base.modPow(exponent, modulus);
+		}
+		byte[] bytes = exponent.toByteArray();
+		BigInteger result = BigInteger.ONE;
+		int bitLength = exponent.bitLength();
+		for (int i = 0; i * windowBits < bitLength; i++) {
+			int digit = 0;
+			for (int b = windowBits - 1; b >= 0; b--) {
+				digit = (digit << 1) | bit(bytes, i * windowBits + b);
+			}
+			if (digit != 0) {
+				result = multiplyMod(result, table[i][digit]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Computes a * b mod modulus, for 0 <= a, b < modulus.
+	 */
+	private BigInteger multiplyMod(BigInteger a, BigInteger b) {
+		BigInteger x = a.multiply(b);
+		BigInteger q = x.shiftRight(k - 1).multiply(mu).shiftRight(k + 1);
+		BigInteger r = x.subtract(q.multiply(modulus));
+		while (r.compareTo(modulus) >= 0) {
+			r = r.subtract(modulus);
+		}
+		return r;
+	}
+
+	// Returns bit k (counting from the least significant) of a big-endian array.
+	private static int bit(byte[] bytes, int k) {
+		int index = bytes.length - 1 - (k >>> 3);
+		if (index < 0) {
+			return 0;
+		}
+		return (bytes[index] >>> (k & 7)) & 1;
+	}
+
+	/**
+	 * @return the base
+	 */
+	public BigInteger getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the modulus
+	 */
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	/**
+	 * Builds and registers a table for base mod modulus with the default window
+	 * size, unless one has already been registered. Thread-safe.
+	 * @param base The fixed base.
+	 * @param modulus The fixed modulus.
+	 * @return The registered table.
+	 */
+	public static FixedBaseTable precompute(BigInteger base, BigInteger modulus) {
+		return precompute(base, modulus, DEFAULT_WINDOW_BITS);
+	}
+
+	/**
+	 * Builds and registers a table for base mod modulus, unless one has already
+	 * been registered. Thread-safe.
+	 * @param base The fixed base.
+	 * @param modulus The fixed modulus.
+	 * @param windowBits The number of exponent bits handled per multiplication.
+	 * @return The registered table.
+	 */
+	public static FixedBaseTable precompute(BigInteger base, BigInteger modulus,
+			int windowBits) {
+		List<BigInteger> key = Arrays.asList(base, modulus);
+		FixedBaseTable existing = tables.get(key);
+		if (existing != null) {
+			return existing;
+		}
+		FixedBaseTable table = new FixedBaseTable(base, modulus,
+				modulus.bitLength(), windowBits);
+		existing = tables.putIfAbsent(key, table);
+		return existing == null ? table : existing;
+	}
+
+	/**
+	 * @param base The base.
+	 * @param modulus The modulus.
+	 * @return The table registered for base mod modulus, or null if there is none.
+	 */
+	public static FixedBaseTable get(BigInteger base, BigInteger modulus) {
+		return tables.get(Arrays.asList(base, modulus));
+	}
+
+	/**
+	 * Computes base^exponent mod modulus, using a precomputed table if one has
+	 * been registered for this base and modulus, and BigInteger.modPow otherwise.
+	 * @param base The base.
+	 * @param exponent The exponent.
+	 * @param modulus The modulus.
+	 * @return base^exponent mod modulus
+	 */
+	public static BigInteger modPow(BigInteger base, BigInteger exponent,
+			BigInteger modulus) {
+		FixedBaseTable table = tables.get(Arrays.asList(base, modulus));
+		if (table == null) {
+			return base.modPow(exponent, modulus);
+		}
+		return table.pow(exponent);
+	}
+}
@@ -0,0 +1,141 @@
+package cc;
+
+/**
+ * An in-heap ContactStore keyed by primitive ints, so that lookups in the
+ * ResponseWorker hot path never box a user id.
+ *
+ * Contacts are added with put() into an open-addressing hash table with
+ * linear probing. Once everything has been added, compact() switches to a
+ * plain array indexed by user id if the ids are dense enough for that to be
+ * smaller, which is the common case since user ids are assigned in sequence.
+ * @author Aaron Segal
+ */
+public class IntContactMap implements ContactStore {
+
+	// Use a dense array if it has at most this many slots per user.
+	public static final int DENSE_RATIO = 4;
+
+	private int[] keys;
+	// A null value marks an empty slot.
+	private int[][] values;
+	private int mask;
+	private int size = 0;
+	private int maxUserId = -1;
+	// Set by compact(); values for user ids 0 to maxUserId.
+	private int[][] dense;
+
+	public IntContactMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize The number of users that will be added.
+	 */
+	public IntContactMap(int expectedSize) {
+		int capacity = 16;
+		// Keep the table at most half full.
+		while (capacity < 2 * expectedSize) {
+			capacity <<= 1;
+		}
+		keys = new int[capacity];
+		values = new int[capacity][];
+		mask = capacity - 1;
+	}
+
+	private int slot(int userId) {
+		int h = userId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Sets a user's contacts, replacing any already set.
+	 * @param userId The user. Must not be negative.
+	 * @param neighbors The user's contacts. Must not be null.
+	 */
+	public void put(int userId, int[] neighbors) {
+		if (dense != null) {
+			throw new IllegalStateException("Cannot add contacts after compact()");
+		}
+		if (userId < 0 || neighbors == null) {
+			throw new IllegalArgumentException("Bad contacts for user " + userId);
+		}
+		int i = slot(userId);
+		while (values[i] != null && keys[i] != userId) {
+			i = (i + 1) & mask;
+		}
+		if (values[i] == null) {
+			size++;
+		}
+		keys[i] = userId;
+		values[i] = neighbors;
+		maxUserId = Math.max(maxUserId, userId);
+		if (2 * size > keys.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[][] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2][];
+		mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] != null) {
+				int i = slot(oldKeys[j]);
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * Call once all contacts have been added. Switches to a dense array if that
+	 * is smaller. No more contacts may be added afterwards.
+	 */
+	public void compact() {
+		if (dense != null || (long) maxUserId + 1 > (long) DENSE_RATIO * size) {
+			return;
+		}
+		dense = new int[maxUserId + 1][];
+		for (int j = 0; j < keys.length; j++) {
+			if (values[j] != null) {
+				dense[keys[j]] = values[j];
+			}
+		}
+		keys = null;
+		values = null;
+	}
+
+	public boolean contains(int userId) {
+		return getNeighbors(userId) != null;
+	}
+
+	public int[] getNeighbors(int userId) {
+		if (dense != null) {
+			return userId >= 0 && userId < dense.length ? dense[userId] : null;
+		}
+		int i = slot(userId);
+		while (values[i] != null) {
+			if (keys[i] == userId) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public int getMaxUserId() {
+		return maxUserId;
+	}
+
+	/**
+	 * @return the number of users
+	 */
+	public int size() {
+		return size;
+	}
+}
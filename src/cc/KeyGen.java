@@ -14,9 +14,13 @@ public class KeyGen {
 	public static final String PUBLIC_KEY = "PUBLIC_KEY";
 	public static final String PRIME = "PRIME";
 	public static final String GENERATOR = "GENERATOR";
+	public static final String CURVE = "CURVE";
 
 	public static void usage() {
-		System.out.println("Usage: cc.KeyGen outfile [-i id] [-p prime -g generator]");
+		System.out.println("Usage: cc.KeyGen outfile [-i id] [-p prime -g generator | -s group | -e curve] [-x exponent_bits]");
+		System.out.println("Groups: modp768, modp1024 (default)");
+		System.out.println("Curves: P-256, P-384");
+		System.out.println("Exponent bits: a number, or short for the group's short exponent length");
 		System.out.println(ElGamal.prime1024);
 	}
 
@@ -29,6 +33,9 @@ public class KeyGen {
 		Integer id = null;
 		BigInteger prime = null;
 		BigInteger generator = null;
+		ECCurve curve = null;
+		ModpGroup group = null;
+		String exponentBits = null;
 
 		for (int i = 1; i < args.length; i +=2 ) {
 			if (args[i].equals("-i")) {
@@ -52,25 +59,85 @@ public class KeyGen {
 				} else {
 					generator = new BigInteger(args[i+1]);
 				}
+			} else if (args[i].equals("-s")) {
+				if (args.length == i+1) {
+					usage();
+					return;
+				} else {
+					group = ModpGroup.forName(args[i+1]);
+				}
+			} else if (args[i].equals("-x")) {
+				if (args.length == i+1) {
+					usage();
+					return;
+				} else {
+					exponentBits = args[i+1];
+				}
+			} else if (args[i].equals("-e")) {
+				if (args.length == i+1) {
+					usage();
+					return;
+				} else {
+					curve = ECCurve.forName(args[i+1]);
+				}
 			} else {
 				usage();
 			}
 		}
 
-		CommutativeElGamal elg = null;
-		if (id == null && prime == null && generator == null) {
-			elg = new CommutativeElGamal();
-		} else if (id != null && prime == null && generator == null) {
-			elg = new CommutativeElGamal(id);
-		} else if (id == null && prime != null && generator != null) {
-			elg = new CommutativeElGamal(prime, generator);
-		} else if (id != null && prime != null && generator != null) {
-			elg = new CommutativeElGamal(id, prime, generator);
-		} else {
+		if (curve != null) {
+			if (prime != null || generator != null || group != null ||
+					exponentBits != null) {
+				System.err.println("Error: Cannot use a curve with a prime, generator, group or exponent length.");
+				return;
+			}
+			CommutativeECElGamal ecElg = new CommutativeECElGamal(
+					id == null ? Integer.MIN_VALUE : id, curve);
+			writeKeys(filename, ecElg.getID(), ecElg.getPrivateKey(),
+					ecElg.getPublicKey(), CURVE + "=" + curve.getName());
+			return;
+		}
+
+		if ((prime == null) != (generator == null)) {
 			System.err.println("Error: Must specify either prime AND generator, or neither.");
 			return;
+		} else if (prime != null && group != null) {
+			System.err.println("Error: Cannot use a group with a prime and generator.");
+			return;
+		}
+		String groupLines = null;
+		if (prime != null) {
+			group = ModpGroup.get(prime, generator);
+		}
+		if (group == null) {
+			group = ModpGroup.MODP1024;
+		} else if (group.getName() != null) {
+			groupLines = ModpGroup.GROUP + "=" + group.getName();
+		} else {
+			groupLines = PRIME + "=" + group.getPrime().toString() + "\n" +
+					GENERATOR + "=" + group.getGenerator().toString();
+		}
+		int bits;
+		try {
+			bits = group.parseExponentBits(exponentBits);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error: " + e.getMessage());
+			return;
 		}
 
+		CommutativeElGamal elg = new CommutativeElGamal(
+				id == null ? Integer.MIN_VALUE : id,
+				group.getPrime(), group.getGenerator(), bits);
+		writeKeys(filename, elg.getID(), elg.getPrivateKey(), elg.getPublicKey(),
+				groupLines);
+	}
+
+	/**
+	 * Writes filename_priv and filename_pub.
+	 * @param group Lines describing a non-default group, or null.
+	 */
+	private static void writeKeys(String filename, int id, BigInteger privateKey,
+			BigInteger publicKey, String group) {
 		try {
 			File priv = new File(filename + "_priv");
 			File pub = new File(filename + "_pub");
@@ -84,27 +151,25 @@ public class KeyGen {
 			BufferedWriter bwpriv = new BufferedWriter(fwpriv);
 			BufferedWriter bwpub = new BufferedWriter(fwpub);
 
-			bwpriv.write(ID + "=" + Integer.toString(elg.getID()));
+			bwpriv.write(ID + "=" + Integer.toString(id));
 			bwpriv.newLine();
-			bwpriv.write(PRIVATE_KEY + "=" + elg.getPrivateKey().toString());
-			if (prime != null) {
-				bwpriv.newLine();
-				bwpriv.write(PRIME + "=" + elg.getPrime().toString());
+			bwpriv.write(PRIVATE_KEY + "=" + privateKey.toString());
+			if (group != null) {
 				bwpriv.newLine();
-				bwpriv.write(GENERATOR + "=" + elg.getGenerator().toString());
+				bwpriv.write(group);
 			}
 			bwpriv.flush();
 			bwpriv.close();
 
-			bwpub.write(ID + "=" + Integer.toString(elg.getID()));
+			// The group comes before the public key, since public key
+			// files are read line by line.
+			bwpub.write(ID + "=" + Integer.toString(id));
 			bwpub.newLine();
-			bwpub.write(PUBLIC_KEY + "=" + elg.getPublicKey().toString());
-			if (prime != null) {
-				bwpub.newLine();
-				bwpub.write(PRIME + "=" + elg.getPrime().toString());
+			if (group != null) {
+				bwpub.write(group);
 				bwpub.newLine();
-				bwpub.write(GENERATOR + "=" + elg.getGenerator().toString());
 			}
+			bwpub.write(PUBLIC_KEY + "=" + publicKey.toString());
 			bwpub.flush();
 			bwpub.close();
 
@@ -1,5 +1,6 @@
 package cc;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -28,14 +29,22 @@ import javax.crypto.IllegalBlockSizeException;
 public abstract class Keys {
 
 	public final static String PADDING = "/ECB/PKCS1Padding"; 
+	public final static String SIGNATURE_ALGORITHM = "SHA1withDSA";
+	public final static String SIGNATURE_PROVIDER = "SUN";
 
 	private HashMap<Integer, BigInteger> agencyPublicKeys;
+	// The curve the agency keys are on, or null if they are in a MODP group.
+	private ECCurve agencyCurve;
+	// The MODP group the agency keys are in, or null if they are on a curve.
+	private ModpGroup agencyGroup;
+	// The length of the exponents used to encrypt under agency keys.
+	private int agencyExponentBits;
 	protected HashMap<Integer, PublicKey> telecomPublicKeys;
 	private PrivateKey signingKey;
-	private Signature signer;
 	private HashMap<Integer, PublicKey> verifyKeys;
-	private HashMap<Integer, Signature> verifiers;
-	protected HashMap<Integer, Cipher> encrypters;
+	// Cipher and Signature objects are not thread-safe, so each thread gets
+	// its own from here.
+	protected CryptoContext crypto = new CryptoContext();
 	private int[] agencyIds;
 	private int id;
 
@@ -58,6 +67,11 @@ public abstract class Keys {
 		}
 		spub = new Scanner(pub.getAbsoluteFile());
 		int currId = Integer.MIN_VALUE;
+		ECCurve currCurve = null;
+		ModpGroup currGroup = null;
+		BigInteger currPrime = null;
+		BigInteger currGenerator = null;
+		boolean modpKeys = false;
 		while (spub.hasNextLine()) {
 			String line = spub.nextLine();
 			String [] lineParts = new String[2];
@@ -77,12 +91,49 @@ public abstract class Keys {
 			}
 			if (lineParts[0].equalsIgnoreCase(KeyGen.ID)) {
 				currId = Integer.parseInt(lineParts[1]);
+				currCurve = null;
+				currGroup = null;
+				currPrime = null;
+				currGenerator = null;
+			} else if (lineParts[0].equalsIgnoreCase(KeyGen.CURVE)) {
+				currCurve = ECCurve.forName(lineParts[1].trim());
+			} else if (lineParts[0].equalsIgnoreCase(ModpGroup.GROUP)) {
+				currGroup = ModpGroup.forName(lineParts[1].trim());
+			} else if (lineParts[0].equalsIgnoreCase(KeyGen.PRIME)) {
+				currPrime = new BigInteger(lineParts[1].trim());
+			} else if (lineParts[0].equalsIgnoreCase(KeyGen.GENERATOR)) {
+				currGenerator = new BigInteger(lineParts[1].trim());
 			} else if (lineParts[0].equalsIgnoreCase(KeyGen.PUBLIC_KEY)) {
 				// We will only record this key if it belongs to an agency.
 				// Other ElGamal keys are ignored.
 				for (int agencyId : agencyIds) {
 					if (currId == agencyId) {
 						agencyPublicKeys.put(currId, new BigInteger(lineParts[1]));
+						// Every agency adds a layer to the same ciphertext, so
+						// all their keys must be in the same group.
+						ModpGroup group = null;
+						if (currCurve == null) {
+							modpKeys = true;
+							if (currGroup != null) {
+								group = currGroup;
+							} else if (currPrime != null && currGenerator != null) {
+								group = ModpGroup.get(currPrime, currGenerator);
+							} else {
+								group = ModpGroup.MODP1024;
+							}
+							if (agencyGroup == null) {
+								agencyGroup = group;
+							}
+						} else if (agencyCurve == null) {
+							agencyCurve = currCurve;
+						}
+						if ((modpKeys && agencyCurve != null) ||
+								(currCurve != null && currCurve != agencyCurve) ||
+								(group != null && !group.sameGroup(agencyGroup))) {
+							spub.close();
+							throw new IOException("Agency keys in " + publicKeyFilename +
+									" are not all in the same group");
+						}
 						break;
 					}
 				}
@@ -90,13 +141,14 @@ public abstract class Keys {
 			}
 		}
 		spub.close(); 
+		if (agencyGroup != null) {
+			agencyExponentBits = agencyGroup.getFullExponentBits();
+		}
 	}
 
 	private void loadKeys(String signatureKeysPath) throws IOException {
 		verifyKeys = new HashMap<Integer,PublicKey>();
-		verifiers = new HashMap<Integer, Signature>();
 		telecomPublicKeys = new HashMap<Integer, PublicKey>();
-		encrypters = new HashMap<Integer, Cipher>();
 		File path = new File(signatureKeysPath);
 		for (File keyFile : path.listFiles()) {
 			if (keyFile.getName().equals(CryptoKeyGen.SIGNING_PREFIX + id +
@@ -113,8 +165,6 @@ public abstract class Keys {
 				try {
 					KeyFactory keyFactory = KeyFactory.getInstance("DSA", "SUN");
 					signingKey = keyFactory.generatePrivate(signKeySpec);
-					signer = Signature.getInstance("SHA1withDSA", "SUN");
-					signer.initSign(signingKey);
 				} catch (Exception e) {
 					e.printStackTrace();
 					return;
@@ -137,9 +187,8 @@ public abstract class Keys {
 				try {
 					KeyFactory keyFactory = KeyFactory.getInstance(CryptoKeyGen.SIGNING_ALGORITHM, "SUN");
 					verifyKeys.put(keyId, keyFactory.generatePublic(verKeySpec));
-					Signature verifier = Signature.getInstance("SHA1withDSA", "SUN");
-					verifier.initVerify(verifyKeys.get(keyId));
-					verifiers.put(keyId, verifier);
+					// Make sure the key is usable before any thread needs it.
+					getVerifier(keyId);
 				} catch (Exception e) {
 					e.printStackTrace();
 					return;
@@ -162,9 +211,8 @@ public abstract class Keys {
 				try {
 					KeyFactory keyFactory = KeyFactory.getInstance(CryptoKeyGen.ENCRYPTION_ALGORITHM);
 					telecomPublicKeys.put(keyId, keyFactory.generatePublic(pubKeySpec));
-					Cipher encrypter = Cipher.getInstance(CryptoKeyGen.ENCRYPTION_ALGORITHM + PADDING);
-					encrypter.init(Cipher.ENCRYPT_MODE, telecomPublicKeys.get(keyId));
-					encrypters.put(keyId, encrypter);
+					// Make sure the key is usable before any thread needs it.
+					getEncrypter(keyId);
 				} catch (Exception e) {
 					e.printStackTrace();
 					return;
@@ -177,6 +225,61 @@ public abstract class Keys {
 		return agencyPublicKeys.get(keyId);
 	}
 
+	/**
+	 * @return the curve the agency keys are on, or null if they are in the
+	 * MODP group
+	 */
+	public ECCurve getAgencyCurve() {
+		return agencyCurve;
+	}
+
+	/**
+	 * @return the MODP group the agency keys are in, or null if they are on a
+	 * curve
+	 */
+	public ModpGroup getAgencyGroup() {
+		return agencyGroup;
+	}
+
+	/**
+	 * @return the length of the exponents used to encrypt under agency keys,
+	 * or 0 if they are on a curve
+	 */
+	public int getAgencyExponentBits() {
+		return agencyExponentBits;
+	}
+
+	/**
+	 * Sets the length of the exponents used to encrypt under agency keys in a
+	 * MODP group, for ciphers made by newAgencyCipher() after this call.
+	 * @param setting A number of bits, "short" for the group's short exponent
+	 * length, or null or 0 for full exponents.
+	 * @throws IllegalArgumentException if the length is out of range.
+	 */
+	public void setAgencyExponentBits(String setting) {
+		if (agencyGroup != null) {
+			agencyExponentBits = agencyGroup.parseExponentBits(setting);
+		}
+	}
+
+	/**
+	 * Creates a cipher for adding layers under the agency public keys, of the
+	 * kind that matches them. It has a throwaway key of its own.
+	 * @return The cipher, for use by one thread.
+	 */
+	public CommutativeCipher newAgencyCipher() {
+		if (agencyCurve == null) {
+			ModpGroup group = agencyGroup != null ? agencyGroup : ModpGroup.MODP1024;
+			CommutativeElGamal cipher = new CommutativeElGamal(Integer.MIN_VALUE,
+					group.getPrime(), group.getGenerator());
+			if (agencyExponentBits > 0) {
+				cipher.setExponentBits(agencyExponentBits);
+			}
+			return cipher;
+		}
+		return new CommutativeECElGamal(Integer.MIN_VALUE, agencyCurve);
+	}
+
 	/**
 	 * @return the agencyIds
 	 */
@@ -206,19 +309,59 @@ public abstract class Keys {
 	}
 
 	/**
+	 * Returns a Signature object for signing. The object belongs to the calling
+	 * thread and must not be shared.
 	 * @return The Signature object for signing.
 	 */
 	public Signature getSigner() {
-		return signer;
+		try {
+			return crypto.getSigner(SIGNATURE_ALGORITHM, SIGNATURE_PROVIDER,
+					signingKey);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
 	}
 
 	/**
-	 * Returns a Signature object for verifying another user's signature
+	 * Returns a Signature object for verifying another user's signature.
+	 * The object belongs to the calling thread and must not be shared.
 	 * @param id The user ID whose signature you want to verify
-	 * @return The Signature object for verification.
+	 * @return The Signature object for verification, or null if we have no
+	 * verification key for that user.
 	 */
 	public Signature getVerifier(int id) {
-		return verifiers.get(id);
+		PublicKey verifyKey = verifyKeys.get(id);
+		if (verifyKey == null) {
+			return null;
+		}
+		try {
+			return crypto.getVerifier(SIGNATURE_ALGORITHM, SIGNATURE_PROVIDER,
+					verifyKey);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a Cipher for encrypting to a telecom. The object belongs to the
+	 * calling thread and must not be shared.
+	 * @param telecomId The telecom to encrypt to.
+	 * @return The Cipher, or null if we do not have that telecom's public key.
+	 */
+	protected Cipher getEncrypter(int telecomId) {
+		PublicKey publicKey = telecomPublicKeys.get(telecomId);
+		if (publicKey == null) {
+			return null;
+		}
+		try {
+			return crypto.getCipher(CryptoKeyGen.ENCRYPTION_ALGORITHM + PADDING,
+					Cipher.ENCRYPT_MODE, publicKey);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
 	}
 
 	/**
@@ -227,9 +370,12 @@ public abstract class Keys {
 	 * @return This party's signature on these ciphertexts.
 	 */
 	public byte[] sign(TelecomCiphertext[] ciphertexts) {
+		Signature signer = getSigner();
 		try {
-			byte[] cipherBytes = Serializer.serialize(ciphertexts);
-			signer.update(cipherBytes);
+			MessageEncoder encoder = newEncoder(signer,
+					MessageEncoder.DOMAIN_CIPHERTEXTS);
+			encoder.writeTelecomCiphertexts(ciphertexts);
+			encoder.flush();
 			return signer.sign();
 		} catch (IOException e) {
 			System.err.println("Malformed TelecomCiphertext");
@@ -241,14 +387,41 @@ public abstract class Keys {
 	}
 
 	/**
-	 * Uses our keys to sign some telecom responses.
-	 * @param response The telecom responses to sign.
-	 * @return This party's signature on the responses.
+	 * Uses our keys to sign the root of a Merkle tree over telecom ciphertexts.
+	 * This authorizes every ciphertext in the tree.
+	 * @param tree The tree to sign.
+	 * @return This party's signature on the tree.
 	 */
-	public byte[] sign(TelecomResponse[] responses) {
+	public byte[] sign(MerkleTree tree) {
+		Signature signer = getSigner();
 		try {
-			byte[] cipherBytes = Serializer.serialize(responses);
-			signer.update(cipherBytes);
+			MessageEncoder encoder = newEncoder(signer,
+					MessageEncoder.DOMAIN_MERKLE_ROOT);
+			encoder.writeVarInt(tree.getNumLeaves());
+			encoder.writeBytes(tree.getRoot());
+			encoder.flush();
+			return signer.sign();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (SignatureException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Uses our keys to sign a chunk of telecom responses, with its sequence
+	 * number and whether more chunks follow it.
+	 * @param signedTR The chunk to sign.
+	 * @return This party's signature on the chunk.
+	 */
+	public byte[] sign(SignedTelecomResponse signedTR) {
+		Signature signer = getSigner();
+		try {
+			MessageEncoder encoder = newEncoder(signer,
+					MessageEncoder.DOMAIN_RESPONSES);
+			encoder.writeSignedContent(signedTR);
+			encoder.flush();
 			return signer.sign();
 		} catch (IOException e) {
 			System.err.println("Malformed TelecomResponse");
@@ -260,19 +433,32 @@ public abstract class Keys {
 	}
 
 	/**
-	 * Uses a party's key to verify a telecom ciphertext.
+	 * Uses a party's key to verify a telecom ciphertext. In Merkle mode, the
+	 * signature is checked on the root, and the ciphertexts against the root.
 	 * @param signerId The id of the party who signed the ciphertext.
 	 * @param signedTC The signed telecom ciphertext.
 	 * @return True if the signature is present and verifies.
 	 */
 	public boolean verify(int signerId, SignedTelecomCiphertext signedTC) {
-		Signature verifier = verifiers.get(signerId);
+		Signature verifier = getVerifier(signerId);
 		byte[] signature = signedTC.getSignature(signerId);
 		if (signature == null) {
 			return false;
 		}
+		if (signedTC.isMerkle() && !signedTC.checkMerkleInclusion()) {
+			return false;
+		}
 		try {
-			verifier.update(Serializer.serialize(signedTC.getCiphertexts()));
+			MessageEncoder encoder;
+			if (signedTC.isMerkle()) {
+				encoder = newEncoder(verifier, MessageEncoder.DOMAIN_MERKLE_ROOT);
+				encoder.writeVarInt(signedTC.getMerkleSize());
+				encoder.writeBytes(signedTC.getMerkleRoot());
+			} else {
+				encoder = newEncoder(verifier, MessageEncoder.DOMAIN_CIPHERTEXTS);
+				encoder.writeTelecomCiphertexts(signedTC.getCiphertexts());
+			}
+			encoder.flush();
 			return verifier.verify(signature);
 		} catch (SignatureException e) {
 			e.printStackTrace();
@@ -284,13 +470,16 @@ public abstract class Keys {
 	}
 
 	public boolean verify(SignedTelecomResponse signedTR) {
-		Signature verifier = verifiers.get(signedTR.getTelecomId());
+		Signature verifier = getVerifier(signedTR.getTelecomId());
 		byte[] signature = signedTR.getSignature();
 		if (signature == null) {
 			return false;
 		}
 		try {
-			verifier.update(Serializer.serialize(signedTR.getTelecomResponses()));
+			MessageEncoder encoder = newEncoder(verifier,
+					MessageEncoder.DOMAIN_RESPONSES);
+			encoder.writeSignedContent(signedTR);
+			encoder.flush();
 			return verifier.verify(signature);
 		} catch (SignatureException e) {
 			e.printStackTrace();
@@ -302,7 +491,23 @@ public abstract class Keys {
 	}
 
 	/**
-	 * Encrypts an integer into a telecom ciphertext.
+	 * Signatures cover the canonical MessageEncoder layout of the data, prefixed
+	 * with a domain byte, and are computed as the data is encoded.
+	 * @param signature The Signature to feed.
+	 * @param domain The kind of data being signed.
+	 * @return An encoder that writes into the signature.
+	 * @throws IOException
+	 */
+	private static MessageEncoder newEncoder(Signature signature, int domain)
+			throws IOException {
+		MessageEncoder encoder = new MessageEncoder(new BufferedOutputStream(
+				new SignatureOutputStream(signature)));
+		encoder.getStream().writeByte(domain);
+		return encoder;
+	}
+
+	/**
+	 * Encrypts an integer into a telecom ciphertext. This is thread-safe.
 	 * @param receiverId The telecom who will receive this ciphertext.
 	 * @param data The integer to encrypt
 	 * @return The encrypted data.
@@ -310,7 +515,7 @@ public abstract class Keys {
 	public byte[] encrypt(int receiverId, int data) {
 		byte[] byteData = BigInteger.valueOf(data).toByteArray();
 		try {
-			return encrypters.get(receiverId).doFinal(byteData);
+			return getEncrypter(receiverId).doFinal(byteData);
 		} catch (IllegalBlockSizeException e) {
 			e.printStackTrace();
 		} catch (BadPaddingException e) {
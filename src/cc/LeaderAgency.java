@@ -4,14 +4,19 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import cc.SignedTelecomCiphertext.QueryType;
+import cc.Transport.Connection;
+import cc.Transport.Listener;
 
 public class LeaderAgency extends Agency {
 
@@ -19,8 +24,8 @@ public class LeaderAgency extends Agency {
 	public static final String TELECOM_IPS = "TELECOMIPS";
 	private int port;
 	private Properties telecomIPs;
-	private ServerSocket agencySocket;
-	private OversightSocket[] oversight;
+	private Listener agencySocket;
+	private OversightSession[] oversight;
 	private HashMap<Integer, TelecomSocket> telecoms;
 
 
@@ -42,13 +47,13 @@ public class LeaderAgency extends Agency {
 		} 
 		port = Integer.parseInt(config.getProperty(PORT));
 		try {
-			agencySocket = new ServerSocket(port);
+			agencySocket = transport.listen(port);
 			println("IP:Host = " + "127.0.0.1" + ":" + port);
 		} catch (IOException e) {
 			System.err.println("Could not listen on port:" + port);
 			return;
 		}
-		oversight = new OversightSocket[numAgencies-1];
+		oversight = new OversightSession[numAgencies-1];
 		telecoms = new HashMap<Integer, TelecomSocket>();
 	}
 
@@ -56,10 +61,10 @@ public class LeaderAgency extends Agency {
 		int connected = 0;
 		while (connected < numAgencies - 1) {
 			try {
-				Socket newConnection = agencySocket.accept();
+				Connection newConnection = agencySocket.accept();
 				OversightSocket newSocket =
 						new OversightSocket(newConnection, this);
-				oversight[connected] = newSocket;
+				oversight[connected] = new OversightSession(newSocket);
 				connected++;
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -71,7 +76,6 @@ public class LeaderAgency extends Agency {
 	private void writeObjectToTelecom(int telecomId, Object obj)
 			throws IOException {
 		ObjectOutputStream oos = telecoms.get(telecomId).outputStream;
-		recordBytes(Serializer.objectSize(obj));
 		oos.writeObject(obj);
 		oos.flush();
 		oos.reset();
@@ -81,10 +85,23 @@ public class LeaderAgency extends Agency {
 			throws ClassNotFoundException, IOException {
 		ObjectInputStream ois = telecoms.get(telecomId).inputStream;
 		Object obj = ois.readObject();
-		recordBytes(Serializer.objectSize(obj));
 		return obj;
 	}
 
+	/**
+	 * Adds our own signature to a request, switching it to Merkle mode first if
+	 * Merkle signing is on.
+	 */
+	private void signRequest(SignedTelecomCiphertext signedTC) {
+		if (merkleSigning) {
+			MerkleTree tree = new MerkleTree(signedTC.getCiphertexts());
+			signedTC.setMerkleTree(tree);
+			signedTC.addSignature(id, keys.sign(tree));
+		} else {
+			signedTC.addSignature(id, keys.sign(signedTC.getCiphertexts()));
+		}
+	}
+
 	public void contactChaining() {
 		super.contactChaining();
 		int connected = waitForConnections();
@@ -108,20 +125,15 @@ public class LeaderAgency extends Agency {
 		// because it does not have a telecom signature.
 		SignedTelecomCiphertext firstSignedTC =
 				new SignedTelecomCiphertext(startTCT, numAgencies);
-		firstSignedTC.addSignature(id, keys.sign(firstSignedTC.getCiphertexts()));
-		OversightFirstThread[] firstThreads = new OversightFirstThread[oversight.length];
-		for (int i = 0; i < firstThreads.length; i++) {
-			firstThreads[i] = new OversightFirstThread(oversight[i], firstSignedTC);
-			firstThreads[i].start();
+		signRequest(firstSignedTC);
+		ArrayList<Future<byte[]>> firstSignatures = new ArrayList<Future<byte[]>>();
+		for (OversightSession session : oversight) {
+			firstSignatures.add(session.signFirst(firstSignedTC));
 		}
-		for (OversightFirstThread oft : firstThreads) {
-			try {
-				oft.join();
-			} catch (InterruptedException e) {
-			} finally {
-				firstSignedTC.addSignature(oft.getAgencyId(), oft.getSignature());
-				recordAgencyCpuTime(oft.getCpuTime());
-			}
+		for (int i = 0; i < oversight.length; i++) {
+			byte[] signature = await(firstSignatures.get(i));
+			firstSignedTC.addSignature(oversight[i].getAgencyId(), signature);
+			recordAgencyCpuTime(oversight[i].getCpuTime());
 		}
 
 		println("Got first request for telecom ready to go.");
@@ -130,14 +142,18 @@ public class LeaderAgency extends Agency {
 		// general loop because we will not care about the degree of this first
 		// vertex.
 		connectTelecom(initialOwner);
-		SignedTelecomResponse[] prevResponses =
-				new SignedTelecomResponse[numTelecoms];
+		SignedTelecomResponse firstSignedResponse;
 		try {
 			writeObjectToTelecom(initialOwner, firstSignedTC);
-			SignedTelecomResponse firstSignedResponse =
+			firstSignedResponse =
 					(SignedTelecomResponse) readObjectFromTelecom(initialOwner);
-			prevResponses[initialOwner] = firstSignedResponse;
+			if (!telecoms.get(initialOwner).checkSequence(firstSignedResponse)) {
+				System.err.println("Cannot continue; first response out of order");
+				return;
+			}
 			recordTelecomCpuTime(firstSignedResponse.getCpuTime());
+			recordTelecomPoolUse(firstSignedResponse.getPoolHits(),
+					firstSignedResponse.getPoolMisses());
 			TelecomResponse telecomResponse = firstSignedResponse.getTelecomResponses()[0];
 			if (telecomResponse.getMsgType() ==	TelecomResponse.MsgType.DATA) {
 				processTelecomResponse(telecomResponse, 0);
@@ -162,42 +178,57 @@ public class LeaderAgency extends Agency {
 		boolean needToInformInitialOwner = true;
 		HashMap<Integer, SignedTelecomCiphertext> nextSignedTCs;
 
+		if (pipelined) {
+			if (searchPipelined(new SignedTelecomResponse[] {firstSignedResponse})) {
+				finishOversight(true);
+			}
+			return;
+		}
+		for (OversightSession session : oversight) {
+			session.forward(firstSignedResponse);
+			session.endResponses();
+		}
+
 		// We have the first responses we need to start investigating the graph.
 		// We are ready to enter the main loop.
 		for (int distance = 1; distance <= maxDistance; distance++) {
 			println("Remaining in queue: " + ciphertextsRemaining());
 			nextSignedTCs = new HashMap<Integer, SignedTelecomCiphertext>();
 			for (int telecomId : investigationLists.keySet()) {
+				// Nothing to ask about, and no Merkle tree over an empty batch.
+				if (investigationLists.get(telecomId).isEmpty()) {
+					continue;
+				}
 				TelecomCiphertext[] ciphertexts = getCiphertexts(telecomId);
 				nextSignedTCs.put(telecomId,
 						new SignedTelecomCiphertext(ciphertexts, numAgencies));
 				if (distance == maxDistance) {
 					nextSignedTCs.get(telecomId).setType(QueryType.CONCLUDE);
 				}
-				nextSignedTCs.get(telecomId).addSignature(id, keys.sign(ciphertexts));
+				signRequest(nextSignedTCs.get(telecomId));
 			}
 
-			// Get signatures from other oversight agencies
-			OversightSearchThread[] searchThreads = new OversightSearchThread[oversight.length];
-			for (int i = 0; i < searchThreads.length; i++) {
-				searchThreads[i] = new OversightSearchThread(oversight[i], prevResponses);
-				searchThreads[i].start();
+			// Get signatures from other oversight agencies. They have been
+			// forwarded every response already.
+			ArrayList<Future<byte[][]>> signatures = new ArrayList<Future<byte[][]>>();
+			for (OversightSession session : oversight) {
+				signatures.add(session.sign(null, -1));
 			}
-			for (OversightSearchThread ost : searchThreads) {
-				try {
-					ost.join();
-				} catch (InterruptedException e) {
-				} finally {
-					for (int telecomId : nextSignedTCs.keySet()) {
-						nextSignedTCs.get(telecomId).addSignature(
-								ost.getAgencyId(), ost.getSignature(telecomId));
-					}
-					recordAgencyCpuTime(ost.getCpuTime());
-				}
+			for (int i = 0; i < oversight.length; i++) {
+				addSignatures(oversight[i], await(signatures.get(i)), nextSignedTCs);
 			}
 
-			// Send requests to telecoms
+			// Send requests to all telecoms at once. Each one is answered on its
+			// own thread, so a slow telecom doesn't hold up reading the others.
+			int[] telecomIds = new int[nextSignedTCs.size()];
+			int next = 0;
 			for (int telecomId : nextSignedTCs.keySet()) {
+				telecomIds[next++] = telecomId;
+			}
+			Arrays.sort(telecomIds);
+			TelecomQueryThread[] queries = new TelecomQueryThread[telecomIds.length];
+			for (int i = 0; i < telecomIds.length; i++) {
+				int telecomId = telecomIds[i];
 				SignedTelecomCiphertext nextSignedTC = nextSignedTCs.get(telecomId);
 				println("Sending signed request for " +
 						nextSignedTC.getCiphertexts().length +
@@ -209,80 +240,293 @@ public class LeaderAgency extends Agency {
 					nextSignedTC.setMaxDegree(maxDegree);
 					needToInformInitialOwner = false;
 				}
-				try {
-					writeObjectToTelecom(telecomId, nextSignedTC);
-				} catch (IOException e) {
-					System.err.println("Error in connection with telecom " + telecomId);
-					e.printStackTrace();
-					return;
-				}
+				queries[i] = new TelecomQueryThread(telecomId,
+						telecoms.get(telecomId), nextSignedTC, null);
+				queries[i].start();
 			}
 
-			// Receive responses from telecoms
+			// Receive responses from telecoms as they arrive. They are processed
+			// in order of telecom id, as the oversight agencies will, so that our
+			// next requests match the ones they sign. Each response is processed
+			// a chunk at a time, while the rest of it is still on its way, and
+			// each chunk is forwarded to the oversight agencies once processed.
 			investigationLists.clear();
-			prevResponses = new SignedTelecomResponse[numTelecoms];
-			for (int telecomId : nextSignedTCs.keySet()) {
+			for (TelecomQueryThread tqt : queries) {
+				SignedTelecomResponse chunk;
 				try {
-					SignedTelecomResponse prevResponse = (SignedTelecomResponse)
-							readObjectFromTelecom(telecomId);
-					recordTelecomCpuTime(prevResponse.getCpuTime());
-					prevResponses[telecomId] = prevResponse;
-					TelecomResponse[] telecomResponses =
-							prevResponses[telecomId].getTelecomResponses();
-					for (TelecomResponse telecomResponse : telecomResponses) {
-						processTelecomResponse(telecomResponse, distance);
+					while ((chunk = tqt.takeChunk()) != null) {
+						recordTelecomCpuTime(chunk.getCpuTime());
+						recordTelecomPoolUse(chunk.getPoolHits(), chunk.getPoolMisses());
+						for (TelecomResponse telecomResponse :
+								chunk.getTelecomResponses()) {
+							processTelecomResponse(telecomResponse, distance);
+						}
+						for (OversightSession session : oversight) {
+							session.forward(chunk);
+						}
 					}
-				} catch (IOException e) {
-					System.err.println("Error in connection with telecom " +
-							telecomId);
-					e.printStackTrace();
+				} catch (InterruptedException e) {
 					return;
-				} catch (ClassNotFoundException e) {
-					e.printStackTrace();
+				}
+				recordAgencyCpuTime(tqt.getCpuTime());
+				if (!tqt.isComplete()) {
 					return;
 				}
 			}
+			for (OversightSession session : oversight) {
+				session.endResponses();
+			}
 		}
 
-		// Finally, send the very last telecomResponses to our oversight agencies.
-		OversightFinalResultsThread[] finalThreads =
-				new OversightFinalResultsThread[oversight.length];
-		for (int i = 0; i < finalThreads.length; i++) {
-			finalThreads[i] = new OversightFinalResultsThread(oversight[i],
-					prevResponses);
-			finalThreads[i].start();
+		// Finally, collect the oversight agencies' OKs.
+		finishOversight(false);
+	}
+
+	/**
+	 * A signed request waiting to be sent to a telecom.
+	 */
+	private static class PendingRequest {
+		int telecomId;
+		int distance;
+		SignedTelecomCiphertext request;
+
+		PendingRequest(int telecomId, int distance, SignedTelecomCiphertext request) {
+			this.telecomId = telecomId;
+			this.distance = distance;
+			this.request = request;
+		}
+	}
+
+	/**
+	 * The main loop in pipelined mode. Rather than waiting for every telecom to
+	 * answer one distance before asking about the next, each response is
+	 * signed by the oversight agencies as soon as it arrives, and the requests
+	 * that follow from it are sent as soon as their telecom is free.
+	 *
+	 * A telecom answers its requests in order, and only sends a user's data the
+	 * first time it is asked about that user. So that every user is still found
+	 * at its shortest distance, a request at distance d is only queued for a
+	 * telecom once all the requests at distance d - 1 exist and are queued
+	 * ahead of it. Until then it is held back.
+	 * @param firstResponse The response for the target, already processed.
+	 * @return True if the search finished, false if there was an error.
+	 */
+	private boolean searchPipelined(SignedTelecomResponse[] firstResponse) {
+		ArrayList<ArrayDeque<PendingRequest>> queues =
+				new ArrayList<ArrayDeque<PendingRequest>>();
+		for (int i = 0; i < numTelecoms; i++) {
+			queues.add(new ArrayDeque<PendingRequest>());
 		}
-		for (OversightFinalResultsThread ofrt : finalThreads) {
+		// Requests held back, by distance.
+		ArrayList<ArrayList<PendingRequest>> held =
+				new ArrayList<ArrayList<PendingRequest>>();
+		for (int d = 0; d <= maxDistance; d++) {
+			held.add(new ArrayList<PendingRequest>());
+		}
+		// The number of requests at each distance that haven't been answered.
+		int[] unanswered = new int[maxDistance + 1];
+		// Every request at this distance or less has been made.
+		int complete = 1;
+		// The distance of the request each telecom is answering, or -1 if none.
+		int[] busy = new int[numTelecoms];
+		Arrays.fill(busy, -1);
+		int numBusy = 0;
+		// Whether we have told each telecom maxDegree yet.
+		boolean[] informed = new boolean[numTelecoms];
+		LinkedBlockingQueue<TelecomQueryThread> done =
+				new LinkedBlockingQueue<TelecomQueryThread>();
+
+		SignedTelecomResponse[] response = firstResponse;
+		int distance = 0;
+		while (true) {
+			// Have the oversight agencies sign the requests that follow from
+			// this response, then queue them up.
+			for (PendingRequest pr : signRequests(response, distance)) {
+				unanswered[pr.distance]++;
+				held.get(pr.distance).add(pr);
+			}
+			while (complete < maxDistance && unanswered[complete] == 0) {
+				complete++;
+			}
+			// Release shorter distances first, so each telecom gets them first.
+			for (int d = 1; d <= Math.min(complete + 1, maxDistance); d++) {
+				for (PendingRequest pr : held.get(d)) {
+					queues.get(pr.telecomId).add(pr);
+				}
+				held.get(d).clear();
+			}
+
+			// Start any free telecoms on their next request.
+			for (int telecomId = 0; telecomId < numTelecoms; telecomId++) {
+				if (busy[telecomId] >= 0 || queues.get(telecomId).isEmpty()) {
+					continue;
+				}
+				PendingRequest pr = queues.get(telecomId).poll();
+				println("Sending signed request for " +
+						pr.request.getCiphertexts().length + " ciphertexts at distance " +
+						pr.distance + " to telecom " + telecomId + "...");
+				if (!telecoms.containsKey(telecomId) && !connectTelecom(telecomId)) {
+					return false;
+				}
+				if (!informed[telecomId]) {
+					pr.request.setMaxDegree(maxDegree);
+					informed[telecomId] = true;
+				}
+				new TelecomQueryThread(telecomId, telecoms.get(telecomId),
+						pr.request, done).start();
+				busy[telecomId] = pr.distance;
+				numBusy++;
+			}
+			if (numBusy == 0) {
+				return true;
+			}
+
+			// Wait for whichever telecom answers next.
+			TelecomQueryThread tqt;
 			try {
-				ofrt.join();
+				tqt = done.take();
 			} catch (InterruptedException e) {
-			} finally {
-				long oCpuTime = ofrt.getOversightCpuTime();
-				if (oCpuTime < 0) {
-					System.err.println("Didn't get an OK from oversight agency " +
-							ofrt.getAgencyId() + "!");
-				} else {
-					recordAgencyCpuTime(oCpuTime);
+				return false;
+			}
+			recordAgencyCpuTime(tqt.getCpuTime());
+			ArrayList<SignedTelecomResponse> chunks =
+					new ArrayList<SignedTelecomResponse>();
+			SignedTelecomResponse next;
+			try {
+				while ((next = tqt.takeChunk()) != null) {
+					chunks.add(next);
+				}
+			} catch (InterruptedException e) {
+				return false;
+			}
+			if (!tqt.isComplete()) {
+				return false;
+			}
+			response = chunks.toArray(new SignedTelecomResponse[chunks.size()]);
+			distance = busy[tqt.getTelecomId()];
+			busy[tqt.getTelecomId()] = -1;
+			numBusy--;
+			unanswered[distance]--;
+			investigationLists.clear();
+			for (SignedTelecomResponse chunk : response) {
+				recordTelecomCpuTime(chunk.getCpuTime());
+				recordTelecomPoolUse(chunk.getPoolHits(), chunk.getPoolMisses());
+				for (TelecomResponse telecomResponse : chunk.getTelecomResponses()) {
+					processTelecomResponse(telecomResponse, distance);
 				}
-				recordAgencyCpuTime(ofrt.getCpuTime());
 			}
 		}
 	}
 
+	/**
+	 * Gets the oversight agencies' signatures on the requests that follow from
+	 * one telecom response, which has been processed into investigationLists.
+	 * @param response The chunks of the telecom response.
+	 * @param distance The distance of the request it answers.
+	 * @return A signed request for each telecom with ciphertexts to look up.
+	 */
+	private ArrayList<PendingRequest> signRequests(SignedTelecomResponse[] response,
+			int distance) {
+		ArrayList<Future<byte[][]>> signatures = new ArrayList<Future<byte[][]>>();
+		for (OversightSession session : oversight) {
+			signatures.add(session.sign(response, distance));
+		}
+
+		ArrayList<PendingRequest> requests = new ArrayList<PendingRequest>();
+		for (int telecomId = 0; telecomId < numTelecoms; telecomId++) {
+			if (!investigationLists.containsKey(telecomId) ||
+					investigationLists.get(telecomId).isEmpty()) {
+				continue;
+			}
+			SignedTelecomCiphertext signedTC =
+					new SignedTelecomCiphertext(getCiphertexts(telecomId), numAgencies);
+			if (distance + 1 == maxDistance) {
+				signedTC.setType(QueryType.CONCLUDE);
+			}
+			signRequest(signedTC);
+			requests.add(new PendingRequest(telecomId, distance + 1, signedTC));
+		}
+
+		HashMap<Integer, SignedTelecomCiphertext> signedTCs =
+				new HashMap<Integer, SignedTelecomCiphertext>();
+		for (PendingRequest pr : requests) {
+			signedTCs.put(pr.telecomId, pr.request);
+		}
+		for (int i = 0; i < oversight.length; i++) {
+			addSignatures(oversight[i], await(signatures.get(i)), signedTCs);
+		}
+		return requests;
+	}
+
+	/**
+	 * Adds an oversight agency's signatures to our requests, and records the
+	 * CPU time its session used.
+	 * @param session The session with the oversight agency.
+	 * @param signatures Its signatures, indexed by telecom id, or null if it
+	 * didn't send any.
+	 * @param signedTCs The requests, by telecom id.
+	 */
+	private void addSignatures(OversightSession session, byte[][] signatures,
+			HashMap<Integer, SignedTelecomCiphertext> signedTCs) {
+		for (int telecomId : signedTCs.keySet()) {
+			signedTCs.get(telecomId).addSignature(session.getAgencyId(),
+					signatures == null ? null : signatures[telecomId]);
+		}
+		recordAgencyCpuTime(session.getCpuTime());
+	}
+
+	/**
+	 * Waits for an exchange with an oversight agency to finish.
+	 * @return The result, or null if we were interrupted.
+	 */
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			return null;
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Ends the search with the oversight agencies, once they have seen every
+	 * response, and collects their CPU times.
+	 * @param pipelined Whether the search was pipelined.
+	 */
+	private void finishOversight(boolean pipelined) {
+		ArrayList<Future<Long>> cpuTimes = new ArrayList<Future<Long>>();
+		for (OversightSession session : oversight) {
+			cpuTimes.add(session.finish(pipelined));
+		}
+		for (int i = 0; i < oversight.length; i++) {
+			Long oCpuTime = await(cpuTimes.get(i));
+			if (oCpuTime == null || oCpuTime < 0) {
+				System.err.println("Didn't get an OK from oversight agency " +
+						oversight[i].getAgencyId() + "!");
+			} else {
+				recordAgencyCpuTime(oCpuTime);
+			}
+			recordAgencyCpuTime(oversight[i].getCpuTime());
+		}
+	}
+
 	/**
 	 * Adds a connection to a telecom.
 	 * @param telecomId The id of the telecom to connect to.
 	 * @return True if the connection was succesfully made; false else
 	 */
 	private boolean connectTelecom(int telecomId) {
-		Socket tSocket;
+		Connection tSocket;
 		String[] address = telecomIPs.getProperty(""+telecomId).split(":");
 		String telecomIp = address[0];
 		int telecomPort = Integer.parseInt(address[1]);
 		for (int i = 0; i < MAX_TRIES; i++) {
 			try {
-				tSocket = new Socket(telecomIp, telecomPort);
-				telecoms.put(telecomId, new TelecomSocket(tSocket));
+				tSocket = transport.connect(telecomIp, telecomPort);
+				telecoms.put(telecomId, new TelecomSocket(tSocket, wireFormat,
+						compression));
 				println("Connected to telecom " + telecomId);
 				return true;
 			} catch (UnknownHostException e) {
@@ -301,9 +545,31 @@ public class LeaderAgency extends Agency {
 		return false;
 	}
 
+	/**
+	 * Records the traffic on each of our connections, then reports timing.
+	 */
+	@Override
+	protected void reportTiming() {
+		for (int telecomId : telecoms.keySet()) {
+			TelecomSocket ts = telecoms.get(telecomId);
+			recordBytes("telecom " + telecomId, ts.getBytesSent(),
+					ts.getBytesReceived(), ts.getUncompressedBytesSent(),
+					ts.getUncompressedBytesReceived());
+		}
+		for (OversightSession session : oversight) {
+			if (session != null) {
+				OversightSocket os = session.getSocket();
+				recordBytes(os.getPeerName(), os.getBytesSent(),
+						os.getBytesReceived(), os.getUncompressedBytesSent(),
+						os.getUncompressedBytesReceived());
+			}
+		}
+		super.reportTiming();
+	}
+
 	public void closeAll() {
-		for (OversightSocket os : oversight) {
-			os.close();
+		for (OversightSession session : oversight) {
+			session.close();
 		}
 		for (TelecomSocket ts : telecoms.values()) {
 			ts.close();
@@ -0,0 +1,153 @@
+package cc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Contact data in compressed sparse row (CSR) form, memory-mapped from a file.
+ * Nothing is deserialized when the store is opened; the operating system
+ * pages the data in as it is used and can share it between processes.
+ *
+ * File layout, all big-endian:
+ *   int MAGIC, int VERSION, int numSlots (max user id + 1), int numNeighbors
+ *   int offsets[numSlots + 1]: user u's contacts are neighbors[offsets[u]]
+ *       up to but not including neighbors[offsets[u + 1]]
+ *   int neighbors[numNeighbors]
+ *   byte present[(numSlots + 7) / 8]: bit u % 8 of byte u / 8 is set if user u
+ *       is in the store, since a user may have no contacts
+ * Each section must be under 2GB.
+ * @author Aaron Segal
+ */
+public class MappedContactStore implements ContactStore {
+
+	public static final int MAGIC = 0x43435352; // "CCSR"
+	public static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+
+	private int numSlots;
+	private IntBuffer offsets;
+	private IntBuffer neighbors;
+	private ByteBuffer present;
+
+	public MappedContactStore(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC) {
+				throw new IOException(filename + " is not a CSR contact file");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported CSR contact file version " + version);
+			}
+			numSlots = header.getInt();
+			int numNeighbors = header.getInt();
+			long position = HEADER_BYTES;
+			long offsetBytes = 4L * (numSlots + 1);
+			offsets = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					offsetBytes).asIntBuffer();
+			position += offsetBytes;
+			long neighborBytes = 4L * numNeighbors;
+			neighbors = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					neighborBytes).asIntBuffer();
+			position += neighborBytes;
+			present = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					(numSlots + 7) / 8);
+		} finally {
+			// The mappings stay valid after the file is closed.
+			file.close();
+		}
+	}
+
+	public boolean contains(int userId) {
+		return userId >= 0 && userId < numSlots &&
+				(present.get(userId >>> 3) & (1 << (userId & 7))) != 0;
+	}
+
+	/**
+	 * Copies a user's contacts out of the mapped file. Only absolute reads are
+	 * used, so this is safe to call from many threads.
+	 */
+	public int[] getNeighbors(int userId) {
+		if (!contains(userId)) {
+			return null;
+		}
+		int start = offsets.get(userId);
+		int[] result = new int[offsets.get(userId + 1) - start];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = neighbors.get(start + i);
+		}
+		return result;
+	}
+
+	public int getMaxUserId() {
+		for (int userId = numSlots - 1; userId >= 0; userId--) {
+			if (contains(userId)) {
+				return userId;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes contact data to a file in the format read by this class.
+	 * @param contacts The contact data. User ids must not be negative.
+	 * @param filename The file to write.
+	 * @throws IOException
+	 */
+	public static void write(ContactStore contacts, String filename)
+			throws IOException {
+		int numSlots = contacts.getMaxUserId() + 1;
+		long numNeighbors = 0;
+		for (int userId = 0; userId < numSlots; userId++) {
+			if (contacts.contains(userId)) {
+				numNeighbors += contacts.getNeighbors(userId).length;
+			}
+		}
+		if (numNeighbors > Integer.MAX_VALUE / 4) {
+			throw new IOException("Too many contacts for one CSR file: " + numNeighbors);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numSlots);
+			out.writeInt((int) numNeighbors);
+			int offset = 0;
+			out.writeInt(offset);
+			for (int userId = 0; userId < numSlots; userId++) {
+				if (contacts.contains(userId)) {
+					offset += contacts.getNeighbors(userId).length;
+				}
+				out.writeInt(offset);
+			}
+			for (int userId = 0; userId < numSlots; userId++) {
+				if (contacts.contains(userId)) {
+					for (int neighbor : contacts.getNeighbors(userId)) {
+						out.writeInt(neighbor);
+					}
+				}
+			}
+			int bits = 0;
+			for (int userId = 0; userId < numSlots; userId++) {
+				if (contacts.contains(userId)) {
+					bits |= 1 << (userId & 7);
+				}
+				if ((userId & 7) == 7 || userId == numSlots - 1) {
+					out.writeByte(bits);
+					bits = 0;
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package cc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A Merkle hash tree over a batch of telecom ciphertexts. Agencies can sign the
+ * root of the tree instead of the whole batch; each ciphertext can then be
+ * checked against the signed root on its own, using its inclusion path.
+ *
+ * Leaves are SHA-256(0x00 || encoding of the ciphertext) and inner nodes are
+ * SHA-256(0x01 || left || right), so a leaf can never pass for an inner node.
+ * When a level has an odd number of nodes, the last one is carried up to the
+ * next level unchanged rather than paired with a copy of itself.
+ * @author Aaron Segal
+ */
+public class MerkleTree {
+
+	public static final String HASH_ALGORITHM = "SHA-256";
+	private static final byte LEAF_PREFIX = 0;
+	private static final byte NODE_PREFIX = 1;
+
+	// levels[0] holds the leaf hashes, and the last level holds only the root.
+	private byte[][][] levels;
+
+	/**
+	 * Builds the tree over the given ciphertexts, in order.
+	 * @param ciphertexts The ciphertexts in the batch. There must be at least one.
+	 */
+	public MerkleTree(TelecomCiphertext[] ciphertexts) {
+		if (ciphertexts.length == 0) {
+			throw new IllegalArgumentException("Cannot build a Merkle tree with no leaves");
+		}
+		MessageDigest digest = newDigest();
+		int height = 1;
+		for (int n = ciphertexts.length; n > 1; n = (n + 1) / 2) {
+			height++;
+		}
+		levels = new byte[height][][];
+		levels[0] = new byte[ciphertexts.length][];
+		for (int i = 0; i < ciphertexts.length; i++) {
+			levels[0][i] = hashLeaf(digest, ciphertexts[i]);
+		}
+		for (int level = 1; level < height; level++) {
+			byte[][] below = levels[level - 1];
+			levels[level] = new byte[(below.length + 1) / 2][];
+			for (int i = 0; i < levels[level].length; i++) {
+				if (2 * i + 1 < below.length) {
+					levels[level][i] = hashNode(digest, below[2 * i], below[2 * i + 1]);
+				} else {
+					levels[level][i] = below[2 * i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the root hash
+	 */
+	public byte[] getRoot() {
+		return levels[levels.length - 1][0];
+	}
+
+	/**
+	 * @return the number of ciphertexts in the tree
+	 */
+	public int getNumLeaves() {
+		return levels[0].length;
+	}
+
+	/**
+	 * Returns the sibling hashes on the way from a leaf to the root, bottom up.
+	 * Levels where the node has no sibling are skipped.
+	 * @param index The position of the ciphertext in the batch.
+	 * @return The inclusion path for that ciphertext.
+	 */
+	public byte[][] getPath(int index) {
+		byte[][] path = new byte[levels.length - 1][];
+		int length = 0;
+		for (int level = 0; level < levels.length - 1; level++) {
+			int sibling = index ^ 1;
+			if (sibling < levels[level].length) {
+				path[length++] = levels[level][sibling];
+			}
+			index >>= 1;
+		}
+		return Arrays.copyOf(path, length);
+	}
+
+	/**
+	 * Recomputes the root of a tree from one of its leaves and an inclusion path.
+	 * @param ciphertext The ciphertext at position index.
+	 * @param index The position of the ciphertext in the batch.
+	 * @param numLeaves The number of ciphertexts in the batch.
+	 * @param path The inclusion path returned by getPath(index).
+	 * @return The root, or null if the path does not fit a tree of this size.
+	 */
+	public static byte[] rootFromPath(TelecomCiphertext ciphertext, int index,
+			int numLeaves, byte[][] path) {
+		if (index < 0 || index >= numLeaves || path == null) {
+			return null;
+		}
+		MessageDigest digest = newDigest();
+		byte[] hash = hashLeaf(digest, ciphertext);
+		int used = 0;
+		for (int n = numLeaves; n > 1; n = (n + 1) / 2) {
+			int sibling = index ^ 1;
+			if (sibling < n) {
+				if (used == path.length) {
+					return null;
+				}
+				if ((index & 1) == 0) {
+					hash = hashNode(digest, hash, path[used++]);
+				} else {
+					hash = hashNode(digest, path[used++], hash);
+				}
+			}
+			index >>= 1;
+		}
+		return used == path.length ? hash : null;
+	}
+
+	private static byte[] hashLeaf(MessageDigest digest, TelecomCiphertext ciphertext) {
+		ByteArrayOutputStream leaf = new ByteArrayOutputStream();
+		leaf.write(LEAF_PREFIX);
+		try {
+			new MessageEncoder(leaf).writeTelecomCiphertext(ciphertext);
+		} catch (IOException e) {
+			// Cannot happen when writing to memory.
+			throw new IllegalStateException(e);
+		}
+		return digest.digest(leaf.toByteArray());
+	}
+
+	private static byte[] hashNode(MessageDigest digest, byte[] left, byte[] right) {
+		digest.update(NODE_PREFIX);
+		digest.update(left);
+		digest.update(right);
+		return digest.digest();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package cc;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+
+/**
+ * Writes protocol data in a compact, deterministic binary layout. Counts,
+ * lengths and owners are varints; RSA blocks in TelecomCiphertexts and group
+ * elements in agency ciphertexts are written raw at a fixed width given once
+ * per array.
+ *
+ * The same layout is used by the binary wire format and as the canonical form
+ * that signatures are computed over, so equal data always encodes to equal bytes.
+ * @author Aaron Segal
+ */
+public class MessageEncoder {
+
+	// Written before signed data, so a signature on one kind of data can never
+	// be passed off as a signature on another.
+	public static final int DOMAIN_CIPHERTEXTS = 'C';
+	public static final int DOMAIN_RESPONSES = 'R';
+	public static final int DOMAIN_MERKLE_ROOT = 'M';
+
+	private DataOutputStream out;
+
+	public MessageEncoder(OutputStream out) {
+		this.out = new DataOutputStream(out);
+	}
+
+	/**
+	 * @return the underlying stream
+	 */
+	public DataOutputStream getStream() {
+		return out;
+	}
+
+	/**
+	 * Writes the part of a chunk of telecom responses that the telecom signs:
+	 * its sequence number, whether more chunks follow, and the responses.
+	 */
+	public void writeSignedContent(SignedTelecomResponse signedTR)
+			throws IOException {
+		writeVarInt(signedTR.getSequence());
+		out.writeBoolean(signedTR.isMore());
+		writeTelecomResponses(signedTR.getTelecomResponses());
+	}
+
+	public void writeTelecomResponses(TelecomResponse[] responses)
+			throws IOException {
+		writeVarInt(responses.length);
+		for (TelecomResponse response : responses) {
+			writeTelecomResponse(response);
+		}
+	}
+
+	public void writeTelecomResponse(TelecomResponse response)
+			throws IOException {
+		out.writeByte(response.getMsgType().ordinal());
+		BigInteger[] agencyCiphertext = response.getAgencyCiphertext();
+		out.writeBoolean(agencyCiphertext != null);
+		if (agencyCiphertext != null) {
+			writeAgencyCiphertext(agencyCiphertext);
+		}
+		TelecomCiphertext[] telecomCiphertexts = response.getTelecomCiphertexts();
+		out.writeBoolean(telecomCiphertexts != null);
+		if (telecomCiphertexts != null) {
+			writeTelecomCiphertexts(telecomCiphertexts);
+		}
+	}
+
+	/*
+	 * Agency ciphertexts have the layout (id, c1, id, c1, ..., c2). Ids are
+	 * written as varints and group elements raw at a common width.
+	 */
+	public void writeAgencyCiphertext(BigInteger[] agencyCiphertext)
+			throws IOException {
+		writeVarInt(agencyCiphertext.length);
+		int width = 0;
+		for (int i = 0; i < agencyCiphertext.length; i++) {
+			if (!isAgencyId(i, agencyCiphertext.length)) {
+				width = Math.max(width, (agencyCiphertext[i].bitLength() + 7) / 8);
+			}
+		}
+		writeVarInt(width);
+		byte[] element = new byte[width];
+		for (int i = 0; i < agencyCiphertext.length; i++) {
+			if (isAgencyId(i, agencyCiphertext.length)) {
+				writeSignedVarInt(agencyCiphertext[i].intValue());
+			} else {
+				byte[] bytes = agencyCiphertext[i].toByteArray();
+				// Drop the sign byte, then right-align within width.
+				int skip = bytes.length > width ? bytes.length - width : 0;
+				int pad = width - (bytes.length - skip);
+				for (int j = 0; j < pad; j++) {
+					element[j] = 0;
+				}
+				System.arraycopy(bytes, skip, element, pad, bytes.length - skip);
+				out.write(element);
+			}
+		}
+	}
+
+	/**
+	 * @return True if position i of an agency ciphertext of the given length
+	 * holds an agency id, false if it holds a group element.
+	 */
+	public static boolean isAgencyId(int i, int length) {
+		return i % 2 == 0 && i < length - 1;
+	}
+
+	/*
+	 * All RSA blocks normally have the same length, in which case it is written
+	 * once. Otherwise width 0 is written and each block has its own length.
+	 */
+	public void writeTelecomCiphertexts(TelecomCiphertext[] telecomCiphertexts)
+			throws IOException {
+		writeVarInt(telecomCiphertexts.length);
+		int width = -1;
+		for (TelecomCiphertext tc : telecomCiphertexts) {
+			int length = tc.getEncryptedId().length;
+			if (width == -1) {
+				width = length;
+			} else if (width != length) {
+				width = 0;
+				break;
+			}
+		}
+		writeVarInt(Math.max(width, 0));
+		for (TelecomCiphertext tc : telecomCiphertexts) {
+			writeVarInt(tc.getOwner());
+			if (width <= 0) {
+				writeVarInt(tc.getEncryptedId().length);
+			}
+			out.write(tc.getEncryptedId());
+		}
+	}
+
+	/**
+	 * Writes a single ciphertext on its own, as hashed into a MerkleTree leaf.
+	 */
+	public void writeTelecomCiphertext(TelecomCiphertext tc) throws IOException {
+		writeVarInt(tc.getOwner());
+		writeBytes(tc.getEncryptedId());
+	}
+
+	// Byte arrays may be null: length + 1 is written, with 0 meaning null.
+	public void writeBytes(byte[] bytes) throws IOException {
+		if (bytes == null) {
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(bytes.length + 1);
+		out.write(bytes);
+	}
+
+	public void writeBytesArray(byte[][] bytesArray) throws IOException {
+		writeVarInt(bytesArray.length);
+		for (byte[] bytes : bytesArray) {
+			writeBytes(bytes);
+		}
+	}
+
+	public void writeVarInt(int value) throws IOException {
+		writeVarLong(value & 0xFFFFFFFFL);
+	}
+
+	public void writeSignedVarInt(int value) throws IOException {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	// Unsigned LEB128: 7 bits per byte, high bit set on all but the last byte.
+	public void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+}
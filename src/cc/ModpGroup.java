@@ -0,0 +1,169 @@
+package cc;
+
+import java.math.BigInteger;
+
+/**
+ * A multiplicative group modulo a safe prime p = 2q + 1, for ElGamal,
+ * CommutativeElGamal and PohligHellman. The registered groups are the Oakley
+ * groups of RFC 2409; keys for them name the group with a GROUP line in their
+ * key files. Other groups are written out as PRIME and GENERATOR lines.
+ *
+ *   modp768   RFC 2409 group 1, about 70-bit security, 160-bit short exponents
+ *   modp1024  RFC 2409 group 2, about 80-bit security, 160-bit short exponents
+ *
+ * modp1024 is the default everywhere. By default, exponents (private keys and
+ * encryption randomness) are p.bitLength() - 1 bits long. As p is a safe
+ * prime, the best attacks on an exponent of n bits take about 2^(n/2) steps,
+ * so an exponent of twice the group's security level loses nothing; this is
+ * the short exponent length above, and the one NIST SP 800-57 pairs with
+ * 1024-bit groups. Exponentiations cost time in proportion to the exponent
+ * length, so short exponents make them several times faster. The strength of
+ * an unregistered group is not known, so its short exponents are full length.
+ * @author Aaron Segal
+ */
+public class ModpGroup {
+
+	public static final String GROUP = "GROUP";
+	// Exponents shorter than this are refused.
+	public static final int MIN_EXPONENT_BITS = 128;
+	// Config value for the group's short exponent length.
+	public static final String SHORT = "short";
+
+	public static final ModpGroup MODP768 = new ModpGroup("modp768",
+			ElGamal.prime768, ElGamal.generator768, 160);
+	public static final ModpGroup MODP1024 = new ModpGroup("modp1024",
+			ElGamal.prime1024, ElGamal.generator1024, 160);
+
+	private String name;
+	private BigInteger prime;
+	private BigInteger generator;
+	private int shortExponentBits;
+
+	/**
+	 * Describes a group that is not registered.
+	 * @param prime A safe prime.
+	 * @param generator A generator of the group Zp*.
+	 */
+	public ModpGroup(BigInteger prime, BigInteger generator) {
+		this(null, prime, generator, prime.bitLength() - 1);
+	}
+
+	private ModpGroup(String name, BigInteger prime, BigInteger generator,
+			int shortExponentBits) {
+		this.name = name;
+		this.prime = prime;
+		this.generator = generator;
+		this.shortExponentBits = shortExponentBits;
+	}
+
+	/**
+	 * @param name The name of a registered group, e.g. modp1024.
+	 * @return The group.
+	 * @throws IllegalArgumentException if there is no such group.
+	 */
+	public static ModpGroup forName(String name) {
+		if (name.equalsIgnoreCase(MODP768.name)) {
+			return MODP768;
+		} else if (name.equalsIgnoreCase(MODP1024.name)) {
+			return MODP1024;
+		}
+		throw new IllegalArgumentException("Unknown group " + name);
+	}
+
+	/**
+	 * @param prime A prime number.
+	 * @param generator A generator of the group Zp*.
+	 * @return The registered group with this prime and generator, or an
+	 * unregistered one if there is none.
+	 */
+	public static ModpGroup get(BigInteger prime, BigInteger generator) {
+		for (ModpGroup group : new ModpGroup[] {MODP768, MODP1024}) {
+			if (group.prime.equals(prime) && group.generator.equals(generator)) {
+				return group;
+			}
+		}
+		return new ModpGroup(prime, generator);
+	}
+
+	/**
+	 * @return the name, or null if the group is not registered
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public BigInteger getPrime() {
+		return prime;
+	}
+
+	public BigInteger getGenerator() {
+		return generator;
+	}
+
+	/**
+	 * @return the length of full exponents, p.bitLength() - 1
+	 */
+	public int getFullExponentBits() {
+		return prime.bitLength() - 1;
+	}
+
+	/**
+	 * @return the shortest exponent length that keeps the group's security
+	 */
+	public int getShortExponentBits() {
+		return shortExponentBits;
+	}
+
+	/**
+	 * Parses an exponent length setting.
+	 * @param setting A number of bits, "short" for the short exponent length,
+	 * or null or 0 for full exponents.
+	 * @return The exponent length in bits.
+	 * @throws IllegalArgumentException if the length is out of range.
+	 */
+	public int parseExponentBits(String setting) {
+		if (setting == null) {
+			return getFullExponentBits();
+		} else if (setting.trim().equalsIgnoreCase(SHORT)) {
+			return getShortExponentBits();
+		}
+		int bits = Integer.parseInt(setting.trim());
+		return bits == 0 ? getFullExponentBits() : checkExponentBits(bits);
+	}
+
+	/**
+	 * @param bits An exponent length.
+	 * @return bits, if it is between MIN_EXPONENT_BITS and the full length.
+	 * @throws IllegalArgumentException otherwise.
+	 */
+	public int checkExponentBits(int bits) {
+		return checkExponentBits(prime, bits);
+	}
+
+	/**
+	 * @param prime The prime of any group.
+	 * @param bits An exponent length.
+	 * @return bits, if it is between MIN_EXPONENT_BITS and the full length.
+	 * @throws IllegalArgumentException otherwise.
+	 */
+	public static int checkExponentBits(BigInteger prime, int bits) {
+		int fullBits = prime.bitLength() - 1;
+		if (bits < Math.min(MIN_EXPONENT_BITS, fullBits) || bits > fullBits) {
+			throw new IllegalArgumentException("Exponents must be between " +
+					MIN_EXPONENT_BITS + " and " + fullBits + " bits");
+		}
+		return bits;
+	}
+
+	/**
+	 * @return whether this is the same group as o
+	 */
+	public boolean sameGroup(ModpGroup o) {
+		return prime.equals(o.prime) && generator.equals(o.generator);
+	}
+
+	@Override
+	public String toString() {
+		return name != null ? name : prime.bitLength() + "-bit custom group";
+	}
+}
@@ -0,0 +1,36 @@
+package cc;
+
+import java.math.BigInteger;
+
+/**
+ * Computes products of powers, b1^e1 * b2^e2 * ... mod p. Bases with a
+ * registered FixedBaseTable use it, and the others are exponentiated one by one
+ * with BigInteger.modPow, whose Montgomery multiplication the JIT compiles to
+ * native code. Simultaneous methods such as Straus's only beat that at about
+ * eight variable bases on a 1024-bit prime, far more than there are agencies.
+ * @author Aaron Segal
+ */
+public class MultiExponentiation {
+
+	private MultiExponentiation() {
+	}
+
+	/**
+	 * Computes the product of bases[i]^exponents[i] mod modulus.
+	 * @param bases The bases, each less than modulus.
+	 * @param exponents The exponents, one per base.
+	 * @param modulus The odd modulus.
+	 * @return The product of the powers, mod modulus.
+	 */
+	public static BigInteger modPow(BigInteger[] bases, BigInteger[] exponents,
+			BigInteger modulus) {
+		BigInteger result = BigInteger.ONE;
+		for (int i = 0; i < bases.length; i++) {
+			FixedBaseTable table = FixedBaseTable.get(bases[i], modulus);
+			BigInteger power = table != null ? table.pow(exponents[i]) :
+					bases[i].modPow(exponents[i], modulus);
+			result = result.multiply(power).mod(modulus);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,482 @@
+package cc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A transport that does all of its reading and writing on one selector
+ * thread, with non-blocking channels, however many connections there are.
+ * Threads using a connection still see ordinary streams: writes are copied
+ * into direct buffers, which the selector thread sends with gathering writes
+ * when the channel is ready, and the direct buffers data is read into are
+ * handed to the stream's reader as they are. So a thread can get on with its
+ * crypto while its last message is still being sent.
+ *
+ * As with a socket, written data is sent without waiting for a flush. Writes
+ * only wait once more than MAX_PENDING bytes are waiting to be sent. Closing
+ * waits for everything to be sent. Reading from a connection stops once
+ * MAX_RECEIVED bytes of buffers are waiting for its reader, and starts again
+ * when the reader has taken half of them, so a peer can't send faster than
+ * we read.
+ * @author Aaron Segal
+ */
+public class NioTransport extends Transport {
+
+	// Size of the direct buffers data is read into and written from.
+	public static final int BUFFER_SIZE = 64 * 1024;
+	// Writers wait once a connection has this many bytes waiting to be sent.
+	public static final int MAX_PENDING = 4 * 1024 * 1024;
+	// Reading stops once a connection has this many bytes of read buffers
+	// waiting for its reader.
+	public static final int MAX_RECEIVED = 4 * 1024 * 1024;
+	// The most spare write buffers kept for reuse.
+	public static final int MAX_SPARE_BUFFERS = 64;
+
+	// Marks the end of a connection's incoming data.
+	private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+	private Selector selector;
+	private Thread ioThread;
+	// Work for the selector thread, such as registering a channel.
+	private ConcurrentLinkedQueue<Runnable> tasks =
+			new ConcurrentLinkedQueue<Runnable>();
+	// Buffers that have been sent or read, kept since direct buffers are
+	// costly to allocate.
+	private ConcurrentLinkedQueue<ByteBuffer> spareBuffers =
+			new ConcurrentLinkedQueue<ByteBuffer>();
+
+	@Override
+	public Connection connect(String host, int port) throws IOException {
+		start();
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved()) {
+			throw new UnknownHostException(host);
+		}
+		return new NioConnection(SocketChannel.open(address));
+	}
+
+	@Override
+	public Listener listen(int port) throws IOException {
+		start();
+		final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		// Accepting stays blocking; only the connections use the selector.
+		return new Listener() {
+			public Connection accept() throws IOException {
+				return new NioConnection(serverChannel.accept());
+			}
+
+			public void close() throws IOException {
+				serverChannel.close();
+			}
+		};
+	}
+
+	/**
+	 * Opens the selector and starts its thread, if that hasn't been done yet.
+	 */
+	private synchronized void start() throws IOException {
+		if (ioThread != null) {
+			return;
+		}
+		selector = Selector.open();
+		ioThread = new Thread("nio") {
+			public void run() {
+				selectLoop();
+			}
+		};
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+
+	private void selectLoop() {
+		while (true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				NioConnection connection = (NioConnection) key.attachment();
+				try {
+					if (key.isReadable()) {
+						connection.readReady();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.writeReady();
+					}
+				} catch (IOException e) {
+					connection.fail(e);
+				} catch (CancelledKeyException e) {
+					connection.fail(new ClosedChannelException());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a task on the selector thread, which is the only thread that
+	 * touches the selector and the selection keys.
+	 */
+	private void runOnIoThread(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	private ByteBuffer takeBuffer() {
+		ByteBuffer buffer = spareBuffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		return buffer;
+	}
+
+	private void recycle(ByteBuffer buffer) {
+		if (spareBuffers.size() < MAX_SPARE_BUFFERS) {
+			buffer.clear();
+			spareBuffers.add(buffer);
+		}
+	}
+
+	/*
+	 * The outgoing queue, the count of received bytes and the flags below them
+	 * are guarded by the connection's lock.
+	 */
+	private class NioConnection implements Connection {
+
+		private SocketChannel channel;
+		private SelectionKey key;
+		private InputStream in;
+		private OutputStream out;
+
+		// Buffers read but not yet taken by the reader, in order, and their
+		// total capacity.
+		private LinkedBlockingQueue<ByteBuffer> received =
+				new LinkedBlockingQueue<ByteBuffer>();
+		private long receivedBytes = 0;
+
+		// Buffers waiting to be sent. Writes are added to the end of the last.
+		private ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<ByteBuffer>();
+		private long pendingBytes = 0;
+		private boolean writeRequested = false;
+		private boolean readOpen = true;
+		private boolean readPaused = false;
+		private boolean closing = false;
+		private boolean closed = false;
+		private volatile IOException failure = null;
+
+		private final Runnable updateTask = new Runnable() {
+			public void run() {
+				synchronized (NioConnection.this) {
+					if (closed) {
+						return;
+					}
+					if (closing && outgoing.isEmpty()) {
+						closeChannel();
+					} else {
+						updateInterest();
+					}
+				}
+			}
+		};
+
+		public NioConnection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			channel.socket().setTcpNoDelay(true);
+			channel.configureBlocking(false);
+			in = new ConnectionInputStream();
+			out = new ConnectionOutputStream();
+			runOnIoThread(new Runnable() {
+				public void run() {
+					synchronized (NioConnection.this) {
+						try {
+							key = NioConnection.this.channel.register(selector,
+									SelectionKey.OP_READ, NioConnection.this);
+							updateInterest();
+						} catch (ClosedChannelException e) {
+							fail(e);
+						}
+					}
+				}
+			});
+		}
+
+		public InputStream getInputStream() {
+			return in;
+		}
+
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		public InetAddress getInetAddress() {
+			return channel.socket().getInetAddress();
+		}
+
+		public SocketAddress getRemoteSocketAddress() {
+			return channel.socket().getRemoteSocketAddress();
+		}
+
+		public synchronized void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closing = true;
+			runOnIoThread(updateTask);
+			while (!closed) {
+				waitForIo();
+			}
+		}
+
+		// Called on the selector thread.
+		private void readReady() throws IOException {
+			ByteBuffer buffer = takeBuffer();
+			int count = channel.read(buffer);
+			if (count <= 0) {
+				recycle(buffer);
+				if (count < 0) {
+					synchronized (this) {
+						readOpen = false;
+						updateInterest();
+					}
+					received.add(EOF);
+				}
+				return;
+			}
+			buffer.flip();
+			synchronized (this) {
+				receivedBytes += buffer.capacity();
+				if (receivedBytes >= MAX_RECEIVED) {
+					readPaused = true;
+					updateInterest();
+				}
+			}
+			received.add(buffer);
+		}
+
+		/**
+		 * Called by the reader once it has read all of a buffer. Reading
+		 * starts again if it had stopped and half the buffers have been taken.
+		 */
+		private void readTaken(ByteBuffer buffer) {
+			synchronized (this) {
+				receivedBytes -= buffer.capacity();
+				if (readPaused && receivedBytes <= MAX_RECEIVED / 2) {
+					readPaused = false;
+					runOnIoThread(updateTask);
+				}
+			}
+			recycle(buffer);
+		}
+
+		// Called on the selector thread.
+		private synchronized void writeReady() throws IOException {
+			ByteBuffer[] buffers = outgoing.toArray(new ByteBuffer[outgoing.size()]);
+			pendingBytes -= channel.write(buffers);
+			while (!outgoing.isEmpty() && !outgoing.peek().hasRemaining()) {
+				recycle(outgoing.poll());
+			}
+			if (outgoing.isEmpty()) {
+				writeRequested = false;
+				if (closing) {
+					closeChannel();
+					return;
+				}
+			}
+			updateInterest();
+			notifyAll();
+		}
+
+		// Called on the selector thread, holding the lock.
+		private void updateInterest() {
+			if (key == null || !key.isValid()) {
+				return;
+			}
+			int ops = 0;
+			if (readOpen && !readPaused) {
+				ops |= SelectionKey.OP_READ;
+			}
+			if (!outgoing.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			key.interestOps(ops);
+		}
+
+		// Called on the selector thread.
+		private synchronized void fail(IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+			closeChannel();
+		}
+
+		// Called on the selector thread, holding the lock.
+		private void closeChannel() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {}
+			received.add(EOF);
+			notifyAll();
+		}
+
+		// Holding the lock.
+		private void waitForIo() throws IOException {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		private void checkFailure() throws IOException {
+			if (failure != null) {
+				throw new IOException("Connection to " + getRemoteSocketAddress() +
+						" failed", failure);
+			}
+		}
+
+		private synchronized void write(byte[] b, int off, int len)
+				throws IOException {
+			checkFailure();
+			if (closing) {
+				throw new IOException("Connection is closed");
+			}
+			// Nothing to send, so don't ask for a write that would leave
+			// writeRequested set with no buffer to clear it.
+			if (len == 0) {
+				return;
+			}
+			pendingBytes += len;
+			while (len > 0) {
+				ByteBuffer last = outgoing.peekLast();
+				if (last == null || last.limit() == last.capacity()) {
+					last = takeBuffer();
+					last.limit(0);
+					outgoing.add(last);
+				}
+				// Append between the limit and the capacity, leaving the
+				// unsent data from position to limit as it was.
+				int start = last.position();
+				int count = Math.min(len, last.capacity() - last.limit());
+				last.position(last.limit());
+				last.limit(last.capacity());
+				last.put(b, off, count);
+				last.limit(last.position());
+				last.position(start);
+				off += count;
+				len -= count;
+			}
+			if (!writeRequested) {
+				writeRequested = true;
+				runOnIoThread(updateTask);
+			}
+			while (pendingBytes > MAX_PENDING && !closed) {
+				waitForIo();
+			}
+			checkFailure();
+		}
+
+		private class ConnectionInputStream extends InputStream {
+
+			// The buffer being read.
+			private ByteBuffer chunk = null;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				if (read(b, 0, 1) < 0) {
+					return -1;
+				}
+				return b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				if (chunk == null || (chunk != EOF && !chunk.hasRemaining())) {
+					if (chunk != null) {
+						readTaken(chunk);
+						chunk = null;
+					}
+					try {
+						chunk = received.take();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				if (chunk == EOF) {
+					checkFailure();
+					return -1;
+				}
+				int count = Math.min(len, chunk.remaining());
+				chunk.get(b, off, count);
+				return count;
+			}
+
+			@Override
+			public int available() {
+				if (chunk == null || chunk == EOF) {
+					return 0;
+				}
+				return chunk.remaining();
+			}
+
+			@Override
+			public void close() throws IOException {
+				NioConnection.this.close();
+			}
+		}
+
+		private class ConnectionOutputStream extends OutputStream {
+
+			@Override
+			public void write(int b) throws IOException {
+				NioConnection.this.write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				NioConnection.this.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				NioConnection.this.close();
+			}
+		}
+	}
+}
@@ -1,19 +1,39 @@
 package cc;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.OutputStream;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import cc.Transport.Connection;
 
 public class OversightAgency extends Agency {
 
 	public static final String LEADER_IP = "LEADERIP";
 
-	private Socket leaderSocket = null;
+	private Connection leaderSocket = null;
 	private boolean connected = false;
 	private ObjectOutputStream leaderOStream;
 	private ObjectInputStream leaderIStream;
+	private CountingOutputStream leaderCountingOStream;
+	private CountingInputStream leaderCountingIStream;
+	// Count the traffic before compression, if the connection is compressed.
+	private CountingOutputStream leaderUncompressedOStream = null;
+	private CountingInputStream leaderUncompressedIStream = null;
+	private ParallelVerifier verifier;
+	// In pipelined mode, the distances of the requests we have signed that
+	// have not been answered yet, by telecom id.
+	private HashMap<Integer, ArrayList<Integer>> unanswered =
+			new HashMap<Integer, ArrayList<Integer>>();
+	// The sequence number of the next chunk each telecom should have sent.
+	private HashMap<Integer, Integer> nextSequence =
+			new HashMap<Integer, Integer>();
 
 	@Override
 	protected void usage() {
@@ -22,6 +42,7 @@ public class OversightAgency extends Agency {
 
 	public OversightAgency(String[] args) {
 		super(args);
+		verifier = new ParallelVerifier(numTelecoms);
 		String[] address = config.getProperty(LEADER_IP).split(":");
 		String leaderIp = address[0]; // ip
 		int leaderPort = Integer.parseInt(address[1]); //port
@@ -32,9 +53,24 @@ public class OversightAgency extends Agency {
 		connected = false;
 		for (int i = 0; i < MAX_TRIES && !connected; i++) {
 			try {
-				leaderSocket = new Socket(leaderIp, leaderPort);
-				leaderOStream = new ObjectOutputStream(leaderSocket.getOutputStream());
-				leaderIStream = new ObjectInputStream(leaderSocket.getInputStream());
+				leaderSocket = transport.connect(leaderIp, leaderPort);
+				leaderCountingOStream =
+						new CountingOutputStream(leaderSocket.getOutputStream());
+				leaderCountingIStream =
+						new CountingInputStream(leaderSocket.getInputStream());
+				OutputStream out = leaderCountingOStream;
+				InputStream in = leaderCountingIStream;
+				if (Compression.negotiate(leaderCountingIStream,
+						leaderCountingOStream, compression)) {
+					leaderUncompressedOStream = new CountingOutputStream(
+							Compression.compress(leaderCountingOStream, compression));
+					leaderUncompressedIStream = new CountingInputStream(
+							Compression.decompress(leaderCountingIStream));
+					out = leaderUncompressedOStream;
+					in = leaderUncompressedIStream;
+				}
+				leaderOStream = WireFormat.newOutputStream(wireFormat, out);
+				leaderIStream = WireFormat.newInputStream(wireFormat, in);
 				println("Connected!");
 				connected = true;
 			} catch (UnknownHostException e) {
@@ -56,7 +92,17 @@ public class OversightAgency extends Agency {
 	}
 
 	/**
-	 * Reads a SignedTelecomResponse from the Leader and processes it.
+	 * Reads the SignedTelecomResponses from the Leader and processes them. They
+	 * come one chunk at a time, in order of telecom id, with each telecom's
+	 * chunks in the order it sent them, and end with a null. Each chunk is
+	 * verified while the next one is read, then processed and dropped. The
+	 * signed sequence numbers must follow on from the telecom's last chunk,
+	 * and each telecom's last chunk must not have more set, so the leader can't
+	 * drop, reorder or replay chunks.
+	 *
+	 * In pipelined mode all the chunks are from one telecom, and answer the
+	 * earliest request to it that we signed and that has not been answered.
+	 * The distance the leader gives must be the distance of that request.
 	 * @param distance The distance remaining at this point in the search.
 	 * @return True if the response validated OK, false if there was a problem.
 	 * @throws ClassNotFoundException
@@ -64,42 +110,171 @@ public class OversightAgency extends Agency {
 	 */
 	private boolean readResponseFromLeader(int distance)
 			throws ClassNotFoundException, IOException {
-		// Read, verify, and process the response of the previous telecom.
-		SignedTelecomResponse[] signedResponses =
-				(SignedTelecomResponse[]) leaderIStream.readObject();
-		for (int telecomId = 0; telecomId < numTelecoms; telecomId++) {
-			if (signedResponses[telecomId] == null) {
-				continue;
+		// Read, verify, and process the responses of the previous telecoms.
+		SignedTelecomResponse signedResponse = null;
+		Future<Boolean> verified = null;
+		SignedTelecomResponse next;
+		int telecomId = -1;
+		do {
+			next = (SignedTelecomResponse) leaderIStream.readObject();
+			if (pipelined && next != null) {
+				if (telecomId < 0) {
+					telecomId = next.getTelecomId();
+					int requested = takeUnanswered(telecomId);
+					if (requested != distance) {
+						System.err.println("Leader gave distance " + distance +
+								" for a response from telecom " + telecomId +
+								", but the request we signed was at distance " +
+								requested);
+						return false;
+					}
+				} else if (next.getTelecomId() != telecomId) {
+					System.err.println("Leader mixed responses from telecoms " +
+							telecomId + " and " + next.getTelecomId());
+					return false;
+				}
 			}
-			SignedTelecomResponse signedResponse = signedResponses[telecomId];
-			if (!keys.verify(signedResponse)) {
-				// If we failed to verify the signature, complain bitterly and quit.
-				System.err.println("Failed to verify a signature on a response from "
-						+ signedResponse.getTelecomId());
-				return false;
+			if (signedResponse != null) {
+				if (!processResponse(signedResponse, verified, distance)) {
+					return false;
+				}
+				if (signedResponse.isMore() && (next == null ||
+						next.getTelecomId() != signedResponse.getTelecomId())) {
+					System.err.println("Leader cut short a response from " +
+							signedResponse.getTelecomId());
+					return false;
+				}
 			}
-			for (TelecomResponse telecomResponse :
-				signedResponse.getTelecomResponses()) {
-				processTelecomResponse(telecomResponse, distance);
+			signedResponse = next;
+			if (next != null) {
+				verified = verifier.verifyLater(keys, next);
 			}
+		} while (next != null);
+		return true;
+	}
+
+	/**
+	 * Processes one chunk of a response once its signature has been checked.
+	 * @return True if the signature verified and the chunk is the telecom's
+	 * next, false if not.
+	 */
+	private boolean processResponse(SignedTelecomResponse signedResponse,
+			Future<Boolean> verified, int distance) {
+		boolean ok;
+		try {
+			ok = verified.get();
+		} catch (InterruptedException e) {
+			ok = false;
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			ok = false;
+		}
+		if (!ok) {
+			// If we failed to verify the signature, complain bitterly and quit.
+			System.err.println("Failed to verify a signature on a response from "
+					+ signedResponse.getTelecomId());
+			return false;
 		}
-		// Get the degree of the initial target for timing purposes
+		int telecomId = signedResponse.getTelecomId();
+		int expected = nextSequence.containsKey(telecomId) ?
+				nextSequence.get(telecomId) : 0;
+		if (signedResponse.getSequence() != expected) {
+			System.err.println("Got chunk " + signedResponse.getSequence() +
+					" from telecom " + telecomId + " but expected chunk " + expected);
+			return false;
+		}
+		nextSequence.put(telecomId, expected + 1);
+		// Get the degree of the initial target for timing purposes. There is
+		// only one SignedTelecomReponse with one TelecomResponse in it, in this
+		// case.
 		if (distance == 0) {
-			// There is only one SignedTelecomReponse with one TelecomResponse in
-			// it, in this case.
-			int initialOwner;
-			for (initialOwner = 0; initialOwner < numTelecoms; initialOwner++) {
-				if (signedResponses[initialOwner] != null) {
-					break;
-				}
-			}
-			targetDegree = signedResponses[initialOwner].getTelecomResponses()[0].
+			targetDegree = signedResponse.getTelecomResponses()[0].
 					getTelecomCiphertexts().length;
 		}
+		for (TelecomResponse telecomResponse :
+			signedResponse.getTelecomResponses()) {
+			processTelecomResponse(telecomResponse, distance);
+		}
 		return true;
 	}
 
 
+	/**
+	 * Records that we signed a request to a telecom, in pipelined mode.
+	 * @param telecomId The telecom the request is for.
+	 * @param distance The distance of the request.
+	 */
+	private void recordSigned(int telecomId, int distance) {
+		if (!unanswered.containsKey(telecomId)) {
+			unanswered.put(telecomId, new ArrayList<Integer>());
+		}
+		unanswered.get(telecomId).add(distance);
+	}
+
+	/**
+	 * Finds the request a telecom has answered, in pipelined mode. The leader
+	 * sends each telecom its requests in order of distance, so this is the
+	 * unanswered one with the least distance.
+	 * @param telecomId The telecom that answered.
+	 * @return The distance of the request, or -1 if we signed none.
+	 */
+	private int takeUnanswered(int telecomId) {
+		ArrayList<Integer> distances = unanswered.get(telecomId);
+		if (distances == null || distances.isEmpty()) {
+			return -1;
+		}
+		int least = 0;
+		for (int i = 1; i < distances.size(); i++) {
+			if (distances.get(i) < distances.get(least)) {
+				least = i;
+			}
+		}
+		return distances.remove(least);
+	}
+
+	/**
+	 * Signs the telecom ciphertexts in investigationLists for the leader.
+	 * @param distance The distance of the requests, for pipelined mode.
+	 * @throws IOException
+	 */
+	private void sendSignatures(int distance) throws IOException {
+		byte[][] signatures = new byte[numTelecoms][];
+		for (int telecomId : investigationLists.keySet()) {
+			// The leader sends no request for an empty list, and none past
+			// the maximum distance.
+			if (investigationLists.get(telecomId).isEmpty() ||
+					distance > maxDistance) {
+				continue;
+			}
+			signatures[telecomId] = signCiphertexts(getCiphertexts(telecomId));
+			if (pipelined) {
+				recordSigned(telecomId, distance);
+			}
+		}
+		leaderOStream.writeObject(signatures);
+		leaderOStream.flush();
+	}
+
+	/**
+	 * The main loop in pipelined mode. The leader sends each telecom response
+	 * on its own, after the distance it was found at, and we sign the requests
+	 * that follow from just that response. A negative distance ends the search.
+	 * @return True if every response validated OK, false if there was a problem.
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	private boolean signPipelined() throws ClassNotFoundException, IOException {
+		int distance;
+		while ((distance = leaderIStream.readInt()) >= 0) {
+			investigationLists.clear();
+			if (!readResponseFromLeader(distance)) {
+				return false;
+			}
+			sendSignatures(distance + 1);
+		}
+		return true;
+	}
+
 	/**
 	 * Begin the contact chaining protocol.
 	 */
@@ -142,13 +317,19 @@ public class OversightAgency extends Agency {
 				return;
 			}
 			println("Success, signature verified");
-			leaderOStream.writeObject(keys.sign(signedTC.getCiphertexts()));
+			leaderOStream.writeObject(signCiphertexts(signedTC.getCiphertexts()));
 			leaderOStream.flush();
+			if (pipelined) {
+				recordSigned(signedTC.getCiphertexts()[0].getOwner(), 0);
+			}
 
 			// Read telecom's response from the leader for the initial target.
-			boolean readOK = readResponseFromLeader(0);
-			if (!readOK) {
-				return; // error text is processed in readResponseFromLeader.
+			// In pipelined mode this comes in the main loop like the others.
+			if (!pipelined) {
+				boolean readOK = readResponseFromLeader(0);
+				if (!readOK) {
+					return; // error text is processed in readResponseFromLeader.
+				}
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -163,28 +344,30 @@ public class OversightAgency extends Agency {
 		// Enter main loop. We will continue until distance = maxDistance, but
 		// this check has to be in the middle of the loop to mirror LeaderAgency.
 		try {
-			for (int distance = 1; distance <= maxDistance; distance++) {
-				println("Remaining in queue: " + ciphertextsRemaining());
-				// Look at what the next query to the telecoms should be and give
-				// the leader a signature on those telecom ciphertexts.
-				byte[][] signatures = new byte[numTelecoms][];
-				for (int telecomId : investigationLists.keySet()) {
-					signatures[telecomId] = keys.sign(getCiphertexts(telecomId));
+			if (pipelined) {
+				if (!signPipelined()) {
+					return;
 				}
-				leaderOStream.writeObject(signatures);
-				leaderOStream.flush();
+			} else {
+				for (int distance = 1; distance <= maxDistance; distance++) {
+					println("Remaining in queue: " + ciphertextsRemaining());
+					// Look at what the next query to the telecoms should be and give
+					// the leader a signature on those telecom ciphertexts.
+					sendSignatures(distance);
 
-				investigationLists.clear();
-				// Get a response from the telecoms via the leader agency.
-				boolean readOK = readResponseFromLeader(distance);
-				if (!readOK) {
-					return; // error text is processed in readResponseFromLeader.
+					investigationLists.clear();
+					// Get a response from the telecoms via the leader agency.
+					boolean readOK = readResponseFromLeader(distance);
+					if (!readOK) {
+						return; // error text is processed in readResponseFromLeader.
+					}
 				}
 			}
 
 			// If we get to this point, we're done with the main loop.
 			// Tell the leader how much CPU time we spent on this.
-			leaderOStream.writeLong(bean.getCurrentThreadCpuTime());
+			leaderOStream.writeLong(bean.getCurrentThreadCpuTime() +
+					verifier.getCpuTime());
 			leaderOStream.flush();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -195,6 +378,23 @@ public class OversightAgency extends Agency {
 		}
 	}
 
+	/**
+	 * Records the traffic on our connection to the leader, then reports timing.
+	 */
+	@Override
+	protected void reportTiming() {
+		if (leaderUncompressedOStream != null) {
+			recordBytes("leader", leaderCountingOStream.getCount(),
+					leaderCountingIStream.getCount(),
+					leaderUncompressedOStream.getCount(),
+					leaderUncompressedIStream.getCount());
+		} else if (leaderCountingOStream != null) {
+			recordBytes("leader", leaderCountingOStream.getCount(),
+					leaderCountingIStream.getCount());
+		}
+		super.reportTiming();
+	}
+
 	/**
 	 * Closes stream to the leader.
 	 */
@@ -0,0 +1,201 @@
+package cc;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The leader's side of its conversation with one oversight agency, kept for
+ * the whole search. Each exchange runs on the session's own I/O thread, so
+ * the leader can talk to every oversight agency at once without starting
+ * threads every round. Exchanges run one at a time, in the order submitted.
+ *
+ * If an exchange fails, the error is printed, the socket is closed and the
+ * future's value is null (or -1 for finish()), as the leader expects from a
+ * missing signature.
+ * @author Aaron Segal
+ */
+public class OversightSession {
+
+	private OversightSocket oSocket;
+	private ExecutorService worker;
+	private ThreadMXBean bean;
+	private AtomicLong cpuTime;
+
+	public OversightSession(OversightSocket oSocket) {
+		this.oSocket = oSocket;
+		bean = ManagementFactory.getThreadMXBean();
+		cpuTime = new AtomicLong();
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "oversight");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Learns the agency's id, tells it the target, and gets its signature on
+	 * the first request.
+	 * @param stc The first request, with the leader's signature.
+	 * @return The agency's signature.
+	 */
+	public Future<byte[]> signFirst(final SignedTelecomCiphertext stc) {
+		return submit(new Callable<byte[]>() {
+			public byte[] call() throws IOException, ClassNotFoundException {
+				// SYN protocol: Learn agency's id, tell it targetId
+				oSocket.setAgencyId(oSocket.readInt());
+				oSocket.lAgency.println("Read oversight agency id " + oSocket.getAgencyId());
+				oSocket.writeInt(oSocket.lAgency.getTargetId());
+				oSocket.open = true;
+
+				// Send the signed telecom ciphertext to the oversight agency
+				oSocket.writeObject(stc);
+
+				// Read the new signature back
+				return (byte[]) oSocket.readObject();
+			}
+		}, null);
+	}
+
+	/**
+	 * Sends the agency one chunk of a telecom response, without waiting for
+	 * the agency. Chunks are forwarded as they are processed, so that neither
+	 * side has to hold a whole round of responses. endResponses() must follow
+	 * the last chunk.
+	 * @param chunk The chunk.
+	 * @return Null, once the chunk is sent.
+	 */
+	public Future<Void> forward(final SignedTelecomResponse chunk) {
+		return submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				checkOpen();
+				oSocket.writeObject(chunk);
+				return null;
+			}
+		}, null);
+	}
+
+	/**
+	 * Tells the agency that all the chunks of this round have been forwarded.
+	 * @return Null, once the agency has been told.
+	 */
+	public Future<Void> endResponses() {
+		return forward(null);
+	}
+
+	/**
+	 * Sends the agency the responses we got from the telecoms, if they have
+	 * not been forwarded already, and gets its signatures on the requests that
+	 * follow from them.
+	 * @param prevResponses The chunks of the responses, in order, or null if
+	 * they have been forwarded.
+	 * @param distance The distance of the responses, sent first in pipelined
+	 * mode, or -1 if not pipelined.
+	 * @return The signatures, indexed by telecom id.
+	 */
+	public Future<byte[][]> sign(final SignedTelecomResponse[] prevResponses,
+			final int distance) {
+		return submit(new Callable<byte[][]>() {
+			public byte[][] call() throws IOException, ClassNotFoundException {
+				checkOpen();
+				if (distance >= 0) {
+					oSocket.writeInt(distance);
+				}
+				if (prevResponses != null) {
+					for (SignedTelecomResponse chunk : prevResponses) {
+						oSocket.writeObject(chunk);
+					}
+					oSocket.writeObject(null);
+				}
+				// If the oversight agency is in sync with us, they will know what
+				// our next queries should look like, and sign them.
+				return (byte[][]) oSocket.readObject();
+			}
+		}, null);
+	}
+
+	/**
+	 * Ends the search. The agency must have been sent every response already.
+	 * @param pipelined Whether the search was pipelined, in which case the
+	 * agency is first sent a negative distance.
+	 * @return The agency's CPU time, or -1 if it didn't give an OK.
+	 */
+	public Future<Long> finish(final boolean pipelined) {
+		return submit(new Callable<Long>() {
+			public Long call() throws IOException {
+				checkOpen();
+				if (pipelined) {
+					oSocket.writeInt(-1);
+				}
+				// If the everything has gone perfect, the oversight agency should
+				// send us its CPU time.
+				return oSocket.readLong();
+			}
+		}, -1L);
+	}
+
+	private void checkOpen() throws IOException {
+		if (!oSocket.open) {
+			throw new IOException("Oversight socket " + oSocket.getPeerName() +
+					" is closed!");
+		}
+	}
+
+	/**
+	 * Runs an exchange on the I/O thread, recording its CPU time.
+	 * @param exchange The exchange.
+	 * @param failed The value to give if the exchange fails.
+	 */
+	private <T> Future<T> submit(final Callable<T> exchange, final T failed) {
+		return worker.submit(new Callable<T>() {
+			public T call() {
+				long start = bean.getCurrentThreadCpuTime();
+				try {
+					return exchange.call();
+				} catch (Exception e) {
+					e.printStackTrace();
+					oSocket.close();
+					return failed;
+				} finally {
+					cpuTime.addAndGet(bean.getCurrentThreadCpuTime() - start);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the CPU time spent on this session's thread since the last time
+	 * this method was called.
+	 * @return The CPU time in nanoseconds.
+	 */
+	public long getCpuTime() {
+		return cpuTime.getAndSet(0);
+	}
+
+	public int getAgencyId() {
+		return oSocket.getAgencyId();
+	}
+
+	/**
+	 * @return the socket to the oversight agency
+	 */
+	public OversightSocket getSocket() {
+		return oSocket;
+	}
+
+	/**
+	 * Stops the I/O thread and closes the socket.
+	 */
+	public void close() {
+		worker.shutdown();
+		oSocket.close();
+	}
+}
@@ -1,24 +1,46 @@
 package cc;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.OutputStream;
+
+import cc.Transport.Connection;
 
 public class OversightSocket {
 
-	public Socket socket;
+	public Connection socket;
 	private int agencyId = Integer.MIN_VALUE;
 	private ObjectInputStream inputStream;
 	private ObjectOutputStream outputStream;
 	public LeaderAgency lAgency;
 	public boolean open = false;
 
-	public OversightSocket(Socket socket, LeaderAgency lAgency) throws IOException {
+	private CountingInputStream countingInput;
+	private CountingOutputStream countingOutput;
+	// Count the traffic before compression, if the connection is compressed.
+	private CountingInputStream uncompressedInput = null;
+	private CountingOutputStream uncompressedOutput = null;
+
+	public OversightSocket(Connection socket, LeaderAgency lAgency) throws IOException {
 		this.socket = socket;
 		this.lAgency = lAgency;
-		inputStream = new ObjectInputStream(socket.getInputStream());
-		outputStream = new ObjectOutputStream(socket.getOutputStream());
+		countingInput = new CountingInputStream(socket.getInputStream());
+		countingOutput = new CountingOutputStream(socket.getOutputStream());
+		InputStream in = countingInput;
+		OutputStream out = countingOutput;
+		if (Compression.negotiate(countingInput, countingOutput,
+				lAgency.getCompression())) {
+			uncompressedInput =
+					new CountingInputStream(Compression.decompress(countingInput));
+			uncompressedOutput = new CountingOutputStream(
+					Compression.compress(countingOutput, lAgency.getCompression()));
+			in = uncompressedInput;
+			out = uncompressedOutput;
+		}
+		inputStream = WireFormat.newInputStream(lAgency.getWireFormat(), in);
+		outputStream = WireFormat.newOutputStream(lAgency.getWireFormat(), out);
 	}
 
 	public void close() {
@@ -45,34 +67,75 @@ public class OversightSocket {
 	}
 
 	public void writeObject(Object obj) throws IOException {
-		lAgency.recordBytes(Serializer.objectSize(obj));
 		outputStream.writeObject(obj);
 		outputStream.flush();
 		outputStream.reset();
 	}
 	
 	public void writeInt(int i) throws IOException {
-		lAgency.recordBytes(4);
 		outputStream.writeInt(i);
 		outputStream.flush();
 	}
 
 	public Object readObject() throws ClassNotFoundException, IOException {
 		Object obj = inputStream.readObject();
-		lAgency.recordBytes(Serializer.objectSize(obj));
 		return obj;
 	}
 	
 	public int readInt() throws IOException {
-		lAgency.recordBytes(4);
 		return inputStream.readInt();
 	}
 
 	public long readLong() throws IOException {
-		lAgency.recordBytes(8);
 		return inputStream.readLong();
 	}
 	
+	/**
+	 * @return the number of bytes sent to the oversight agency so far
+	 */
+	public long getBytesSent() {
+		return countingOutput.getCount();
+	}
+
+	/**
+	 * @return the number of bytes received from the oversight agency so far
+	 */
+	public long getBytesReceived() {
+		return countingInput.getCount();
+	}
+
+	/**
+	 * @return the number of bytes sent to the oversight agency so far, before
+	 * compression
+	 */
+	public long getUncompressedBytesSent() {
+		if (uncompressedOutput == null) {
+			return getBytesSent();
+		}
+		return uncompressedOutput.getCount();
+	}
+
+	/**
+	 * @return the number of bytes received from the oversight agency so far,
+	 * after decompression
+	 */
+	public long getUncompressedBytesReceived() {
+		if (uncompressedInput == null) {
+			return getBytesReceived();
+		}
+		return uncompressedInput.getCount();
+	}
+
+	/**
+	 * @return A name for this peer, for reporting.
+	 */
+	public String getPeerName() {
+		if (agencyId == Integer.MIN_VALUE) {
+			return "agency (unknown)";
+		}
+		return "agency " + agencyId;
+	}
+
 	/**
 	 * @param agencyId the agencyId to set
 	 */
@@ -0,0 +1,177 @@
+package cc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks several signatures at once on a small pool of long-lived threads,
+ * and gives up as soon as one of them fails.
+ *
+ * Each pool thread gets its own Signature objects from Keys, so no verifier
+ * is ever shared between threads. CPU time spent on the pool is collected so
+ * that it can still be reported with the caller's own.
+ * @author Aaron Segal
+ */
+public class ParallelVerifier {
+
+	private ExecutorService executor;
+	private ThreadMXBean bean;
+	private AtomicLong cpuTime;
+
+	/**
+	 * @param numThreads The number of signatures to check at the same time.
+	 */
+	public ParallelVerifier(int numThreads) {
+		bean = ManagementFactory.getThreadMXBean();
+		cpuTime = new AtomicLong();
+		executor = Executors.newFixedThreadPool(Math.max(numThreads, 1),
+				new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "verifier");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Verifies every agency's signature on a telecom ciphertext.
+	 * @param keys Our keys.
+	 * @param signedTC The signed telecom ciphertext.
+	 * @return True if all signatures are present and verify.
+	 */
+	public boolean verifyAll(final Keys keys, final SignedTelecomCiphertext signedTC) {
+		return verifyAll(keys, signedTC, cpuTime);
+	}
+
+	/**
+	 * Verifies every agency's signature on a telecom ciphertext, adding the CPU
+	 * time used to the caller's own counter rather than the pool's. This lets
+	 * callers sharing the pool account for their own use.
+	 * @param keys Our keys.
+	 * @param signedTC The signed telecom ciphertext.
+	 * @param cpuTime The counter to add CPU time (ns) to.
+	 * @return True if all signatures are present and verify.
+	 */
+	public boolean verifyAll(final Keys keys, final SignedTelecomCiphertext signedTC,
+			AtomicLong cpuTime) {
+		List<Callable<Boolean>> checks = new ArrayList<Callable<Boolean>>();
+		for (final int agencyId : keys.getAgencyIds()) {
+			checks.add(new Callable<Boolean>() {
+				public Boolean call() {
+					return keys.verify(agencyId, signedTC);
+				}
+			});
+		}
+		return firstFailure(checks, cpuTime) < 0;
+	}
+
+	/**
+	 * Starts verifying the telecom's signature on a response, so that the
+	 * caller can read the next one meanwhile.
+	 * @param keys Our keys.
+	 * @param signedTR The response.
+	 * @return True once the signature verifies, false if it doesn't.
+	 */
+	public Future<Boolean> verifyLater(final Keys keys,
+			final SignedTelecomResponse signedTR) {
+		return executor.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				long start = bean.getCurrentThreadCpuTime();
+				try {
+					return keys.verify(signedTR);
+				} finally {
+					cpuTime.addAndGet(bean.getCurrentThreadCpuTime() - start);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs the checks concurrently. As soon as one returns false or throws, this
+	 * returns and checks that have not started yet are cancelled. Checks already
+	 * running are left to finish, so that their Signature objects are reset.
+	 * @param checks The checks to run.
+	 * @return The index of a failed check, or -1 if all passed.
+	 */
+	public int firstFailure(List<Callable<Boolean>> checks) {
+		return firstFailure(checks, cpuTime);
+	}
+
+	private int firstFailure(List<Callable<Boolean>> checks, AtomicLong cpuTime) {
+		// Not worth a handoff to another thread.
+		if (checks.size() == 1) {
+			try {
+				return checks.get(0).call() ? -1 : 0;
+			} catch (Exception e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+		CompletionService<Integer> completion =
+				new ExecutorCompletionService<Integer>(executor);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < checks.size(); i++) {
+			futures.add(completion.submit(track(checks.get(i), i, cpuTime)));
+		}
+		int failure = -1;
+		try {
+			for (int i = 0; i < checks.size() && failure < 0; i++) {
+				failure = completion.take().get();
+			}
+		} catch (InterruptedException e) {
+			failure = 0;
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			failure = 0;
+		} finally {
+			if (failure >= 0) {
+				for (Future<Integer> future : futures) {
+					future.cancel(false);
+				}
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Wraps a check so that it records its CPU time, and returns its own index
+	 * if it fails or throws and -1 if it passes.
+	 */
+	private Callable<Integer> track(final Callable<Boolean> check, final int index,
+			final AtomicLong cpuTime) {
+		return new Callable<Integer>() {
+			public Integer call() {
+				long start = bean.getCurrentThreadCpuTime();
+				try {
+					return check.call() ? -1 : index;
+				} catch (Exception e) {
+					e.printStackTrace();
+					return index;
+				} finally {
+					cpuTime.addAndGet(bean.getCurrentThreadCpuTime() - start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the CPU time spent on pool threads since the last time this
+	 * method was called.
+	 * @return The CPU time in nanoseconds.
+	 */
+	public long getCpuTime() {
+		return cpuTime.getAndSet(0);
+	}
+}
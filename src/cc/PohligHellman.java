@@ -10,6 +10,8 @@ public class PohligHellman {
 	private BigInteger p; // prime number
 	private BigInteger encryptionKey;
 	private BigInteger decryptionKey;
+	// Length of the generated encryption key.
+	private int exponentBits;
 
 	public static BigInteger presetPrime = ElGamal.prime1024;
 
@@ -20,6 +22,7 @@ public class PohligHellman {
 	public PohligHellman() {
 		rng = new SecureRandom();
 		p = presetPrime;
+		exponentBits = p.bitLength()-1;
 		generateKeys();
 	}
 
@@ -30,6 +33,21 @@ public class PohligHellman {
 	public PohligHellman(BigInteger p) {
 		rng = new SecureRandom();
 		this.p = p;
+		exponentBits = p.bitLength()-1;
+		generateKeys();
+	}
+
+	/**
+	 * Generates a new PohligHellman object with selected group, and a randomly
+	 * generated encryption key of the selected length. Only encryption gets
+	 * faster: the decryption key is still about as long as p.
+	 * @param p A safe prime.
+	 * @param exponentBits The encryption key length; see ModpGroup.
+	 */
+	public PohligHellman(BigInteger p, int exponentBits) {
+		rng = new SecureRandom();
+		this.p = p;
+		this.exponentBits = ModpGroup.checkExponentBits(p, exponentBits);
 		generateKeys();
 	}
 
@@ -61,11 +79,11 @@ public class PohligHellman {
 	}
 
 	private void generateKeys() {
-		encryptionKey = new BigInteger(p.bitLength()-1, rng);
+		encryptionKey = new BigInteger(exponentBits, rng);
 		while (!encryptionKey.gcd(p.subtract(BigInteger.ONE)).equals(BigInteger.ONE)) {
 			encryptionKey = encryptionKey.add(BigInteger.ONE);
-			if (encryptionKey.bitLength() > p.bitLength()-1){
-				encryptionKey = new BigInteger(p.bitLength()-1, rng);
+			if (encryptionKey.bitLength() > exponentBits){
+				encryptionKey = new BigInteger(exponentBits, rng);
 			}
 
 		}
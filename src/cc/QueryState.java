@@ -0,0 +1,94 @@
+package cc;
+
+import cc.TelecomResponse.MsgType;
+
+/**
+ * What a telecom has told one investigation so far: which users' data it has
+ * sent, and the maximum degree the agencies asked for. Also collects the CPU
+ * time spent answering the investigation's queries.
+ *
+ * Each agency session gets its own QueryState, so that investigations running
+ * at the same time don't see each other's users as already sent.
+ * @author Aaron Segal
+ */
+public class QueryState {
+
+	private ContactStore contacts;
+	// Records whether we sent the agencies information about each user.
+	// Indexed by user id, which are small non-negative ints.
+	private AtomicEpochBitSet alreadySent;
+	// The maximum degree of users the agencies are interested in
+	private int maxDegree = Integer.MAX_VALUE;
+	// CPU time (ns) used for this investigation and not yet reported.
+	private long cpuTime = 0L;
+
+	/**
+	 * @param contacts The telecom's contact data, shared by all investigations.
+	 */
+	public QueryState(ContactStore contacts) {
+		this.contacts = contacts;
+		int maxUserId = contacts == null ? -1 : contacts.getMaxUserId();
+		alreadySent = new AtomicEpochBitSet(maxUserId + 1);
+	}
+
+	/**
+	 * Forgets which IDs were already sent, allowing them to be sent again.
+	 * Also resets maxDegree.
+	 */
+	public void resetSent() {
+		alreadySent.clear();
+		this.maxDegree = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Tests a user id to see what type of response it should get. That is, it
+	 * checks to make sure we have this user in our database, and that it hasn't
+	 * already been sent to the agencies. If that is the case, the id gets added to
+	 * alreadySent by this method. This is thread-safe.
+	 * @param userId The user id to ask about
+	 * @return The type of response we should be sending.
+	 */
+	public MsgType chooseResponseType(int userId) {
+		if (!contacts.contains(userId)) {
+			return MsgType.NOT_FOUND;
+		}
+		if (alreadySent.add(userId)) {
+			return MsgType.DATA;
+		} else {
+			return MsgType.ALREADY_SENT;
+		}
+	}
+
+	/**
+	 * @return the maxDegree
+	 */
+	public int getMaxDegree() {
+		return maxDegree;
+	}
+
+	/**
+	 * @param maxDegree the maxDegree to set
+	 */
+	public void setMaxDegree(int maxDegree) {
+		this.maxDegree = maxDegree;
+	}
+
+	/**
+	 * Adds CPU time spent on this investigation.
+	 * @param time The CPU time (ns)
+	 */
+	public synchronized void addCpuTime(long time) {
+		cpuTime += time;
+	}
+
+	/**
+	 * Returns the CPU time spent on this investigation since the last time this
+	 * method was called.
+	 * @return the CPU time (ns)
+	 */
+	public synchronized long getCpuTime() {
+		long oldCpuTime = cpuTime;
+		cpuTime = 0;
+		return oldCpuTime;
+	}
+}
@@ -0,0 +1,178 @@
+package cc;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.RSAPrivateCrtKeySpec;
+
+import javax.crypto.BadPaddingException;
+
+/**
+ * Decrypts many RSA PKCS#1 v1.5 blocks under one CRT private key without going
+ * through a Cipher for each of them. The CRT exponents and coefficient are
+ * computed once, and each thread keeps a blinding pair (r^e, r^-1) that is
+ * squared after every use instead of being recomputed, so the only per-block
+ * work is the two half-size exponentiations.
+ * @author Aaron Segal
+ */
+public class RSABatchDecrypter {
+
+	// The public exponent assumed when a key comes without one.
+	public static final BigInteger DEFAULT_PUBLIC_EXPONENT = BigInteger.valueOf(65537);
+	// PKCS#1 v1.5 encryption padding is at least this many random bytes.
+	private static final int MIN_PADDING = 8;
+
+	private BigInteger modulus;
+	private BigInteger publicExponent;
+	private BigInteger p;
+	private BigInteger q;
+	private BigInteger dP;
+	private BigInteger dQ;
+	private BigInteger qInv;
+	private int blockSize;
+	private ThreadLocal<BigInteger[]> blinding;
+
+	public RSABatchDecrypter(RSAPrivateCrtKey key) {
+		modulus = key.getModulus();
+		publicExponent = key.getPublicExponent();
+		p = key.getPrimeP();
+		q = key.getPrimeQ();
+		dP = key.getPrimeExponentP();
+		dQ = key.getPrimeExponentQ();
+		qInv = key.getCrtCoefficient();
+		blockSize = (modulus.bitLength() + 7) / 8;
+		final SecureRandom rng = new SecureRandom();
+		blinding = new ThreadLocal<BigInteger[]>() {
+			@Override
+			protected BigInteger[] initialValue() {
+				BigInteger r;
+				do {
+					r = new BigInteger(modulus.bitLength(), rng).mod(modulus);
+				} while (r.signum() == 0 || !r.gcd(modulus).equals(BigInteger.ONE));
+				return new BigInteger[] {r.modPow(publicExponent, modulus),
+						r.modInverse(modulus)};
+			}
+		};
+	}
+
+	/**
+	 * Decrypts a batch of blocks. This is thread-safe.
+	 * @param ciphertexts The RSA blocks.
+	 * @return The messages, with null for any block that did not decrypt.
+	 */
+	public byte[][] decrypt(byte[][] ciphertexts) {
+		BigInteger[] pair = blinding.get();
+		byte[][] out = new byte[ciphertexts.length][];
+		for (int i = 0; i < ciphertexts.length; i++) {
+			if (ciphertexts[i] == null || ciphertexts[i].length != blockSize) {
+				continue;
+			}
+			BigInteger c = new BigInteger(1, ciphertexts[i]);
+			if (c.compareTo(modulus) >= 0) {
+				continue;
+			}
+			BigInteger blinded = c.multiply(pair[0]).mod(modulus);
+			BigInteger m1 = blinded.modPow(dP, p);
+			BigInteger m2 = blinded.modPow(dQ, q);
+			BigInteger h = m1.subtract(m2).multiply(qInv).mod(p);
+			BigInteger m = h.multiply(q).add(m2).multiply(pair[1]).mod(modulus);
+			pair[0] = pair[0].multiply(pair[0]).mod(modulus);
+			pair[1] = pair[1].multiply(pair[1]).mod(modulus);
+			try {
+				out[i] = unpad(m);
+			} catch (BadPaddingException e) {
+				out[i] = null;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Removes PKCS#1 v1.5 encryption padding: 00 02, at least eight non-zero
+	 * bytes, 00, then the message. The leading zero is already gone from m.
+	 */
+	private byte[] unpad(BigInteger m) throws BadPaddingException {
+		byte[] em = m.toByteArray();
+		if (em.length != blockSize - 1 || em[0] != 2) {
+			throw new BadPaddingException("Bad PKCS#1 block type");
+		}
+		int i = 1;
+		while (i < em.length && em[i] != 0) {
+			i++;
+		}
+		if (i == em.length || i - 1 < MIN_PADDING) {
+			throw new BadPaddingException("Bad PKCS#1 padding");
+		}
+		byte[] message = new byte[em.length - i - 1];
+		System.arraycopy(em, i + 1, message, 0, message.length);
+		return message;
+	}
+
+	/**
+	 * Returns a private key in CRT form. A key given only as (n, d) is factored
+	 * using the public exponent, which takes a few exponentiations.
+	 * @param key The private key.
+	 * @param publicExponent The public exponent, or null for 65537.
+	 * @return The key itself if it already has CRT parameters, or an equivalent
+	 * key that does.
+	 * @throws InvalidKeyException if d is not an inverse of the public exponent.
+	 */
+	public static RSAPrivateCrtKey toCrtKey(RSAPrivateKey key,
+			BigInteger publicExponent) throws InvalidKeyException {
+		if (key instanceof RSAPrivateCrtKey) {
+			return (RSAPrivateCrtKey) key;
+		}
+		BigInteger e = publicExponent == null ? DEFAULT_PUBLIC_EXPONENT : publicExponent;
+		BigInteger n = key.getModulus();
+		BigInteger d = key.getPrivateExponent();
+		BigInteger p = factor(n, e, d);
+		if (p == null) {
+			throw new InvalidKeyException("Could not factor RSA modulus");
+		}
+		BigInteger q = n.divide(p);
+		if (p.compareTo(q) < 0) {
+			BigInteger t = p;
+			p = q;
+			q = t;
+		}
+		RSAPrivateCrtKeySpec spec = new RSAPrivateCrtKeySpec(n, e, d, p, q,
+				d.mod(p.subtract(BigInteger.ONE)), d.mod(q.subtract(BigInteger.ONE)),
+				q.modInverse(p));
+		try {
+			KeyFactory keyFactory = KeyFactory.getInstance(CryptoKeyGen.ENCRYPTION_ALGORITHM);
+			return (RSAPrivateCrtKey) keyFactory.generatePrivate(spec);
+		} catch (GeneralSecurityException ex) {
+			throw new InvalidKeyException(ex);
+		}
+	}
+
+	/**
+	 * Finds a prime factor of n from e and d: ed - 1 = 2^t r is a multiple of
+	 * the group order, so for most g some g^(2^i r) is a non-trivial square
+	 * root of 1, which shares a factor with n.
+	 */
+	private static BigInteger factor(BigInteger n, BigInteger e, BigInteger d) {
+		BigInteger k = e.multiply(d).subtract(BigInteger.ONE);
+		int t = k.getLowestSetBit();
+		BigInteger r = k.shiftRight(t);
+		BigInteger minusOne = n.subtract(BigInteger.ONE);
+		for (int g = 2; g < 100; g++) {
+			BigInteger x = BigInteger.valueOf(g).modPow(r, n);
+			for (int i = 0; i < t; i++) {
+				if (x.equals(BigInteger.ONE) || x.equals(minusOne)) {
+					break;
+				}
+				BigInteger y = x.multiply(x).mod(n);
+				if (y.equals(BigInteger.ONE)) {
+					return x.subtract(BigInteger.ONE).gcd(n);
+				}
+				x = y;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,254 @@
+package cc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of precomputed ElGamal randomness (g^y mod p, pk^y mod p) for
+ * one public key. A background thread refills the pool up to highWatermark
+ * whenever it falls to lowWatermark, so that encryption only needs a single
+ * modular multiplication while a query is being answered. If the pool is
+ * empty, the pair is computed inline instead.
+ *
+ * Pools are registered globally by (g, pk, p), so that ElGamal picks them up
+ * automatically once they have been started.
+ *
+ * Note that each pair is as secret as the randomness y it was made from, and
+ * must never be used twice. Saved pools should be protected like private keys;
+ * a pool file is deleted as soon as it has been loaded.
+ * @author Aaron Segal
+ */
+public class RandomnessPool extends Thread {
+
+	private static final ConcurrentHashMap<List<BigInteger>, RandomnessPool> pools =
+			new ConcurrentHashMap<List<BigInteger>, RandomnessPool>();
+
+	private BigInteger g;
+	private BigInteger publicKey;
+	private BigInteger p;
+	private int exponentBits;
+	private Random rng;
+	private int lowWatermark;
+	private int highWatermark;
+	private ArrayBlockingQueue<BigInteger[]> pairs;
+	// While paused (e.g. while answering a query), the pool is not refilled.
+	private volatile boolean paused = false;
+
+	private AtomicLong hits;
+	private AtomicLong misses;
+
+	/**
+	 * Creates a pool for publicKey. The pool is not filled until start() is called.
+	 * @param g A generator of the group Zp*.
+	 * @param publicKey The public key to precompute pk^y for.
+	 * @param p A prime number.
+	 * @param lowWatermark Refill the pool when it has this many pairs or fewer.
+	 * @param highWatermark The maximum number of pairs to hold.
+	 */
+	public RandomnessPool(BigInteger g, BigInteger publicKey, BigInteger p,
+			int lowWatermark, int highWatermark) {
+		this(g, publicKey, p, p.bitLength() - 1, lowWatermark, highWatermark);
+	}
+
+	/**
+	 * Creates a pool for publicKey, with random exponents of the selected
+	 * length. The pool is not filled until start() is called.
+	 * @param g A generator of the group Zp*.
+	 * @param publicKey The public key to precompute pk^y for.
+	 * @param p A prime number.
+	 * @param exponentBits The length of y; see ModpGroup.
+	 * @param lowWatermark Refill the pool when it has this many pairs or fewer.
+	 * @param highWatermark The maximum number of pairs to hold.
+	 */
+	public RandomnessPool(BigInteger g, BigInteger publicKey, BigInteger p,
+			int exponentBits, int lowWatermark, int highWatermark) {
+		super();
+		this.g = g;
+		this.publicKey = publicKey;
+		this.p = p;
+		this.exponentBits = exponentBits;
+		this.lowWatermark = Math.min(lowWatermark, highWatermark - 1);
+		this.highWatermark = highWatermark;
+		rng = new SecureRandom();
+		pairs = new ArrayBlockingQueue<BigInteger[]>(highWatermark);
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 * Computes a fresh (g^y mod p, pk^y mod p) pair.
+	 * @return the pair
+	 */
+	private BigInteger[] computePair() {
+		BigInteger y = new BigInteger(exponentBits, rng);
+		BigInteger[] pair = new BigInteger[2];
+		pair[0] = FixedBaseTable.modPow(g, y, p);
+		pair[1] = FixedBaseTable.modPow(publicKey, y, p);
+		return pair;
+	}
+
+	/**
+	 * Removes a pair from the pool, or computes one inline if the pool is empty.
+	 * Thread-safe.
+	 * @return A (g^y mod p, pk^y mod p) pair that has never been used before.
+	 */
+	public BigInteger[] take() {
+		BigInteger[] pair = pairs.poll();
+		if (pairs.size() <= lowWatermark) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+		if (pair == null) {
+			misses.incrementAndGet();
+			return computePair();
+		}
+		hits.incrementAndGet();
+		return pair;
+	}
+
+	/**
+	 * Refills the pool whenever it drops to the low watermark. Runs forever.
+	 */
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (paused || pairs.size() > lowWatermark) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			while (!paused && pairs.size() < highWatermark) {
+				pairs.offer(computePair());
+			}
+		}
+	}
+
+	/**
+	 * Stops or resumes refilling the pool.
+	 * @param paused True to stop refilling, false to resume.
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+		if (!paused) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of pairs currently in the pool
+	 */
+	public int size() {
+		return pairs.size();
+	}
+
+	/**
+	 * Returns the number of encryptions served from the pool since the last
+	 * time this method was called.
+	 * @return the number of pool hits
+	 */
+	public long getHits() {
+		return hits.getAndSet(0);
+	}
+
+	/**
+	 * Returns the number of encryptions that found the pool empty since the last
+	 * time this method was called.
+	 * @return the number of pool misses
+	 */
+	public long getMisses() {
+		return misses.getAndSet(0);
+	}
+
+	/**
+	 * Moves the contents of the pool to a file, so they can be loaded on the next
+	 * run instead of being recomputed. The pool is empty afterwards.
+	 * @param filename The file to write.
+	 * @throws IOException
+	 */
+	public void save(String filename) throws IOException {
+		BigInteger[][] saved = new BigInteger[pairs.size()][];
+		int count = 0;
+		BigInteger[] pair;
+		while (count < saved.length && (pair = pairs.poll()) != null) {
+			saved[count++] = pair;
+		}
+		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename));
+		BigInteger[] header = {g, publicKey, p};
+		oos.writeObject(header);
+		oos.writeObject(Arrays.copyOf(saved, count));
+		oos.close();
+	}
+
+	/**
+	 * Adds pairs saved by save() to the pool, if they were made for the same
+	 * key, and then deletes the file so they can never be used twice.
+	 * @param filename The file to read.
+	 * @return The number of pairs loaded.
+	 * @throws IOException
+	 */
+	public int load(String filename) throws IOException {
+		File file = new File(filename);
+		if (!file.exists()) {
+			return 0;
+		}
+		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
+		int loaded = 0;
+		try {
+			BigInteger[] header = (BigInteger[]) ois.readObject();
+			BigInteger[][] saved = (BigInteger[][]) ois.readObject();
+			if (header[0].equals(g) && header[1].equals(publicKey) &&
+					header[2].equals(p)) {
+				for (BigInteger[] pair : saved) {
+					if (!pairs.offer(pair)) {
+						break;
+					}
+					loaded++;
+				}
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Malformed randomness pool file " + filename, e);
+		} finally {
+			ois.close();
+			file.delete();
+		}
+		return loaded;
+	}
+
+	/**
+	 * Registers this pool so that ElGamal encryptions under its key use it.
+	 */
+	public void register() {
+		pools.put(Arrays.asList(g, publicKey, p), this);
+	}
+
+	/**
+	 * @param g The generator.
+	 * @param publicKey The public key.
+	 * @param p The prime.
+	 * @return The pool registered for this key, or null if there is none.
+	 */
+	public static RandomnessPool get(BigInteger g, BigInteger publicKey,
+			BigInteger p) {
+		return pools.get(Arrays.asList(g, publicKey, p));
+	}
+}
@@ -1,7 +1,6 @@
 package cc;
 
 import java.math.BigInteger;
-import java.security.GeneralSecurityException;
 
 import cc.SignedTelecomCiphertext.QueryType;
 import cc.TelecomResponse.MsgType;
@@ -9,81 +8,104 @@ import cc.TelecomResponse.MsgType;
 public class ResponseWorker extends CPUTrackingThread {
 
 	private TelecomKeys keys;
-	private int threadId;
 	private TelecomData data;
-	// Where in the array to start working
-	private int startIndex;
-	// Maximum number of ciphertexts to work on
-	private int itemsToDo;
-	// If SEARCH, get neighboring telecoms. If CONCLUDE, don't. 
-	private QueryType queryType;
+	private WorkQueue queue;
+	// The agencies each user id is encrypted to, and their public keys.
+	private int[] agencyIds;
+	private BigInteger[] agencyPublicKeys;
 
-	public ResponseWorker(TelecomData data, int startIndex, int itemsToDo,
-			TelecomKeys keys, QueryType queryType, int threadId) {
+	/**
+	 * Creates a worker that answers chunks of each query until the program ends.
+	 * The worker gets its own ciphers from keys the first time it uses them.
+	 */
+	public ResponseWorker(TelecomData data, WorkQueue queue, TelecomKeys keys) {
 		super();
 		this.data = data;
-		this.startIndex = startIndex;
-		this.itemsToDo = itemsToDo;
+		this.queue = queue;
 		this.keys = keys;
-		this.threadId = threadId;
-		this.queryType = queryType;
+		agencyIds = keys.getAgencyIds();
+		agencyPublicKeys = new BigInteger[agencyIds.length];
+		for (int i = 0; i < agencyIds.length; i++) {
+			agencyPublicKeys[i] = keys.getAgencyPublicKey(agencyIds[i]);
+		}
+		setDaemon(true);
 	}
 
 	/**
-	 * Decrypts TelecomCiphertexts to ints, and then re-encrypts to agency
-	 * ciphertexts (BigInteger[]), starting from startIndex until either toEncrypt
-	 * items have been converted, or the end of the array is reached. 
-	 * Duplicate items will appear as null agency ciphertexts.
+	 * Waits for each query, then claims chunks of it until none are left.
 	 */
 	public void runReal() {
-		CommutativeElGamal commEncrypter = new CommutativeElGamal();
-		for (int i = startIndex; i - startIndex < itemsToDo &&
-				i < data.currentCiphertexts.length; i++) {
-			// First figure out which user is being requested
-			int userId;
+		CommutativeCipher commEncrypter = keys.newAgencyCipher();
+		int batch = 0;
+		while (true) {
 			try {
-				userId = keys.decrypt(data.currentCiphertexts[i].getEncryptedId(),
-						threadId);
-			} catch (GeneralSecurityException e) {
-				e.printStackTrace();
+				batch = queue.awaitBatch(batch);
+			} catch (InterruptedException e) {
 				return;
 			}
-
-			// Check to see if this gets an error response
-			MsgType responseType = data.chooseResponseType(userId);
-			if (responseType != MsgType.DATA) {
-				data.currentResponses[i] = new TelecomResponse(responseType);
-				continue;
+			try {
+				int start;
+				while ((start = queue.claim()) >= 0) {
+					int end = queue.getChunkEnd(start);
+					Integer[] userIds = keys.decrypt(data.currentCiphertexts,
+							start, end);
+					for (int i = start; i < end; i++) {
+						if (userIds[i - start] != null) {
+							respond(i, userIds[i - start], data.currentType,
+									commEncrypter);
+						}
+					}
+				}
+			} finally {
+				updateCpuTime();
+				queue.finishBatch();
 			}
+		}
+	}
 
-			// If not, compute the appropriate agency ciphertext
-			BigInteger[] agencyCiphertext = new BigInteger[1];
-			agencyCiphertext[0] = BigInteger.valueOf(userId);
-			for (int agencyId : keys.getAgencyIds()) {
-				agencyCiphertext = commEncrypter.encrypt(agencyId,
-						keys.getAgencyPublicKey(agencyId), agencyCiphertext);
-			}
+	/**
+	 * Re-encrypts a decrypted TelecomCiphertext to an agency ciphertext
+	 * (BigInteger[]). Duplicate items will appear as null agency ciphertexts.
+	 * @param i The index of the ciphertext in the current query.
+	 * @param userId The user the ciphertext decrypted to.
+	 * @param queryType If SEARCH, get neighboring telecoms. If CONCLUDE, don't.
+	 */
+	private void respond(int i, int userId, QueryType queryType,
+			CommutativeCipher commEncrypter) {
+		// Check to see if this gets an error response
+		MsgType responseType = data.currentState.chooseResponseType(userId);
+		if (responseType != MsgType.DATA) {
+			data.currentResponses[i] = new TelecomResponse(responseType);
+			return;
+		}
 
-			// If we have reached the maximum chaining distance, stop here
-			if (queryType == QueryType.CONCLUDE) {
-				data.currentResponses[i] = new TelecomResponse(agencyCiphertext);
-				continue;
-			}
+		// If not, compute the appropriate agency ciphertext
+		BigInteger[] agencyCiphertext = commEncrypter.encryptForAll(agencyIds,
+				agencyPublicKeys, BigInteger.valueOf(userId));
+
+		// If we have reached the maximum chaining distance, stop here
+		if (queryType == QueryType.CONCLUDE) {
+			data.currentResponses[i] = new TelecomResponse(agencyCiphertext);
+			return;
+		}
 
-			// Otherwise, we need to provide telecom ciphertexts for all neighbors.
-			int[] neighbors = data.getNeighbors(userId);
-			TelecomCiphertext[] encryptedNeighbors =
-					new TelecomCiphertext[neighbors.length];
-			for (int j = 0; j < neighbors.length; j++) {
-				int owner = DataGen.provider(neighbors[j], data.getNumTelecoms());
-				encryptedNeighbors[j] = new TelecomCiphertext();
-				encryptedNeighbors[j].setOwner(owner);
-				encryptedNeighbors[j].setEncryptedId(keys.encrypt(owner,
-						neighbors[j], threadId));
+		// Otherwise, we need to provide telecom ciphertexts for all neighbors.
+		int[] neighbors = data.getNeighbors(userId);
+		TelecomCiphertext[] encryptedNeighbors =
+				new TelecomCiphertext[neighbors.length];
+		for (int j = 0; j < neighbors.length; j++) {
+			int owner = DataGen.provider(neighbors[j], data.getNumTelecoms());
+			if (data.getEnvelopes()) {
+				encryptedNeighbors[j] = keys.seal(owner, neighbors[j]);
+				continue;
 			}
-			data.currentResponses[i] =
-					new TelecomResponse(agencyCiphertext, encryptedNeighbors);
+			encryptedNeighbors[j] = new TelecomCiphertext();
+			encryptedNeighbors[j].setOwner(owner);
+			encryptedNeighbors[j].setEncryptedId(keys.encrypt(owner,
+					neighbors[j]));
 		}
+		data.currentResponses[i] =
+				new TelecomResponse(agencyCiphertext, encryptedNeighbors);
 	}
 
 }
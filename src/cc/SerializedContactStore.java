@@ -0,0 +1,73 @@
+package cc;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Contact data read from a Java-serialized HashMap&lt;Integer, int[]&gt;, as written
+ * by DataGen and DataConverter. The HashMap is only used for the file format;
+ * once loaded, the contacts are held in an IntContactMap.
+ * @author Aaron Segal
+ */
+public class SerializedContactStore implements ContactStore {
+
+	private IntContactMap contacts;
+
+	@SuppressWarnings("unchecked")
+	public SerializedContactStore(String filename) throws IOException {
+		HashMap<Integer, int[]> map;
+		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename));
+		try {
+			map = (HashMap<Integer, int[]>) ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Malformed contact data in " + filename, e);
+		} finally {
+			ois.close();
+		}
+		contacts = new IntContactMap(map.size());
+		for (Map.Entry<Integer, int[]> entry : map.entrySet()) {
+			contacts.put(entry.getKey(), entry.getValue());
+		}
+		contacts.compact();
+	}
+
+	/**
+	 * Writes contact data as a serialized HashMap that this class can read.
+	 * @param contacts The contact data.
+	 * @param filename The file to write.
+	 * @throws IOException
+	 */
+	public static void write(ContactStore contacts, String filename)
+			throws IOException {
+		HashMap<Integer, int[]> map = new HashMap<Integer, int[]>();
+		for (int userId = 0; userId <= contacts.getMaxUserId(); userId++) {
+			int[] neighbors = contacts.getNeighbors(userId);
+			if (neighbors != null) {
+				map.put(userId, neighbors);
+			}
+		}
+		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename));
+		try {
+			oos.writeObject(map);
+		} finally {
+			oos.close();
+		}
+	}
+
+	public boolean contains(int userId) {
+		return contacts.contains(userId);
+	}
+
+	public int[] getNeighbors(int userId) {
+		return contacts.getNeighbors(userId);
+	}
+
+	public int getMaxUserId() {
+		return contacts.getMaxUserId();
+	}
+}
@@ -1,20 +0,0 @@
-package cc;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-
-public class Serializer {
-	public static byte[] serialize(Serializable obj) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ObjectOutputStream oos = new ObjectOutputStream(baos);
-		oos.writeObject(obj);
-		return baos.toByteArray();
-	}
-	
-	public static int objectSize(Object obj) throws IOException{
-		Serializable serObj = (Serializable) obj;
-		return serialize(serObj).length;
-	}
-}
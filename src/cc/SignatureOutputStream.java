@@ -0,0 +1,41 @@
+package cc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * Feeds everything written to it into a Signature, so that data can be signed
+ * or verified as it is encoded without building a byte array first.
+ * @author Aaron Segal
+ */
+public class SignatureOutputStream extends OutputStream {
+
+	private Signature signature;
+
+	/**
+	 * @param signature A Signature initialized for signing or verification.
+	 */
+	public SignatureOutputStream(Signature signature) {
+		this.signature = signature;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		try {
+			signature.update((byte) b);
+		} catch (SignatureException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		try {
+			signature.update(b, off, len);
+		} catch (SignatureException e) {
+			throw new IOException(e);
+		}
+	}
+}
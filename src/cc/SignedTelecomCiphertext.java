@@ -1,6 +1,7 @@
 package cc;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 public class SignedTelecomCiphertext implements Serializable {
 
@@ -25,6 +26,15 @@ public class SignedTelecomCiphertext implements Serializable {
 	private byte[][] signatures;
 	// The maximum degree of users that agencies care about. Ignored if 0.
 	private int maxDegree = 0;
+	// If merkleRoot is set, agencies signed the root of a MerkleTree over a batch
+	// of merkleSize ciphertexts, and these are the ones starting at merkleOffset.
+	// merklePaths holds their inclusion paths, or is null for a whole batch.
+	private byte[] merkleRoot;
+	private int merkleOffset;
+	private int merkleSize;
+	private byte[][][] merklePaths;
+	// Set once the ciphertexts have been checked against merkleRoot.
+	private transient boolean merkleChecked = false;
 
 	public SignedTelecomCiphertext(TelecomCiphertext telecomCiphertext, int numAgencies) {
 		telecomCiphertexts = new TelecomCiphertext[1];
@@ -72,6 +82,13 @@ public class SignedTelecomCiphertext implements Serializable {
 		return signatures[-agencyId-1];
 	}
 
+	/**
+	 * @return The number of agencies that can sign these ciphertexts.
+	 */
+	public int getNumAgencies() {
+		return signatures.length;
+	}
+
 	/**
 	 * @return the maxDegree
 	 */
@@ -85,4 +102,121 @@ public class SignedTelecomCiphertext implements Serializable {
 	public void setMaxDegree(int maxDegree) {
 		this.maxDegree = maxDegree;
 	}
+
+	/**
+	 * Marks these ciphertexts as signed through the root of a MerkleTree built
+	 * over all of them. Signatures must then be made with Keys.sign(MerkleTree).
+	 * @param tree The tree over getCiphertexts().
+	 */
+	public void setMerkleTree(MerkleTree tree) {
+		merkleRoot = tree.getRoot();
+		merkleOffset = 0;
+		merkleSize = tree.getNumLeaves();
+		merklePaths = null;
+	}
+
+	/**
+	 * @return True if agencies sign a Merkle root rather than the ciphertexts.
+	 */
+	public boolean isMerkle() {
+		return merkleRoot != null;
+	}
+
+	/**
+	 * @return the signed Merkle root, or null if not in Merkle mode
+	 */
+	public byte[] getMerkleRoot() {
+		return merkleRoot;
+	}
+
+	/**
+	 * @return the position of the first of these ciphertexts in the signed batch
+	 */
+	public int getMerkleOffset() {
+		return merkleOffset;
+	}
+
+	/**
+	 * @return the number of ciphertexts in the signed batch
+	 */
+	public int getMerkleSize() {
+		return merkleSize;
+	}
+
+	/**
+	 * @return the inclusion paths of these ciphertexts, or null for a whole batch
+	 */
+	public byte[][][] getMerklePaths() {
+		return merklePaths;
+	}
+
+	/**
+	 * Restores the Merkle fields of a chunk, e.g. after reading it from the wire.
+	 */
+	public void setMerkleChunk(byte[] root, int offset, int size, byte[][][] paths) {
+		merkleRoot = root;
+		merkleOffset = offset;
+		merkleSize = size;
+		merklePaths = paths;
+		merkleChecked = false;
+	}
+
+	/**
+	 * Splits a batch in Merkle mode into chunks of at most chunkSize ciphertexts.
+	 * Every chunk carries the same signatures and its own inclusion paths, so
+	 * a telecom can verify and answer each chunk independently.
+	 * @param tree The tree that was signed, over all of getCiphertexts().
+	 * @param chunkSize The maximum number of ciphertexts per chunk.
+	 * @return The chunks, in order.
+	 */
+	public SignedTelecomCiphertext[] split(MerkleTree tree, int chunkSize) {
+		int numChunks = (telecomCiphertexts.length + chunkSize - 1) / chunkSize;
+		SignedTelecomCiphertext[] chunks = new SignedTelecomCiphertext[numChunks];
+		for (int c = 0; c < numChunks; c++) {
+			int from = c * chunkSize;
+			int to = Math.min(from + chunkSize, telecomCiphertexts.length);
+			TelecomCiphertext[] ciphertexts =
+					Arrays.copyOfRange(telecomCiphertexts, from, to);
+			byte[][][] paths = new byte[to - from][][];
+			for (int i = from; i < to; i++) {
+				paths[i - from] = tree.getPath(i);
+			}
+			chunks[c] = new SignedTelecomCiphertext(ciphertexts, signatures.length);
+			chunks[c].type = type;
+			chunks[c].maxDegree = maxDegree;
+			chunks[c].signatures = signatures.clone();
+			chunks[c].setMerkleChunk(tree.getRoot(), from, tree.getNumLeaves(), paths);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Checks that every ciphertext is in the batch whose root was signed.
+	 * This does not check the signatures themselves; see Keys.verify.
+	 * @return True if the ciphertexts match the Merkle root.
+	 */
+	public boolean checkMerkleInclusion() {
+		if (merkleChecked) {
+			return true;
+		}
+		if (merklePaths == null) {
+			if (merkleOffset != 0 || merkleSize != telecomCiphertexts.length ||
+					!Arrays.equals(merkleRoot, new MerkleTree(telecomCiphertexts).getRoot())) {
+				return false;
+			}
+		} else {
+			if (merklePaths.length != telecomCiphertexts.length) {
+				return false;
+			}
+			for (int i = 0; i < telecomCiphertexts.length; i++) {
+				byte[] root = MerkleTree.rootFromPath(telecomCiphertexts[i],
+						merkleOffset + i, merkleSize, merklePaths[i]);
+				if (!Arrays.equals(merkleRoot, root)) {
+					return false;
+				}
+			}
+		}
+		merkleChecked = true;
+		return true;
+	}
 }
@@ -5,6 +5,12 @@ import java.io.Serializable;
 /**
  * Wrapper around a set of TelecomResponses which includes a signature on the
  * enclosed data.
+ *
+ * A telecom may answer one request in several chunks, each signed on its own,
+ * so that it can send responses as they are computed. Every chunk but the last
+ * has more set. Chunks are numbered from 0 in the order the telecom sends them
+ * over a connection. The number and the more flag are signed with the
+ * responses, so chunks can't be dropped, reordered or replayed unnoticed.
  * @author Aaron Segal
  */
 public class SignedTelecomResponse implements Serializable {
@@ -14,6 +20,10 @@ public class SignedTelecomResponse implements Serializable {
 	private int telecomId;
 	private byte[] signature;
 	private long cpuTime;
+	private long poolHits;
+	private long poolMisses;
+	private boolean more = false;
+	private int sequence;
 
 	public SignedTelecomResponse(TelecomResponse telecomResponse, int telecomId) {
 		telecomResponses = new TelecomResponse[1];
@@ -75,4 +85,61 @@ public class SignedTelecomResponse implements Serializable {
 		this.cpuTime = cpuTime;
 	}
 
+	/**
+	 * @return the number of encryptions served from a randomness pool
+	 */
+	public long getPoolHits() {
+		return poolHits;
+	}
+
+	/**
+	 * @param poolHits the poolHits to set
+	 */
+	public void setPoolHits(long poolHits) {
+		this.poolHits = poolHits;
+	}
+
+	/**
+	 * @return the number of encryptions that found a randomness pool empty
+	 */
+	public long getPoolMisses() {
+		return poolMisses;
+	}
+
+	/**
+	 * @param poolMisses the poolMisses to set
+	 */
+	public void setPoolMisses(long poolMisses) {
+		this.poolMisses = poolMisses;
+	}
+
+	/**
+	 * @return true if more chunks of the same answer follow this one
+	 */
+	public boolean isMore() {
+		return more;
+	}
+
+	/**
+	 * @param more the more to set
+	 */
+	public void setMore(boolean more) {
+		this.more = more;
+	}
+
+	/**
+	 * @return the number of this chunk among all the telecom has sent on its
+	 * connection
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @param sequence the sequence to set
+	 */
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
 }
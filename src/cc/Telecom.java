@@ -2,15 +2,10 @@ package cc;
 
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.Properties;
 
-import cc.TelecomResponse.MsgType;
+import cc.Transport.Connection;
+import cc.Transport.Listener;
 
 public class Telecom {
 
@@ -22,21 +17,22 @@ public class Telecom {
 	protected int numAgencies, numTelecoms, id;
 	protected TelecomData data;
 	protected TelecomKeys keys;
-	protected ServerSocket listenSocket = null;
+	protected ParallelVerifier verifier;
+	protected Listener listenSocket = null;
+	protected String wireFormat;
+	protected Transport transport;
+	// The Deflater level to compress our connections with, or 0 for none.
+	protected int compression;
+	// The most responses sent in one signed chunk, or 0 to answer each request
+	// in one piece.
+	protected int responseChunk;
 
-	private Socket agencySocket;
-	private ObjectOutputStream outputStream;
-	private ObjectInputStream inputStream;
-
-	private ThreadMXBean bean;
-	private long lastCpuRecording;
-
-	// Included for additional safety. Use the configurable
-	// MAX_THREADS instead.
-	public static final int MAX_THREADS_ALLOWED = 16;
+	// The number of sessions answering a query right now.
+	private int activeQueries = 0;
 
 	public static final String PORT = "PORT";
 	public static final String INPUT_FILE = "INPUT";
+	public static final String CONTACT_FORMAT = "CONTACTFORMAT";
 	public static final String ID = "ID";
 	public static final String PRIVATE_KEY = "PRIVATEKEY";
 	public static final String PUBLIC_KEYS = "PUBLICKEYS";
@@ -44,14 +40,19 @@ public class Telecom {
 	public static final String NUM_TELECOMS = "TELECOMS";
 	public static final String SIGNING_KEYPATH = "SIGKEYPATH";
 	public static final String MAX_THREADS = "MAXTHREADS";
+	public static final String POOL_HIGH = "POOLHIGH";
+	public static final String POOL_LOW = "POOLLOW";
+	public static final String POOL_PATH = "POOLPATH";
+	public static final String RESPONSE_CHUNK = "RESPONSECHUNK";
+	public static final String ENVELOPES = "ENVELOPES";
+	public static final String RSA_DECRYPTION = "RSADECRYPTION";
+	public static final String EXPONENT_BITS = "EXPONENTBITS";
 
 	private static void usage() {
 		System.err.println("Usage: java cc.Telecom config_file [-c config_file] [-i input_data_file] [-k private_key_file] [-t threads] [-q]");
 	}
 
 	public Telecom(String[] args) {
-		bean = ManagementFactory.getThreadMXBean();
-		lastCpuRecording = 0;
 
 		if (args.length < 1) {
 			usage();
@@ -118,34 +119,102 @@ public class Telecom {
 		port = Integer.parseInt(config.getProperty(PORT));
 		numAgencies = Integer.parseInt(config.getProperty(NUM_AGENCIES, "0"));
 		numTelecoms = Integer.parseInt(config.getProperty(NUM_TELECOMS, "0"));
-		maxThreads = Integer.parseInt(config.getProperty(MAX_THREADS, "1"));
-		if (maxThreads < 0 || maxThreads > MAX_THREADS_ALLOWED) {
-			System.err.println("Number of threads must be between 1 and " + MAX_THREADS_ALLOWED);
+		// By default, use one thread per processor.
+		maxThreads = Integer.parseInt(config.getProperty(MAX_THREADS, "0"));
+		if (maxThreads < 0) {
+			System.err.println("Number of threads must be at least 1, or 0 for one per processor");
 			usage();
 			return;
 		} else if (maxThreads == 0) {
-			System.err.println("Treating 0 threads as " + MAX_THREADS_ALLOWED);
-			maxThreads = MAX_THREADS_ALLOWED;
+			maxThreads = Runtime.getRuntime().availableProcessors();
 		}
+		println("Using " + maxThreads + " threads");
 		id = Integer.parseInt(config.getProperty(ID));
+		wireFormat = config.getProperty(WireFormat.WIRE_FORMAT, WireFormat.JAVA);
+		transport = Transport.forName(config.getProperty(Transport.TRANSPORT,
+				Transport.BLOCKING));
+		compression = Integer.parseInt(config.getProperty(Compression.COMPRESSION,
+				"" + Compression.NONE));
+		responseChunk = Integer.parseInt(config.getProperty(RESPONSE_CHUNK, "0"));
 		println("ID = " + id);
 		try {
 			keys = new TelecomKeys(config.getProperty(PRIVATE_KEY),
 					config.getProperty(PUBLIC_KEYS),
 					config.getProperty(SIGNING_KEYPATH),
 					id,
-					Agency.getAgencyIds(numAgencies),
-					maxThreads);
+					Agency.getAgencyIds(numAgencies));
 		} catch (IOException e) {
 			e.printStackTrace();
 			return;
 		}
+		String rsaDecryption = config.getProperty(RSA_DECRYPTION,
+				TelecomKeys.JCE_DECRYPTION);
+		if (!rsaDecryption.equals(TelecomKeys.JCE_DECRYPTION) &&
+				!rsaDecryption.equals(TelecomKeys.BATCH_DECRYPTION)) {
+			System.err.println("Unknown " + RSA_DECRYPTION + " " + rsaDecryption +
+					"; use " + TelecomKeys.JCE_DECRYPTION + " or " +
+					TelecomKeys.BATCH_DECRYPTION);
+			return;
+		}
+		keys.setBatchDecryption(rsaDecryption.equals(TelecomKeys.BATCH_DECRYPTION));
+		println("RSA decryption: " + keys.getDecryptionStrategy());
+		// Full-length exponents unless configured; see ModpGroup.
+		try {
+			keys.setAgencyExponentBits(config.getProperty(EXPONENT_BITS));
+		} catch (IllegalArgumentException e) {
+			System.err.println("Bad " + EXPONENT_BITS + ": " + e.getMessage());
+			return;
+		}
+		if (keys.getAgencyGroup() != null) {
+			println("Agency group " + keys.getAgencyGroup() + ", " +
+					keys.getAgencyExponentBits() + "-bit exponents");
+		}
+
+		data = new TelecomData(config.getProperty(INPUT_FILE),
+				config.getProperty(CONTACT_FORMAT, TelecomData.SERIALIZED),
+				numTelecoms, keys, maxThreads);
+		// Seal neighbors with AES keys shared by each pair of telecoms
+		// (CryptoKeyGen -p), so receivers skip RSA decryption entirely.
+		boolean envelopes = Boolean.parseBoolean(config.getProperty(ENVELOPES,
+				"false"));
+		if (envelopes && !TelecomKeys.envelopesSupported()) {
+			System.err.println(ENVELOPES + " needs " + TelecomKeys.ENVELOPE_CIPHER +
+					", which this JRE does not have");
+			return;
+		}
+		if (envelopes) {
+			try {
+				keys.loadEnvelopeKeys(config.getProperty(SIGNING_KEYPATH),
+						numTelecoms);
+			} catch (IOException e) {
+				System.err.println("Could not load envelope keys: " +
+						e.getMessage());
+				return;
+			}
+			println("Sealing neighbors with per-pair keys");
+		}
+		data.setEnvelopes(envelopes);
+		verifier = new ParallelVerifier(numAgencies);
 
-		data = new TelecomData(config.getProperty(INPUT_FILE), numTelecoms, keys,
-				maxThreads);
+		// Precompute agency encryption randomness while idle, if configured.
+		int poolHigh = Integer.parseInt(config.getProperty(POOL_HIGH, "0"));
+		if (poolHigh > 0) {
+			int poolLow = Integer.parseInt(config.getProperty(POOL_LOW,
+					Integer.toString(poolHigh / 2)));
+			final String poolPath = config.getProperty(POOL_PATH);
+			keys.startRandomnessPools(poolLow, poolHigh, poolPath);
+			if (poolPath != null) {
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {
+						keys.saveRandomnessPools(poolPath);
+					}
+				});
+			}
+			println("Randomness pools of up to " + poolHigh + " pairs started");
+		}
 
 		try {
-			listenSocket = new ServerSocket(port);
+			listenSocket = transport.listen(port);
 			println("IP:Host = " + "127.0.0.1" + ":" + port);
 		} catch (IOException e) {
 			System.err.println("Could not listen on port:" + port);
@@ -159,68 +228,37 @@ public class Telecom {
 		}
 	}
 
-	private void sendResponse(MsgType type) throws IOException {
-		TelecomResponse tR = new TelecomResponse(type);
-		SignedTelecomResponse signedTR = new SignedTelecomResponse(tR, id);
-		signedTR.setSignature(keys.sign(signedTR.getTelecomResponses()));
-		outputStream.writeObject(signedTR);
-		outputStream.flush();
+	/**
+	 * Called by a session before it answers a query. While any session is
+	 * answering one, the randomness pools stop refilling.
+	 */
+	synchronized void beginQuery() {
+		if (activeQueries++ == 0) {
+			keys.setRandomnessPoolsPaused(true);
+		}
 	}
 
-	private void sendResponse(TelecomResponse[] responses) throws IOException {
-		SignedTelecomResponse signedTR = new SignedTelecomResponse(responses, id);
-		signedTR.setSignature(keys.sign(responses));
-		// Add the cpu time from this thread plus all subthreads to this message.
-		long currentCpuTime = bean.getCurrentThreadCpuTime();
-		long cpuTimeToSend = data.getCpuTime() +
-				(currentCpuTime - lastCpuRecording);
-		lastCpuRecording = currentCpuTime;
-		signedTR.setCpuTime(cpuTimeToSend);
-		outputStream.writeObject(signedTR);
-		outputStream.flush();
+	/**
+	 * Called by a session once it has answered a query.
+	 */
+	synchronized void endQuery() {
+		if (--activeQueries == 0) {
+			keys.setRandomnessPoolsPaused(false);
+		}
 	}
 
-	// Waits for a connection, then responds to requests over that connection.
+	// Waits for connections, and answers each agency's requests on its own
+	// TelecomSession, so that several investigations can run at once.
 	// Does this forever.
 	public void serveRequests() {
-		// This while loop lets the telecom run continuously as a server,
-		// across multiple executions of protocol.
 		while (true) {
 			try {
-				agencySocket = listenSocket.accept();
+				Connection agencySocket = listenSocket.accept();
 				println("Got a connection from agency at " +
 						agencySocket.getInetAddress().toString());
-				outputStream = new ObjectOutputStream(agencySocket.getOutputStream());
-				inputStream = new ObjectInputStream(agencySocket.getInputStream());
-				data.resetSent();
-				// This while loop makes sure that we continuously respond to
-				// queries over our open connection. We don't need a separate
-				// thread for this, because we only ever expect to have one
-				// connection at a time.
-				while (true) {
-					SignedTelecomCiphertext signedTC =
-							(SignedTelecomCiphertext) inputStream.readObject();
-					boolean signaturesVerify = true;
-					// check to make sure all signatures verify
-					for (int agencyId : keys.getAgencyIds()) {
-						signaturesVerify &= keys.verify(agencyId, signedTC);
-					}
-					if (!signaturesVerify) {
-						sendResponse(MsgType.INVALID_SIGNATURE);
-						return;
-					}
-
-					// Update maxDegree if we don't already know it
-					if (data.getMaxDegree() == Integer.MAX_VALUE &&
-							signedTC.getMaxDegree() > 0) {
-						data.setMaxDegree(signedTC.getMaxDegree());
-					}
-					sendResponse(data.queryResponse(signedTC.getCiphertexts(),
-							signedTC.getType()));
-				}
+				new TelecomSession(this, agencySocket).start();
 			} catch (IOException e) {
-				System.err.println("Connection lost. Waiting for new connection");
-			} catch (ClassNotFoundException e) {
+				System.err.println("Could not accept a connection");
 				e.printStackTrace();
 				return;
 			}
@@ -229,9 +267,7 @@ public class Telecom {
 
 	public void close() {
 		try {
-			outputStream.close();
-			inputStream.close();
-			agencySocket.close();
+			listenSocket.close();
 		} catch (IOException e) {}
 	}
 
@@ -0,0 +1,170 @@
+package cc;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import cc.SignedTelecomCiphertext.QueryType;
+
+/**
+ * Measures how the telecom's query stage scales with the number of threads.
+ * Reads a telecom config file, builds one query for users in the telecom's own
+ * data, and answers it with 1, 2, 4, ... threads up to the number of processors
+ * (or the -t limit), printing the time taken and the speedup over one thread.
+ * With -e, the query and the neighbors in the responses are sealed with the
+ * per-pair AES keys from CryptoKeyGen -p instead of being RSA-encrypted. With -b, RSA blocks
+ * are decrypted by an RSABatchDecrypter instead of the JCE provider. -x sets
+ * the agency exponent length, as EXPONENTBITS does for a telecom.
+ *
+ * Usage: java cc.TelecomBenchmark config_file [-c config_file] [-n query_size] [-t max_threads] [-r repetitions] [-x exponent_bits] [-e] [-b]
+ * @author Aaron Segal
+ */
+public class TelecomBenchmark {
+
+	// How far to look for user ids to put in the query
+	public static final int MAX_USER_ID = 10000000;
+
+	private static void usage() {
+		System.err.println("Usage: java cc.TelecomBenchmark config_file [-c config_file] [-n query_size] [-t max_threads] [-r repetitions] [-x exponent_bits] [-e] [-b]");
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			usage();
+			System.exit(1);
+		}
+		Properties config = new Properties();
+		int querySize = 200;
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		int repetitions = 3;
+		boolean envelopes = false;
+		boolean batch = false;
+		try {
+			FileReader configFile = new FileReader(args[0]);
+			config.load(configFile);
+			configFile.close();
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].equals("-e")) {
+					envelopes = true;
+				} else if (args[i].equals("-b")) {
+					batch = true;
+				} else if (i + 1 == args.length) {
+					usage();
+					System.exit(1);
+				} else if (args[i].equals("-c")) {
+					FileReader configFile2 = new FileReader(args[++i]);
+					config.load(configFile2);
+					configFile2.close();
+				} else if (args[i].equals("-n")) {
+					querySize = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-t")) {
+					maxThreads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-r")) {
+					repetitions = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-x")) {
+					config.setProperty(Telecom.EXPONENT_BITS, args[++i]);
+				} else {
+					usage();
+					System.exit(1);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Could not load config file");
+			e.printStackTrace();
+			System.exit(1);
+		}
+		if (envelopes && !TelecomKeys.envelopesSupported()) {
+			System.err.println("-e needs " + TelecomKeys.ENVELOPE_CIPHER +
+					", which this JRE does not have");
+			System.exit(1);
+		}
+
+		int numAgencies = Integer.parseInt(config.getProperty(Telecom.NUM_AGENCIES, "0"));
+		int numTelecoms = Integer.parseInt(config.getProperty(Telecom.NUM_TELECOMS, "0"));
+		int id = Integer.parseInt(config.getProperty(Telecom.ID));
+		String inputFile = config.getProperty(Telecom.INPUT_FILE);
+		String contactFormat = config.getProperty(Telecom.CONTACT_FORMAT);
+		TelecomKeys keys;
+		try {
+			keys = new TelecomKeys(config.getProperty(Telecom.PRIVATE_KEY),
+					config.getProperty(Telecom.PUBLIC_KEYS),
+					config.getProperty(Telecom.SIGNING_KEYPATH),
+					id,
+					Agency.getAgencyIds(numAgencies));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (envelopes) {
+			try {
+				keys.loadEnvelopeKeys(config.getProperty(Telecom.SIGNING_KEYPATH),
+						numTelecoms);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		keys.setBatchDecryption(batch);
+		System.out.println("RSA decryption: " + keys.getDecryptionStrategy());
+		keys.setAgencyExponentBits(config.getProperty(Telecom.EXPONENT_BITS));
+		if (keys.getAgencyGroup() != null) {
+			System.out.println("Agency group " + keys.getAgencyGroup() + ", " +
+					keys.getAgencyExponentBits() + "-bit exponents");
+		}
+
+		// Query the first querySize users this telecom knows about.
+		TelecomData data = new TelecomData(inputFile, contactFormat, numTelecoms,
+				keys, 1);
+		data.setEnvelopes(envelopes);
+		ArrayList<TelecomCiphertext> query = new ArrayList<TelecomCiphertext>();
+		for (int userId = 0; query.size() < querySize && userId < MAX_USER_ID; userId++) {
+			if (data.getNeighbors(userId) != null) {
+				query.add(envelopes ? keys.seal(id, userId) :
+						new TelecomCiphertext(keys.encrypt(id, userId), id));
+			}
+		}
+		if (query.isEmpty()) {
+			System.err.println("No users found in " + inputFile);
+			return;
+		}
+		TelecomCiphertext[] ciphertexts = query.toArray(new TelecomCiphertext[0]);
+		System.out.println("Query of " + ciphertexts.length + " users" +
+				(envelopes ? " sealed, " : ", ") +
+				Runtime.getRuntime().availableProcessors() + " processors");
+		System.out.println("Threads,Time (ms),Speedup");
+
+		ArrayList<Integer> threadCounts = new ArrayList<Integer>();
+		for (int threads = 1; threads < maxThreads; threads *= 2) {
+			threadCounts.add(threads);
+		}
+		threadCounts.add(maxThreads);
+
+		// Warm up the JIT before timing anything.
+		for (int r = 0; r < repetitions; r++) {
+			data.resetSent();
+			data.queryResponse(ciphertexts, QueryType.SEARCH);
+		}
+
+		long baseline = 0;
+		for (int threads : threadCounts) {
+			data = new TelecomData(inputFile, contactFormat, numTelecoms, keys,
+					threads);
+			data.setEnvelopes(envelopes);
+			// The first run creates the workers and their ciphers.
+			data.queryResponse(ciphertexts, QueryType.SEARCH);
+			long best = Long.MAX_VALUE;
+			for (int r = 0; r < repetitions; r++) {
+				data.resetSent();
+				long start = System.nanoTime();
+				data.queryResponse(ciphertexts, QueryType.SEARCH);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			if (threads == 1) {
+				baseline = best;
+			}
+			System.out.println(threads + "," + best / 1000000L + "," +
+					String.format("%.2f", (double) baseline / best));
+		}
+	}
+}
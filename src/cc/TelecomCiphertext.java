@@ -5,6 +5,9 @@ import java.io.Serializable;
 /**
  * A ciphertext to be decrypted by a telecom.
  * Agencies pass this on and should learn nothing by inspecting it.
+ *
+ * The id is either one RSA block, or sealed with AES-GCM under a key shared by
+ * the sending and receiving telecoms (see TelecomKeys.seal).
  */
 public class TelecomCiphertext implements Serializable {
 	private static final long serialVersionUID = 1L;
@@ -1,10 +1,8 @@
 package cc;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 
 import cc.SignedTelecomCiphertext.QueryType;
 import cc.TelecomResponse.MsgType;
@@ -15,129 +13,206 @@ import cc.TelecomResponse.MsgType;
  */
 
 /*
- * How we decide how many threads to spawn for a given job:
- * We just divide up the items as evenly as we can among the threads.
+ * How we divide up a job among threads:
+ * maxThreads ResponseWorkers are started once and kept for the life of the
+ * telecom. Each job is handed out to them in small chunks by a WorkQueue, so
+ * that threads which finish early take on more of the work.
+ *
+ * Several investigations may query at once, each with its own QueryState.
+ * They share the workers, taking turns through a fair lock one slice of at
+ * most FAIR_SLICE ciphertexts at a time, so a big query can't shut out the
+ * others until it is done.
  */
 
 public class TelecomData {
+	// Formats for the contact data file, chosen with the CONTACTFORMAT key.
+	// SERIALIZED is a Java-serialized HashMap; MAPPED is a CSR file written by
+	// CsrConverter and memory-mapped by MappedContactStore.
+	public static final String SERIALIZED = "serialized";
+	public static final String MAPPED = "mapped";
+	// The most ciphertexts answered for one investigation before another
+	// waiting investigation gets a turn.
+	public static final int FAIR_SLICE = 1024;
+
 	// Stores plaintext data about who contacted who.
-	private HashMap<Integer, int[]> contacts;
-	// Records whether we sent the agencies information about each user.
-	private HashSet<Integer> alreadySent;
+	private ContactStore contacts;
+	// Used by callers that don't keep their own QueryState.
+	private QueryState defaultState;
 	// The number of telecoms there are
 	private int numTelecoms;
-	// The maximum degree of users the agencies are interested in
-	private int maxDegree;
 	// The maximum number of threads we can use for decryption.
 	private int maxThreads;
 	// Keys used for crypto operations.
 	private TelecomKeys keys;
+	// Whether neighbors are sealed with per-pair AES keys rather than
+	// RSA-encrypted.
+	private boolean envelopes;
 
 	// current* are accessed by encryption threads
 	public TelecomCiphertext[] currentCiphertexts;
 	public TelecomResponse[] currentResponses;
-
-	// Used for tracking CPU time.
-	private long cpuTime = 0L;
+	public QueryType currentType;
+	public QueryState currentState;
+	// Long-lived worker threads, started on the first query.
+	private ResponseWorker[] workers;
+	private WorkQueue queue;
+	// Held while the workers answer a slice of one investigation's query.
+	private ReentrantLock workerLock = new ReentrantLock(true);
 
 
-	@SuppressWarnings("unchecked")
 	public TelecomData(String filename, int numTelecoms, TelecomKeys keys, int maxThreads) {
+		this(filename, SERIALIZED, numTelecoms, keys, maxThreads);
+	}
+
+	/**
+	 * @param filename The contact data file.
+	 * @param format SERIALIZED or MAPPED.
+	 */
+	public TelecomData(String filename, String format, int numTelecoms,
+			TelecomKeys keys, int maxThreads) {
 		try {
-			FileInputStream fis = new FileInputStream(filename);
-			ObjectInputStream ois = new ObjectInputStream(fis);
-			contacts = (HashMap<Integer, int[]>) ois.readObject();
-			ois.close();
+			contacts = openContacts(filename, format);
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
 		}
-		alreadySent = new HashSet<Integer>();
+		defaultState = newQueryState();
 		this.numTelecoms = numTelecoms;
-		this.maxDegree = Integer.MAX_VALUE;
 		this.keys = keys;
 		this.maxThreads = maxThreads;
 	}
 
-	public TelecomData(HashMap<Integer, int[]> contacts, int numTelecoms) {
+	public TelecomData(ContactStore contacts, int numTelecoms) {
 		this.contacts = contacts;
-		alreadySent = new HashSet<Integer>();
+		defaultState = newQueryState();
 		this.numTelecoms = numTelecoms;
 	}
 
+	/**
+	 * Opens a contact data file.
+	 * @param filename The file.
+	 * @param format SERIALIZED or MAPPED. Null means SERIALIZED.
+	 * @return The contact data.
+	 * @throws IOException
+	 */
+	public static ContactStore openContacts(String filename, String format)
+			throws IOException {
+		if (format == null || format.equalsIgnoreCase(SERIALIZED)) {
+			return new SerializedContactStore(filename);
+		} else if (format.equalsIgnoreCase(MAPPED)) {
+			return new MappedContactStore(filename);
+		}
+		throw new IllegalArgumentException("Unknown contact format " + format);
+	}
+
+	/**
+	 * Writes a contact data file that openContacts can read.
+	 * @param contacts The contact data.
+	 * @param filename The file.
+	 * @param format SERIALIZED or MAPPED. Null means SERIALIZED.
+	 * @throws IOException
+	 */
+	public static void writeContacts(ContactStore contacts, String filename,
+			String format) throws IOException {
+		if (format == null || format.equalsIgnoreCase(SERIALIZED)) {
+			SerializedContactStore.write(contacts, filename);
+		} else if (format.equalsIgnoreCase(MAPPED)) {
+			MappedContactStore.write(contacts, filename);
+		} else {
+			throw new IllegalArgumentException("Unknown contact format " + format);
+		}
+	}
+
+	/**
+	 * @return State for a new investigation, with no users sent yet.
+	 */
+	public QueryState newQueryState() {
+		return new QueryState(contacts);
+	}
+
 	/**
 	 * Forgets which IDs were already sent, allowing them to be sent again.
-	 * Also resets maxDegree.
+	 * Also resets maxDegree. Applies to the default investigation only.
 	 */
 	public void resetSent() {
-		alreadySent = new HashSet<Integer>();
-		this.maxDegree = Integer.MAX_VALUE;
+		defaultState.resetSent();
 	}
 
 	/**
-	 * Tests a user id to see what type of response it should get. That is, it
-	 * checks to make sure we have this user in our database, and that it hasn't
-	 * already been sent to the agencies. If that is the case, the id gets added to
-	 * alreadySent by this method. This is thread-safe.
+	 * Tests a user id to see what type of response it should get, for the
+	 * default investigation. See QueryState.chooseResponseType().
 	 * @param userId The user id to ask about
 	 * @return The type of response we should be sending.
 	 */
 	public MsgType chooseResponseType(int userId) {
-		if (!contacts.containsKey(userId)) {
-			return MsgType.NOT_FOUND;
-		}
-		synchronized (alreadySent) {
-			if (alreadySent.contains(userId)) {
-				return MsgType.ALREADY_SENT;
-			} else {
-				alreadySent.add(userId);
-				return MsgType.DATA;
-			}
-		}
+		return defaultState.chooseResponseType(userId);
 	}
 
 	/**
 	 * Computes an array of telecom responses, in response to a query containing an
-	 * array of telecom ciphertexts.
+	 * array of telecom ciphertexts, for the default investigation.
 	 * @param telecomCiphertexts The query ciphertexts
 	 * @param type SEARCH if agency wants neighbors; CONCLUDE if not
 	 * @return the responses to the query ciphertexts
 	 */
 	public TelecomResponse[] queryResponse(TelecomCiphertext[] telecomCiphertexts,
 			QueryType type) {
-		currentCiphertexts = telecomCiphertexts;
-		currentResponses = new TelecomResponse[currentCiphertexts.length];
-		int threads = Math.min(currentCiphertexts.length, maxThreads);
-		int itemsPerThread = (currentCiphertexts.length + threads - 1) / threads;
-		// Compute TelecomResponses to TelecomCiphertexts in threads
-		ResponseWorker[] workers = new ResponseWorker[threads];
-		for (int i = 0; i < workers.length; i++) {
-			workers[i] = new ResponseWorker(this, itemsPerThread * i,
-					itemsPerThread, keys, type, i);
-			workers[i].start();
-		}
-		for (int i = 0; i < workers.length; i++) {
+		return queryResponse(defaultState, telecomCiphertexts, type);
+	}
+
+	/**
+	 * Computes an array of telecom responses, in response to a query containing an
+	 * array of telecom ciphertexts. This is thread-safe; concurrent queries take
+	 * turns on the workers.
+	 * @param state The investigation the query is part of
+	 * @param telecomCiphertexts The query ciphertexts
+	 * @param type SEARCH if agency wants neighbors; CONCLUDE if not
+	 * @return the responses to the query ciphertexts
+	 */
+	public TelecomResponse[] queryResponse(QueryState state,
+			TelecomCiphertext[] telecomCiphertexts, QueryType type) {
+		TelecomResponse[] responses = new TelecomResponse[telecomCiphertexts.length];
+		for (int start = 0; start < telecomCiphertexts.length; start += FAIR_SLICE) {
+			int end = Math.min(start + FAIR_SLICE, telecomCiphertexts.length);
+			workerLock.lock();
 			try {
-				workers[i].join();
-			} catch (InterruptedException e) {
+				currentCiphertexts = Arrays.copyOfRange(telecomCiphertexts, start, end);
+				currentResponses = new TelecomResponse[end - start];
+				currentType = type;
+				currentState = state;
+				if (workers == null) {
+					startWorkers();
+				}
+				// Compute TelecomResponses to TelecomCiphertexts in threads
+				queue.runBatch(end - start);
+				for (ResponseWorker worker : workers) {
+					state.addCpuTime(worker.getNewCpuTime());
+				}
+				System.arraycopy(currentResponses, 0, responses, start, end - start);
 			} finally {
-				cpuTime += workers[i].getCpuTime();
+				workerLock.unlock();
 			}
 		}
 		// At this point, we are done.
-		return currentResponses;
+		return responses;
+	}
+
+	private void startWorkers() {
+		int threads = Math.max(maxThreads, 1);
+		queue = new WorkQueue(threads);
+		workers = new ResponseWorker[threads];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new ResponseWorker(this, queue, keys);
+			workers[i].start();
+		}
 	}
 
 	/**
-	 * Returns the CPU time used by the telecom's subthreads since the last time
-	 * this method was called.
+	 * Returns the CPU time used by the telecom's subthreads for the default
+	 * investigation since the last time this method was called.
 	 * @return the CPU time (ns)
 	 */
 	public long getCpuTime() {
-		long oldCpuTime = cpuTime;
-		cpuTime = 0;
-		return oldCpuTime;
+		return defaultState.getCpuTime();
 	}
 
 	/**
@@ -146,7 +221,7 @@ public class TelecomData {
 	 * @return An array of that user's neighbors.
 	 */
 	public int[] getNeighbors(int userId) {
-		return contacts.get(userId);
+		return contacts.getNeighbors(userId);
 	}
 
 	/**
@@ -157,16 +232,31 @@ public class TelecomData {
 	}
 
 	/**
-	 * @return the maxDegree
+	 * @return the maxDegree of the default investigation
 	 */
 	public int getMaxDegree() {
-		return maxDegree;
+		return defaultState.getMaxDegree();
 	}
 
 	/**
-	 * @param maxDegree the maxDegree to set
+	 * @param maxDegree the maxDegree to set for the default investigation
 	 */
 	public void setMaxDegree(int maxDegree) {
-		this.maxDegree = maxDegree;
+		defaultState.setMaxDegree(maxDegree);
+	}
+
+	/**
+	 * @return whether neighbors are sealed with per-pair AES keys
+	 */
+	public boolean getEnvelopes() {
+		return envelopes;
+	}
+
+	/**
+	 * @param envelopes true to seal neighbors under the key shared with their
+	 * telecom (see TelecomKeys.seal), false to RSA-encrypt each of them
+	 */
+	public void setEnvelopes(boolean envelopes) {
+		this.envelopes = envelopes;
 	}
 }
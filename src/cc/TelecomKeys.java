@@ -1,33 +1,94 @@
 package cc;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Arrays;
 import java.util.HashMap;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 public class TelecomKeys extends Keys {
 
+	// Envelopes seal ids with AES-GCM under the 128-bit key shared by the
+	// sending and receiving telecoms, and a random nonce, which is sent in front
+	// of the sealed id. Every id is sealed as 4 bytes, so that sealed ids all
+	// have the same length and reveal nothing about the id's size.
+	public static final String ENVELOPE_CIPHER = "AES/GCM/NoPadding";
+	public static final int ENVELOPE_KEY_BYTES = 16;
+	public static final int ENVELOPE_NONCE_BYTES = 12;
+	public static final int ENVELOPE_TAG_BITS = 128;
+	public static final int ENVELOPE_ID_BYTES = 4;
+	public static final int SEALED_ID_BYTES =
+			ENVELOPE_NONCE_BYTES + ENVELOPE_ID_BYTES + ENVELOPE_TAG_BITS / 8;
+	// How RSA blocks are decrypted: by the JCE provider, one Cipher call each,
+	// or by an RSABatchDecrypter for each chunk of a query.
+	public static final String JCE_DECRYPTION = "jce";
+	public static final String BATCH_DECRYPTION = "batch";
+
 	private PrivateKey privateKey;
-	private Cipher[] decrypters;
-	private HashMap<Integer, Cipher[]> multiEncrypters;
+	// Decrypts RSA blocks in bulk without a Cipher, or null to use the JCE.
+	private RSABatchDecrypter batchDecrypter;
+	private HashMap<Integer, RandomnessPool> randomnessPools;
+	private SecureRandom rng = new SecureRandom();
+	// Envelope keys we share with each telecom, by its id: the ones we seal ids
+	// to it with, and the ones it seals ids to us with. Null until loaded.
+	private SecretKey[] sealKeys;
+	private SecretKey[] openKeys;
 
 	public TelecomKeys(String privateKeyFilename, String publicKeyFilename,
-			String keysPath, int id, int[] agencyIds, int numThreads) throws IOException {
+			String keysPath, int id, int[] agencyIds) throws IOException {
 		super(privateKeyFilename, publicKeyFilename, keysPath, id, agencyIds);
-		loadPrivateKey(privateKeyFilename, numThreads);
-		duplicateEncrypters(numThreads);
+		loadPrivateKey(privateKeyFilename);
+		precomputeAgencyTables();
+		randomnessPools = new HashMap<Integer, RandomnessPool>();
 	}
 
-	private void loadPrivateKey(String privateKeyFilename, int numThreads) throws IOException {
+	/**
+	 * Builds fixed-base exponentiation tables for the ElGamal generator and each
+	 * agency public key, since every agency ciphertext we produce exponentiates
+	 * exactly these bases. On a curve, the tables hold multiples of the points.
+	 */
+	private void precomputeAgencyTables() {
+		ECCurve curve = getAgencyCurve();
+		if (curve != null) {
+			curve.precompute(curve.getGenerator());
+			for (int agencyId : getAgencyIds()) {
+				BigInteger agencyKey = getAgencyPublicKey(agencyId);
+				if (agencyKey != null) {
+					curve.precompute(curve.decode(agencyKey));
+				}
+			}
+			return;
+		}
+		ModpGroup group = getAgencyGroup() != null ? getAgencyGroup() :
+				ModpGroup.MODP1024;
+		FixedBaseTable.precompute(group.getGenerator(), group.getPrime());
+		for (int agencyId : getAgencyIds()) {
+			BigInteger agencyKey = getAgencyPublicKey(agencyId);
+			if (agencyKey != null) {
+				FixedBaseTable.precompute(agencyKey, group.getPrime());
+			}
+		}
+	}
+
+	private void loadPrivateKey(String privateKeyFilename) throws IOException {
 		FileInputStream privateKeyInput = new FileInputStream(privateKeyFilename);
 		byte[] privateKeyBytes = new byte[2048];
 		int read = privateKeyInput.read(privateKeyBytes);
@@ -39,74 +100,326 @@ public class TelecomKeys extends Keys {
 		try {
 			KeyFactory keyFactory = KeyFactory.getInstance(CryptoKeyGen.ENCRYPTION_ALGORITHM);
 			privateKey = keyFactory.generatePrivate(privateKeySpec);
-			decrypters = new Cipher[numThreads];
-			for (int i = 0; i < decrypters.length; i++) {
-				decrypters[i] = Cipher.getInstance(CryptoKeyGen.ENCRYPTION_ALGORITHM + PADDING);
-				decrypters[i].init(Cipher.DECRYPT_MODE, privateKey);
+			// Without the CRT parameters every decryption is a full-size
+			// exponentiation, several times slower, so recover them.
+			if (!(privateKey instanceof RSAPrivateCrtKey)) {
+				BigInteger publicExponent = null;
+				PublicKey publicKey = telecomPublicKeys.get(getId());
+				if (publicKey instanceof RSAPublicKey) {
+					publicExponent = ((RSAPublicKey) publicKey).getPublicExponent();
+				}
+				privateKey = RSABatchDecrypter.toCrtKey((RSAPrivateKey) privateKey,
+						publicExponent);
+				System.err.println("Private key in " + privateKeyFilename +
+						" has no CRT parameters; recovered them from the modulus");
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			return;
 		}
+		// Make sure the key is usable before any worker needs it.
+		try {
+			getDecrypter();
+		} catch (GeneralSecurityException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return This thread's Cipher for decrypting RSA blocks.
+	 */
+	private Cipher getDecrypter() throws GeneralSecurityException {
+		return crypto.getCipher(CryptoKeyGen.ENCRYPTION_ALGORITHM + PADDING,
+				Cipher.DECRYPT_MODE, privateKey);
 	}
 
-	private void duplicateEncrypters(int copies) {
-		multiEncrypters = new HashMap<Integer, Cipher[]>();
-		for (int telecomId : encrypters.keySet()) {
-			multiEncrypters.put(telecomId, new Cipher[copies]);
-			multiEncrypters.get(telecomId)[0] = encrypters.get(telecomId);
-			for (int i = 1; i < copies; i++) {
+	/**
+	 * Starts a background RandomnessPool for each agency public key. If poolPath
+	 * is given, pairs saved there by a previous run are loaded first.
+	 * @param lowWatermark Refill a pool when it has this many pairs or fewer.
+	 * @param highWatermark The maximum number of pairs to hold per agency.
+	 * @param poolPath Directory holding saved pools, or null.
+	 */
+	public void startRandomnessPools(int lowWatermark, int highWatermark,
+			String poolPath) {
+		if (getAgencyCurve() != null) {
+			// Pools hold MODP pairs; curve keys use their tables instead.
+			System.err.println("Randomness pools are not used with " +
+					getAgencyCurve().getName() + " agency keys");
+			return;
+		}
+		ModpGroup group = getAgencyGroup() != null ? getAgencyGroup() :
+				ModpGroup.MODP1024;
+		for (int agencyId : getAgencyIds()) {
+			BigInteger agencyKey = getAgencyPublicKey(agencyId);
+			if (agencyKey == null) {
+				continue;
+			}
+			RandomnessPool pool = new RandomnessPool(group.getGenerator(),
+					agencyKey, group.getPrime(), getAgencyExponentBits(),
+					lowWatermark, highWatermark);
+			if (poolPath != null) {
 				try {
-					multiEncrypters.get(telecomId)[i] = Cipher.getInstance(CryptoKeyGen.ENCRYPTION_ALGORITHM + PADDING);
-					multiEncrypters.get(telecomId)[i].init(Cipher.ENCRYPT_MODE, telecomPublicKeys.get(telecomId));
-				} catch (GeneralSecurityException e) {
+					pool.load(poolFilename(poolPath, agencyId));
+				} catch (IOException e) {
 					e.printStackTrace();
-					return;
 				}
 			}
+			pool.register();
+			pool.start();
+			randomnessPools.put(agencyId, pool);
 		}
 	}
 
 	/**
-	 * Decrypts a telecom ciphertext into an integer.
+	 * Saves the contents of all randomness pools to poolPath.
+	 * @param poolPath Directory to save pools in.
+	 */
+	public void saveRandomnessPools(String poolPath) {
+		for (int agencyId : randomnessPools.keySet()) {
+			RandomnessPool pool = randomnessPools.get(agencyId);
+			pool.setPaused(true);
+			try {
+				pool.save(poolFilename(poolPath, agencyId));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private String poolFilename(String poolPath, int agencyId) {
+		return poolPath + File.separator + "pool_" + getId() + "_" + agencyId;
+	}
+
+	/**
+	 * Stops or resumes refilling the randomness pools, so that they only use
+	 * CPU time while we are not answering a query.
+	 * @param paused True to stop refilling, false to resume.
+	 */
+	public void setRandomnessPoolsPaused(boolean paused) {
+		for (RandomnessPool pool : randomnessPools.values()) {
+			pool.setPaused(paused);
+		}
+	}
+
+	/**
+	 * @return The total number of pool hits since this method was last called.
+	 */
+	public long getPoolHits() {
+		long hits = 0;
+		for (RandomnessPool pool : randomnessPools.values()) {
+			hits += pool.getHits();
+		}
+		return hits;
+	}
+
+	/**
+	 * @return The total number of pool misses since this method was last called.
+	 */
+	public long getPoolMisses() {
+		long misses = 0;
+		for (RandomnessPool pool : randomnessPools.values()) {
+			misses += pool.getMisses();
+		}
+		return misses;
+	}
+
+	/**
+	 * Decrypts a telecom ciphertext into an integer. This is thread-safe.
 	 * @param ciphertext The ciphertext to decrypt.
 	 * @return The plaintext integer of this ciphertext.
-	 * @throws IllegalBlockSizeException
-	 * @throws BadPaddingException
+	 * @throws GeneralSecurityException if it doesn't decrypt.
 	 */
-	public int decrypt(byte[] ciphertext) throws IllegalBlockSizeException, BadPaddingException {
-		byte[] byteData = decrypters[0].doFinal(ciphertext);
+	public int decrypt(byte[] ciphertext) throws GeneralSecurityException {
+		byte[] byteData = getDecrypter().doFinal(ciphertext);
 		return new BigInteger(byteData).intValue();
 	}
-	
+
 	/**
-	 * Decrypts a telecom ciphertext into an integer using a specific decrypter.
+	 * Decrypts a range of telecom ciphertexts into integers. With batch
+	 * decryption on, the RSA blocks among them are decrypted together. This is
+	 * thread-safe.
+	 * @param ciphertexts The ciphertexts.
+	 * @param from The first index to decrypt.
+	 * @param to One past the last index to decrypt.
+	 * @return The plaintext integers, with null for any ciphertext that did not
+	 * decrypt.
+	 */
+	public Integer[] decrypt(TelecomCiphertext[] ciphertexts, int from, int to) {
+		Integer[] out = new Integer[to - from];
+		byte[][] blocks = null;
+		if (batchDecrypter != null) {
+			blocks = new byte[to - from][];
+			for (int i = from; i < to; i++) {
+				if (!isSealed(ciphertexts[i])) {
+					blocks[i - from] = ciphertexts[i].getEncryptedId();
+				}
+			}
+			blocks = batchDecrypter.decrypt(blocks);
+		}
+		for (int i = from; i < to; i++) {
+			try {
+				if (blocks != null && !isSealed(ciphertexts[i])) {
+					if (blocks[i - from] == null) {
+						throw new BadPaddingException("Could not decrypt RSA block");
+					}
+					out[i - from] = new BigInteger(blocks[i - from]).intValue();
+				} else {
+					out[i - from] = decrypt(ciphertexts[i]);
+				}
+			} catch (GeneralSecurityException e) {
+				e.printStackTrace();
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @param batch true to decrypt RSA blocks with an RSABatchDecrypter, false
+	 * to use the JCE provider's Cipher
+	 */
+	public void setBatchDecryption(boolean batch) {
+		batchDecrypter = batch && privateKey instanceof RSAPrivateCrtKey ?
+				new RSABatchDecrypter((RSAPrivateCrtKey) privateKey) : null;
+	}
+
+	/**
+	 * @return a description of how RSA blocks are decrypted, for the log
+	 */
+	public String getDecryptionStrategy() {
+		String form = privateKey instanceof RSAPrivateCrtKey ? "CRT" : "non-CRT";
+		if (batchDecrypter != null) {
+			return "batch (pure Java), " + form + ", blinded";
+		}
+		try {
+			return "JCE (" + getDecrypter().getProvider().getName() + "), " + form;
+		} catch (GeneralSecurityException e) {
+			return "JCE (unavailable), " + form;
+		}
+	}
+
+	/**
+	 * Decrypts a telecom ciphertext into an integer, whether it is an RSA block
+	 * or sealed in an envelope. This is thread-safe.
 	 * @param ciphertext The ciphertext to decrypt.
-	 * @param threadId The thread doing the encrypting.
 	 * @return The plaintext integer of this ciphertext.
-	 * @throws IllegalBlockSizeException
-	 * @throws BadPaddingException
+	 * @throws GeneralSecurityException if it doesn't decrypt, or a sealed id
+	 * has been tampered with.
 	 */
-	public int decrypt(byte[] ciphertext, int threadId) throws IllegalBlockSizeException, BadPaddingException {
-		byte[] byteData = decrypters[threadId].doFinal(ciphertext);
-		return new BigInteger(byteData).intValue();
+	public int decrypt(TelecomCiphertext ciphertext) throws GeneralSecurityException {
+		if (!isSealed(ciphertext)) {
+			return decrypt(ciphertext.getEncryptedId());
+		}
+		if (openKeys == null) {
+			throw new BadPaddingException("Got a sealed id without envelope keys");
+		}
+		// Nothing says which telecom sealed the id, so try each of their keys.
+		// Only the right one passes the GCM tag check.
+		byte[] sealed = ciphertext.getEncryptedId();
+		Cipher opener = crypto.getCipher(ENVELOPE_CIPHER);
+		for (SecretKey key : openKeys) {
+			if (key == null) {
+				continue;
+			}
+			opener.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(
+					ENVELOPE_TAG_BITS, sealed, 0, ENVELOPE_NONCE_BYTES));
+			try {
+				byte[] byteData = opener.doFinal(sealed, ENVELOPE_NONCE_BYTES,
+						sealed.length - ENVELOPE_NONCE_BYTES);
+				return ByteBuffer.wrap(byteData).getInt();
+			} catch (AEADBadTagException e) {
+				continue;
+			}
+		}
+		throw new AEADBadTagException("Sealed id doesn't open under any key");
+	}
+
+	/**
+	 * Sealed ids are told apart from RSA blocks, which are far longer, by
+	 * their length.
+	 * @return whether the ciphertext is sealed in an envelope
+	 */
+	public static boolean isSealed(TelecomCiphertext ciphertext) {
+		return ciphertext.getEncryptedId().length == SEALED_ID_BYTES;
 	}
 
 	/**
-	 * Encrypts an integer into a telecom ciphertext using a specific encrypter.
-	 * Used for multi-thread encryption.
-	 * @param receiverId The telecom who will receive this ciphertext.
-	 * @param data The integer to encrypt
-	 * @param threadId The thread doing the encrypting.
-	 * @return The encrypted data.
+	 * Envelopes need AES-GCM, which the SunJCE provider only has from Java 8.
+	 * @return whether this JRE can seal ids in envelopes
 	 */
-	public byte[] encrypt(int receiverId, int data, int threadId) {
-		byte[] byteData = BigInteger.valueOf(data).toByteArray();
+	public static boolean envelopesSupported() {
 		try {
-			return multiEncrypters.get(receiverId)[threadId].doFinal(byteData);
-		} catch (IllegalBlockSizeException e) {
-			e.printStackTrace();
-		} catch (BadPaddingException e) {
+			Cipher.getInstance(ENVELOPE_CIPHER);
+			return true;
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the envelope keys we share with every telecom, made by
+	 * CryptoKeyGen -p. The key for ids sealed by telecom s for telecom r is in
+	 * keysPath/envelope_s_r.key, which only s and r should have.
+	 * @param keysPath The directory holding the keys.
+	 * @param numTelecoms The number of telecoms.
+	 * @throws IOException if a key is missing or the wrong length.
+	 */
+	public void loadEnvelopeKeys(String keysPath, int numTelecoms)
+			throws IOException {
+		SecretKey[] seal = new SecretKey[numTelecoms];
+		SecretKey[] open = new SecretKey[numTelecoms];
+		for (int i = 0; i < numTelecoms; i++) {
+			seal[i] = readEnvelopeKey(keysPath, getId(), i);
+			open[i] = readEnvelopeKey(keysPath, i, getId());
+		}
+		sealKeys = seal;
+		openKeys = open;
+	}
+
+	private static SecretKey readEnvelopeKey(String keysPath, int sender,
+			int receiver) throws IOException {
+		File file = new File(keysPath, CryptoKeyGen.ENVELOPE_PREFIX + sender + "_" +
+				receiver + CryptoKeyGen.SUFFIX);
+		byte[] keyBytes = new byte[ENVELOPE_KEY_BYTES];
+		FileInputStream input = new FileInputStream(file);
+		try {
+			if (input.read(keyBytes) != ENVELOPE_KEY_BYTES || input.read() != -1) {
+				throw new IOException(file + " is not a " +
+						ENVELOPE_KEY_BYTES * 8 + "-bit key");
+			}
+		} finally {
+			input.close();
+		}
+		return new SecretKeySpec(keyBytes, "AES");
+	}
+
+	/**
+	 * Seals an integer in an envelope for another telecom, under the key we
+	 * share with it. The sealed id carries nothing but a random nonce, so the
+	 * receiver can't tell which ids were sealed together, only which telecom
+	 * sealed each one. This is thread-safe.
+	 * @param receiverId The telecom who will receive the id.
+	 * @param data The integer to encrypt.
+	 * @return The telecom ciphertext, or null if it can't be sealed.
+	 */
+	public TelecomCiphertext seal(int receiverId, int data) {
+		if (sealKeys == null) {
+			System.err.println("Envelope keys have not been loaded");
+			return null;
+		}
+		byte[] byteData = ByteBuffer.allocate(ENVELOPE_ID_BYTES).putInt(data).array();
+		byte[] nonce = new byte[ENVELOPE_NONCE_BYTES];
+		rng.nextBytes(nonce);
+		try {
+			Cipher sealer = crypto.getCipher(ENVELOPE_CIPHER);
+			sealer.init(Cipher.ENCRYPT_MODE, sealKeys[receiverId],
+					new GCMParameterSpec(ENVELOPE_TAG_BITS, nonce));
+			byte[] sealed = new byte[SEALED_ID_BYTES];
+			System.arraycopy(nonce, 0, sealed, 0, ENVELOPE_NONCE_BYTES);
+			sealer.doFinal(byteData, 0, byteData.length, sealed,
+					ENVELOPE_NONCE_BYTES);
+			return new TelecomCiphertext(sealed, receiverId);
+		} catch (GeneralSecurityException e) {
 			e.printStackTrace();
 		}
 		return null;
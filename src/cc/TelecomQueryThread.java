@@ -0,0 +1,99 @@
+package cc;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Sends one signed request to a telecom and reads back its response, so that
+ * the leader can talk to all the telecoms at once. The response may come in
+ * several chunks, which can be taken one at a time as they arrive. A chunk is
+ * not kept once it has been taken. When it finishes, with or without a
+ * response, the thread puts itself on the done queue.
+ */
+public class TelecomQueryThread extends CPUTrackingThread {
+
+	// Put on the chunk queue after the last chunk.
+	private static final SignedTelecomResponse END =
+			new SignedTelecomResponse(new TelecomResponse[0], -1);
+
+	private int telecomId;
+	private TelecomSocket tSocket;
+	private SignedTelecomCiphertext request;
+	private volatile boolean failed = true;
+	private LinkedBlockingQueue<SignedTelecomResponse> chunks =
+			new LinkedBlockingQueue<SignedTelecomResponse>();
+	private BlockingQueue<TelecomQueryThread> done;
+
+	/**
+	 * @param done The queue to put this thread on when it finishes, or null.
+	 */
+	public TelecomQueryThread(int telecomId, TelecomSocket tSocket,
+			SignedTelecomCiphertext request, BlockingQueue<TelecomQueryThread> done) {
+		super();
+		this.telecomId = telecomId;
+		this.tSocket = tSocket;
+		this.request = request;
+		this.done = done;
+		setDaemon(true);
+	}
+
+	public void runReal() {
+		try {
+			tSocket.outputStream.writeObject(request);
+			tSocket.outputStream.flush();
+			tSocket.outputStream.reset();
+			SignedTelecomResponse chunk;
+			do {
+				chunk = (SignedTelecomResponse) tSocket.inputStream.readObject();
+				if (!tSocket.checkSequence(chunk)) {
+					System.err.println("Telecom " + telecomId + " sent chunk " +
+							chunk.getSequence() + " out of order");
+					return;
+				}
+				chunks.add(chunk);
+			} while (chunk.isMore());
+			failed = false;
+		} catch (IOException e) {
+			System.err.println("Error in connection with telecom " + telecomId);
+			e.printStackTrace();
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} finally {
+			updateCpuTime();
+			chunks.add(END);
+			if (done != null) {
+				done.add(this);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next chunk of the response.
+	 * @return The chunk, or null once there are no more. Check isComplete()
+	 * then to see if the whole response arrived.
+	 * @throws InterruptedException
+	 */
+	public SignedTelecomResponse takeChunk() throws InterruptedException {
+		SignedTelecomResponse chunk = chunks.take();
+		if (chunk == END) {
+			// Leave it there, so later calls also return null.
+			chunks.add(END);
+			return null;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Call once the thread is done.
+	 * @return true if every chunk of the response arrived, false if there was
+	 * an error
+	 */
+	public boolean isComplete() {
+		return !failed;
+	}
+
+	public int getTelecomId() {
+		return telecomId;
+	}
+}
@@ -46,6 +46,13 @@ public class TelecomResponse implements Serializable {
 		return agencyCiphertext;
 	}
 
+	/**
+	 * @param agencyCiphertext the agencyCiphertext to set
+	 */
+	public void setAgencyCiphertext(BigInteger[] agencyCiphertext) {
+		this.agencyCiphertext = agencyCiphertext;
+	}
+
 	/**
 	 * @return the telecomCiphertexts
 	 */
@@ -24,10 +24,6 @@ public class TelecomScan {
 	private ObjectOutputStream outputStream;
 	private ObjectInputStream inputStream;
 
-	// Included for additional safety. Use the configurable
-	// MAX_THREADS instead.
-	public static final int MAX_THREADS_ALLOWED = 16;
-
 	public static final String PORT = "PORT";
 	public static final String INPUT_FILE = "INPUT";
 	public static final String ID = "ID";
@@ -109,15 +105,16 @@ public class TelecomScan {
 		port = Integer.parseInt(config.getProperty(PORT));
 		numAgencies = Integer.parseInt(config.getProperty(NUM_AGENCIES, "0"));
 		numTelecoms = Integer.parseInt(config.getProperty(NUM_TELECOMS, "0"));
-		maxThreads = Integer.parseInt(config.getProperty(MAX_THREADS, "1"));
-		if (maxThreads < 0 || maxThreads > MAX_THREADS_ALLOWED) {
-			System.err.println("Number of threads must be between 1 and " + MAX_THREADS_ALLOWED);
+		// By default, use one thread per processor.
+		maxThreads = Integer.parseInt(config.getProperty(MAX_THREADS, "0"));
+		if (maxThreads < 0) {
+			System.err.println("Number of threads must be at least 1, or 0 for one per processor");
 			usage();
 			return;
 		} else if (maxThreads == 0) {
-			System.err.println("Treating 0 threads as " + MAX_THREADS_ALLOWED);
-			maxThreads = MAX_THREADS_ALLOWED;
+			maxThreads = Runtime.getRuntime().availableProcessors();
 		}
+		println("Using " + maxThreads + " threads");
 		id = Integer.parseInt(config.getProperty(ID));
 		println("ID = " + id);
 		try {
@@ -125,8 +122,7 @@ public class TelecomScan {
 					config.getProperty(PUBLIC_KEYS),
 					config.getProperty(SIGNING_KEYPATH),
 					id,
-					Agency.getAgencyIds(numAgencies),
-					maxThreads);
+					Agency.getAgencyIds(numAgencies));
 		} catch (IOException e) {
 			e.printStackTrace();
 			return;
@@ -0,0 +1,156 @@
+package cc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.TelecomResponse.MsgType;
+import cc.Transport.Connection;
+
+/**
+ * Answers the requests of one investigation, over one agency connection, on
+ * its own thread. Each session has its own QueryState, so it keeps its own
+ * record of which users were sent, its own maxDegree and its own CPU time.
+ * Sessions share the telecom's contact data, workers and verifier pool.
+ * @author Aaron Segal
+ */
+public class TelecomSession extends Thread {
+
+	private Telecom telecom;
+	private Connection agencySocket;
+	private ObjectOutputStream outputStream;
+	private ObjectInputStream inputStream;
+	private QueryState state;
+	// The sequence number of the next chunk we send.
+	private int nextSequence = 0;
+	// CPU time spent verifying this session's requests on the verifier pool.
+	private AtomicLong verifierCpuTime;
+
+	private ThreadMXBean bean;
+	private long lastCpuRecording;
+
+	public TelecomSession(Telecom telecom, Connection agencySocket) {
+		super("session " + agencySocket.getRemoteSocketAddress());
+		this.telecom = telecom;
+		this.agencySocket = agencySocket;
+		state = telecom.data.newQueryState();
+		verifierCpuTime = new AtomicLong();
+		bean = ManagementFactory.getThreadMXBean();
+		lastCpuRecording = 0;
+	}
+
+	private void sendResponse(MsgType type) throws IOException {
+		TelecomResponse tR = new TelecomResponse(type);
+		SignedTelecomResponse signedTR = new SignedTelecomResponse(tR, telecom.id);
+		signedTR.setSequence(nextSequence++);
+		signedTR.setSignature(telecom.keys.sign(signedTR));
+		outputStream.writeObject(signedTR);
+		outputStream.flush();
+		outputStream.reset();
+	}
+
+	/**
+	 * Signs and sends one chunk of the answer to a request.
+	 * @param responses The responses in the chunk.
+	 * @param more True if more chunks of the answer will follow.
+	 */
+	private void sendResponse(TelecomResponse[] responses, boolean more)
+			throws IOException {
+		SignedTelecomResponse signedTR = new SignedTelecomResponse(responses,
+				telecom.id);
+		signedTR.setMore(more);
+		signedTR.setSequence(nextSequence++);
+		signedTR.setSignature(telecom.keys.sign(signedTR));
+		// Add the cpu time from this thread plus the workers and verifiers.
+		long currentCpuTime = bean.getCurrentThreadCpuTime();
+		long cpuTimeToSend = state.getCpuTime() + verifierCpuTime.getAndSet(0) +
+				(currentCpuTime - lastCpuRecording);
+		lastCpuRecording = currentCpuTime;
+		signedTR.setCpuTime(cpuTimeToSend);
+		// The pools are shared, so with concurrent sessions these counts are
+		// for the whole telecom, not just this session.
+		signedTR.setPoolHits(telecom.keys.getPoolHits());
+		signedTR.setPoolMisses(telecom.keys.getPoolMisses());
+		// Reset after each chunk, so the stream's handle table doesn't keep
+		// every chunk sent on this connection alive.
+		outputStream.writeObject(signedTR);
+		outputStream.flush();
+		outputStream.reset();
+	}
+
+	/**
+	 * Responds to requests until the agency closes the connection.
+	 */
+	public void run() {
+		try {
+			OutputStream out = agencySocket.getOutputStream();
+			InputStream in = agencySocket.getInputStream();
+			if (Compression.negotiate(in, out, telecom.compression)) {
+				out = Compression.compress(out, telecom.compression);
+				in = Compression.decompress(in);
+			}
+			outputStream = WireFormat.newOutputStream(telecom.wireFormat, out);
+			inputStream = WireFormat.newInputStream(telecom.wireFormat, in);
+			while (true) {
+				SignedTelecomCiphertext signedTC =
+						(SignedTelecomCiphertext) inputStream.readObject();
+				// check to make sure all signatures verify
+				if (!telecom.verifier.verifyAll(telecom.keys, signedTC,
+						verifierCpuTime)) {
+					sendResponse(MsgType.INVALID_SIGNATURE);
+					return;
+				}
+
+				// Update maxDegree if we don't already know it
+				if (state.getMaxDegree() == Integer.MAX_VALUE &&
+						signedTC.getMaxDegree() > 0) {
+					state.setMaxDegree(signedTC.getMaxDegree());
+				}
+				// Send the answer a chunk at a time, each as soon as it is ready,
+				// so neither side has to hold all of it at once.
+				TelecomCiphertext[] ciphertexts = signedTC.getCiphertexts();
+				int chunk = telecom.responseChunk > 0 ? telecom.responseChunk :
+						Math.max(ciphertexts.length, 1);
+				telecom.beginQuery();
+				try {
+					int start = 0;
+					do {
+						int end = Math.min(start + chunk, ciphertexts.length);
+						TelecomResponse[] responses = telecom.data.queryResponse(state,
+								Arrays.copyOfRange(ciphertexts, start, end),
+								signedTC.getType());
+						sendResponse(responses, end < ciphertexts.length);
+						start = end;
+					} while (start < ciphertexts.length);
+				} finally {
+					telecom.endQuery();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Connection lost from agency at " +
+					agencySocket.getInetAddress().toString());
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} finally {
+			close();
+		}
+	}
+
+	public void close() {
+		try {
+			if (outputStream != null) {
+				outputStream.close();
+			}
+			if (inputStream != null) {
+				inputStream.close();
+			}
+			agencySocket.close();
+		} catch (IOException e) {}
+	}
+}
@@ -1,21 +1,65 @@
 package cc;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.OutputStream;
+
+import cc.Transport.Connection;
 
 public class TelecomSocket {
 
-	public Socket socket;
+	public Connection socket;
 	public ObjectInputStream inputStream;
 	public ObjectOutputStream outputStream;
 	public boolean open = false;
 
-	public TelecomSocket(Socket socket) throws IOException {
+	private CountingInputStream countingInput;
+	private CountingOutputStream countingOutput;
+	// Count the traffic before compression, if the connection is compressed.
+	private CountingInputStream uncompressedInput = null;
+	private CountingOutputStream uncompressedOutput = null;
+	// The sequence number of the next chunk the telecom should send us.
+	private int nextSequence = 0;
+
+	public TelecomSocket(Connection socket) throws IOException {
+		this(socket, WireFormat.JAVA);
+	}
+
+	/**
+	 * Opens streams to a telecom that doesn't negotiate compression.
+	 */
+	public TelecomSocket(Connection socket, String wireFormat) throws IOException {
 		this.socket = socket;
-		inputStream = new ObjectInputStream(socket.getInputStream());
-		outputStream = new ObjectOutputStream(socket.getOutputStream());
+		countingInput = new CountingInputStream(socket.getInputStream());
+		countingOutput = new CountingOutputStream(socket.getOutputStream());
+		inputStream = WireFormat.newInputStream(wireFormat, countingInput);
+		outputStream = WireFormat.newOutputStream(wireFormat, countingOutput);
+		open = true;
+	}
+
+	/**
+	 * Opens streams to a telecom, first agreeing with it whether to compress.
+	 * @param compression Our Deflater level, or Compression.NONE.
+	 */
+	public TelecomSocket(Connection socket, String wireFormat, int compression)
+			throws IOException {
+		this.socket = socket;
+		countingInput = new CountingInputStream(socket.getInputStream());
+		countingOutput = new CountingOutputStream(socket.getOutputStream());
+		InputStream in = countingInput;
+		OutputStream out = countingOutput;
+		if (Compression.negotiate(countingInput, countingOutput, compression)) {
+			uncompressedInput =
+					new CountingInputStream(Compression.decompress(countingInput));
+			uncompressedOutput = new CountingOutputStream(
+					Compression.compress(countingOutput, compression));
+			in = uncompressedInput;
+			out = uncompressedOutput;
+		}
+		inputStream = WireFormat.newInputStream(wireFormat, in);
+		outputStream = WireFormat.newOutputStream(wireFormat, out);
 		open = true;
 	}
 
@@ -31,4 +75,52 @@ public class TelecomSocket {
 		open = false;
 	}
 
+	/**
+	 * @return the number of bytes sent to the telecom so far
+	 */
+	public long getBytesSent() {
+		return countingOutput.getCount();
+	}
+
+	/**
+	 * @return the number of bytes received from the telecom so far
+	 */
+	public long getBytesReceived() {
+		return countingInput.getCount();
+	}
+
+	/**
+	 * @return the number of bytes sent to the telecom so far, before compression
+	 */
+	public long getUncompressedBytesSent() {
+		if (uncompressedOutput == null) {
+			return getBytesSent();
+		}
+		return uncompressedOutput.getCount();
+	}
+
+	/**
+	 * @return the number of bytes received from the telecom so far, after
+	 * decompression
+	 */
+	public long getUncompressedBytesReceived() {
+		if (uncompressedInput == null) {
+			return getBytesReceived();
+		}
+		return uncompressedInput.getCount();
+	}
+
+	/**
+	 * Checks that a chunk of a response is the next one the telecom sent on
+	 * this connection.
+	 * @param chunk The chunk, just read.
+	 * @return True if it is next, false if one was dropped or repeated.
+	 */
+	public boolean checkSequence(SignedTelecomResponse chunk) {
+		if (chunk.getSequence() != nextSequence) {
+			return false;
+		}
+		nextSequence++;
+		return true;
+	}
 }
@@ -0,0 +1,86 @@
+package cc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+
+/**
+ * Chooses how connections between agencies and telecoms are made. BLOCKING
+ * uses a plain java.net.Socket per connection. NIO runs every connection over
+ * one selector thread, see NioTransport.
+ * Both give the same byte streams, so the parties in a deployment don't have
+ * to use the same transport.
+ * @author Aaron Segal
+ */
+public abstract class Transport {
+
+	// Config key selecting the transport
+	public static final String TRANSPORT = "TRANSPORT";
+	public static final String BLOCKING = "blocking";
+	public static final String NIO = "nio";
+
+	private static Transport blockingTransport;
+	private static Transport nioTransport;
+
+	/**
+	 * A connection to a peer.
+	 */
+	public interface Connection {
+		public InputStream getInputStream() throws IOException;
+		public OutputStream getOutputStream() throws IOException;
+		public InetAddress getInetAddress();
+		public SocketAddress getRemoteSocketAddress();
+		/**
+		 * Sends anything not yet sent, then closes the connection.
+		 */
+		public void close() throws IOException;
+	}
+
+	/**
+	 * Waits for connections on a port.
+	 */
+	public interface Listener {
+		public Connection accept() throws IOException;
+		public void close() throws IOException;
+	}
+
+	/**
+	 * Gets the transport with the given name. There is one of each per
+	 * process, so all of the NIO connections share one selector thread.
+	 * @param name BLOCKING or NIO. Null means BLOCKING.
+	 * @return The transport.
+	 */
+	public static synchronized Transport forName(String name) {
+		if (name == null || name.equalsIgnoreCase(BLOCKING)) {
+			if (blockingTransport == null) {
+				blockingTransport = new BlockingTransport();
+			}
+			return blockingTransport;
+		} else if (name.equalsIgnoreCase(NIO)) {
+			if (nioTransport == null) {
+				nioTransport = new NioTransport();
+			}
+			return nioTransport;
+		}
+		throw new IllegalArgumentException("Unknown transport " + name);
+	}
+
+	/**
+	 * Connects to a peer.
+	 * @param host The peer's host name or IP.
+	 * @param port The peer's port.
+	 * @return The connection.
+	 * @throws IOException
+	 */
+	public abstract Connection connect(String host, int port) throws IOException;
+
+	/**
+	 * Starts listening for connections.
+	 * @param port The port to listen on.
+	 * @return The listener.
+	 * @throws IOException
+	 */
+	public abstract Listener listen(int port) throws IOException;
+}
@@ -0,0 +1,63 @@
+package cc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Chooses how messages between agencies and telecoms are encoded on the wire.
+ * JAVA uses plain Java object serialization. BINARY uses the compact codec in
+ * BinaryObjectOutputStream and BinaryObjectInputStream, which only supports the
+ * cc message types.
+ * All parties in a deployment must use the same format.
+ * @author Aaron Segal
+ */
+public class WireFormat {
+
+	// Config key selecting the wire format
+	public static final String WIRE_FORMAT = "WIREFORMAT";
+	public static final String JAVA = "java";
+	public static final String BINARY = "binary";
+
+	/**
+	 * Opens an output stream in the given wire format. Like ObjectOutputStream,
+	 * this writes a stream header immediately. The header is flushed, so a peer
+	 * waiting for it isn't held up by a buffering stream underneath, such as
+	 * one from Compression.
+	 * @param format JAVA or BINARY. Null means JAVA.
+	 * @param out The underlying stream.
+	 * @return The stream to write messages to.
+	 * @throws IOException
+	 */
+	public static ObjectOutputStream newOutputStream(String format,
+			OutputStream out) throws IOException {
+		if (format == null || format.equalsIgnoreCase(JAVA)) {
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			oos.flush();
+			return oos;
+		} else if (format.equalsIgnoreCase(BINARY)) {
+			return new BinaryObjectOutputStream(out);
+		}
+		throw new IllegalArgumentException("Unknown wire format " + format);
+	}
+
+	/**
+	 * Opens an input stream in the given wire format. Like ObjectInputStream,
+	 * this blocks until the stream header has been read.
+	 * @param format JAVA or BINARY. Null means JAVA.
+	 * @param in The underlying stream.
+	 * @return The stream to read messages from.
+	 * @throws IOException
+	 */
+	public static ObjectInputStream newInputStream(String format,
+			InputStream in) throws IOException {
+		if (format == null || format.equalsIgnoreCase(JAVA)) {
+			return new ObjectInputStream(in);
+		} else if (format.equalsIgnoreCase(BINARY)) {
+			return new BinaryObjectInputStream(in);
+		}
+		throw new IllegalArgumentException("Unknown wire format " + format);
+	}
+}
@@ -0,0 +1,98 @@
+package cc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the items of a batch to a fixed set of long-lived worker threads
+ * in small chunks. Workers that finish early simply claim more chunks, so a
+ * few expensive items (e.g. very high degree users) do not hold up the rest
+ * of the batch the way fixed slices would.
+ *
+ * The thread that owns the queue calls runBatch() for each batch. Workers
+ * loop on awaitBatch(), claim() and finishBatch().
+ * @author Aaron Segal
+ */
+public class WorkQueue {
+
+	// Chunks are kept small enough that each worker gets several of them.
+	public static final int CHUNKS_PER_WORKER = 8;
+	public static final int MAX_CHUNK_SIZE = 16;
+
+	private int numWorkers;
+	private int batch = 0;
+	private int size = 0;
+	private int chunkSize = 1;
+	private AtomicInteger next;
+	private int busyWorkers = 0;
+
+	/**
+	 * @param numWorkers The number of worker threads that will serve this queue.
+	 */
+	public WorkQueue(int numWorkers) {
+		this.numWorkers = numWorkers;
+		next = new AtomicInteger();
+	}
+
+	/**
+	 * Makes a batch of items available to the workers, and waits until all of
+	 * them are done with it.
+	 * @param size The number of items in the batch.
+	 */
+	public synchronized void runBatch(int size) {
+		this.size = size;
+		chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE,
+				size / (numWorkers * CHUNKS_PER_WORKER)));
+		next.set(0);
+		busyWorkers = numWorkers;
+		batch++;
+		notifyAll();
+		while (busyWorkers > 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				// Workers are still using the batch, so keep waiting.
+			}
+		}
+	}
+
+	/**
+	 * Called by workers to wait for the next batch.
+	 * @param lastBatch The last batch this worker worked on, or 0.
+	 * @return The number of the new batch.
+	 * @throws InterruptedException
+	 */
+	public synchronized int awaitBatch(int lastBatch) throws InterruptedException {
+		while (batch == lastBatch) {
+			wait();
+		}
+		return batch;
+	}
+
+	/**
+	 * Called by workers to claim the next chunk of the current batch.
+	 * @return The index of the first item in the chunk, or -1 if there are no
+	 * items left. The chunk ends at getChunkEnd(start).
+	 */
+	public int claim() {
+		int start = next.getAndAdd(chunkSize);
+		return start < size ? start : -1;
+	}
+
+	/**
+	 * @param start The start of a chunk returned by claim().
+	 * @return The index one past the last item in the chunk.
+	 */
+	public int getChunkEnd(int start) {
+		return Math.min(start + chunkSize, size);
+	}
+
+	/**
+	 * Called by each worker once claim() has returned -1.
+	 */
+	public synchronized void finishBatch() {
+		busyWorkers--;
+		if (busyWorkers == 0) {
+			notifyAll();
+		}
+	}
+}
@@ -11,6 +11,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -38,6 +39,8 @@ public abstract class Agency {
 
 	private long startSetupTime, startProtoTime, finishTime;
 	private AtomicLong networkBytes;
+	// Bytes sent to and received from each peer, in that order.
+	private LinkedHashMap<String, long[]> peerBytes;
 	private long agencyCpuTime, telecomCpuTime;
 	private Date timeStamp; // The date and time when the protocol began
 
@@ -168,6 +171,7 @@ public abstract class Agency {
 		println("ID = " + id);
 		targetId = Integer.parseInt(config.getProperty(TARGET_ID, "0"));
 		networkBytes = new AtomicLong();
+		peerBytes = new LinkedHashMap<String, long[]>();
 		agencyCpuTime = 0;
 		telecomCpuTime = 0;
 		agencyOutput = new ArrayList<Integer>();
@@ -176,11 +180,23 @@ public abstract class Agency {
 
 
 	/**
-	 * Stores a number of bytes sent or received over a network. Thread-safe.
-	 * @param bytesTransferred The number of bytes sent or received.
+	 * Stores the number of bytes sent to and received from a peer over the
+	 * network. Thread-safe.
+	 * @param peer A name for the peer, used when reporting.
+	 * @param sent The number of bytes sent to the peer.
+	 * @param received The number of bytes received from the peer.
 	 */
-	public void recordBytes(long bytesTransferred) {
-		networkBytes.addAndGet(bytesTransferred);
+	public void recordBytes(String peer, long sent, long received) {
+		networkBytes.addAndGet(sent + received);
+		synchronized (peerBytes) {
+			long[] counts = peerBytes.get(peer);
+			if (counts == null) {
+				counts = new long[2];
+				peerBytes.put(peer, counts);
+			}
+			counts[0] += sent;
+			counts[1] += received;
+		}
 	}
 
 	/**
@@ -304,6 +320,11 @@ public abstract class Agency {
 		println("Agency CPU Time (ms)  : " + agencyCpuTime);
 		println("Telecom CPU Time (ms) : " + telecomCpuTime);
 		println("Bytes transferred (KB): " + kilobytes);
+		for (String peer : peerBytes.keySet()) {
+			long[] counts = peerBytes.get(peer);
+			println("  " + peer + " sent / received (KB): " + counts[0] / 1024L +
+					" / " + counts[1] / 1024L);
+		}
 
 		/* 
 		 * If a log file has been specified, save timing info to it.
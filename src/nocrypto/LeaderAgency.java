@@ -11,8 +11,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Properties;
 
-import cc.Serializer;
 import cc.TelecomSocket;
+import cc.Transport;
 import nocrypto.BatchedTelecomRecord.QueryType;
 
 public class LeaderAgency extends Agency {
@@ -73,7 +73,6 @@ public class LeaderAgency extends Agency {
 	private void writeObjectToTelecom(int telecomId, Object obj)
 			throws IOException {
 		ObjectOutputStream oos = telecoms.get(telecomId).outputStream;
-		recordBytes(Serializer.objectSize(obj));
 		oos.writeObject(obj);
 		oos.flush();
 		oos.reset();
@@ -83,7 +82,6 @@ public class LeaderAgency extends Agency {
 			throws ClassNotFoundException, IOException {
 		ObjectInputStream ois = telecoms.get(telecomId).inputStream;
 		Object obj = ois.readObject();
-		recordBytes(Serializer.objectSize(obj));
 		return obj;
 	}
 
@@ -266,13 +264,14 @@ public class LeaderAgency extends Agency {
 	 * @return True if the connection was succesfully made; false else
 	 */
 	private boolean connectTelecom(int telecomId) {
-		Socket tSocket;
+		Transport.Connection tSocket;
 		String[] address = telecomIPs.getProperty(""+telecomId).split(":");
 		String telecomIp = address[0];
 		int telecomPort = Integer.parseInt(address[1]);
 		for (int i = 0; i < MAX_TRIES; i++) {
 			try {
-				tSocket = new Socket(telecomIp, telecomPort);
+				tSocket = Transport.forName(Transport.BLOCKING).connect(telecomIp,
+						telecomPort);
 				telecoms.put(telecomId, new TelecomSocket(tSocket));
 				println("Connected to telecom " + telecomId);
 				return true;
@@ -292,6 +291,25 @@ public class LeaderAgency extends Agency {
 		return false;
 	}
 
+	/**
+	 * Records the traffic on each of our connections, then reports timing.
+	 */
+	@Override
+	protected void reportTiming() {
+		for (int telecomId : telecoms.keySet()) {
+			TelecomSocket ts = telecoms.get(telecomId);
+			recordBytes("telecom " + telecomId, ts.getBytesSent(),
+					ts.getBytesReceived());
+		}
+		for (OversightSocket os : oversight) {
+			if (os != null) {
+				recordBytes(os.getPeerName(), os.getBytesSent(),
+						os.getBytesReceived());
+			}
+		}
+		super.reportTiming();
+	}
+
 	public void closeAll() {
 		for (OversightSocket os : oversight) {
 			os.close();
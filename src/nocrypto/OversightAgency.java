@@ -7,6 +7,9 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 
+import cc.CountingInputStream;
+import cc.CountingOutputStream;
+
 public class OversightAgency extends Agency {
 
 	public static final String LEADER_IP = "LEADERIP";
@@ -15,6 +18,8 @@ public class OversightAgency extends Agency {
 	private boolean connected = false;
 	private ObjectOutputStream leaderOStream;
 	private ObjectInputStream leaderIStream;
+	private CountingOutputStream leaderCountingOStream;
+	private CountingInputStream leaderCountingIStream;
 
 	@Override
 	protected void usage() {
@@ -34,8 +39,12 @@ public class OversightAgency extends Agency {
 		for (int i = 0; i < MAX_TRIES && !connected; i++) {
 			try {
 				leaderSocket = new Socket(leaderIp, leaderPort);
-				leaderOStream = new ObjectOutputStream(leaderSocket.getOutputStream());
-				leaderIStream = new ObjectInputStream(leaderSocket.getInputStream());
+				leaderCountingOStream =
+						new CountingOutputStream(leaderSocket.getOutputStream());
+				leaderCountingIStream =
+						new CountingInputStream(leaderSocket.getInputStream());
+				leaderOStream = new ObjectOutputStream(leaderCountingOStream);
+				leaderIStream = new ObjectInputStream(leaderCountingIStream);
 				println("Connected!");
 				connected = true;
 			} catch (UnknownHostException e) {
@@ -183,6 +192,18 @@ public class OversightAgency extends Agency {
 		}
 	}
 
+	/**
+	 * Records the traffic on our connection to the leader, then reports timing.
+	 */
+	@Override
+	protected void reportTiming() {
+		if (leaderCountingOStream != null) {
+			recordBytes("leader", leaderCountingOStream.getCount(),
+					leaderCountingIStream.getCount());
+		}
+		super.reportTiming();
+	}
+
 	/**
 	 * Closes stream to the leader.
 	 */
@@ -5,7 +5,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
 
-import cc.Serializer;
+import cc.CountingInputStream;
+import cc.CountingOutputStream;
 
 public class OversightSocket {
 
@@ -16,11 +17,16 @@ public class OversightSocket {
 	public LeaderAgency lAgency;
 	public boolean open = false;
 
+	private CountingInputStream countingInput;
+	private CountingOutputStream countingOutput;
+
 	public OversightSocket(Socket socket, LeaderAgency lAgency) throws IOException {
 		this.socket = socket;
 		this.lAgency = lAgency;
-		inputStream = new ObjectInputStream(socket.getInputStream());
-		outputStream = new ObjectOutputStream(socket.getOutputStream());
+		countingInput = new CountingInputStream(socket.getInputStream());
+		countingOutput = new CountingOutputStream(socket.getOutputStream());
+		inputStream = new ObjectInputStream(countingInput);
+		outputStream = new ObjectOutputStream(countingOutput);
 	}
 
 	public void close() {
@@ -47,34 +53,53 @@ public class OversightSocket {
 	}
 
 	public void writeObject(Object obj) throws IOException {
-		lAgency.recordBytes(Serializer.objectSize(obj));
 		outputStream.writeObject(obj);
 		outputStream.flush();
 		outputStream.reset();
 	}
 
 	public void writeInt(int i) throws IOException {
-		lAgency.recordBytes(4);
 		outputStream.writeInt(i);
 		outputStream.flush();
 	}
 
 	public Object readObject() throws ClassNotFoundException, IOException {
 		Object obj = inputStream.readObject();
-		lAgency.recordBytes(Serializer.objectSize(obj));
 		return obj;
 	}
 
 	public int readInt() throws IOException {
-		lAgency.recordBytes(4);
 		return inputStream.readInt();
 	}
 
 	public long readLong() throws IOException {
-		lAgency.recordBytes(8);
 		return inputStream.readLong();
 	}
 
+	/**
+	 * @return the number of bytes sent to the oversight agency so far
+	 */
+	public long getBytesSent() {
+		return countingOutput.getCount();
+	}
+
+	/**
+	 * @return the number of bytes received from the oversight agency so far
+	 */
+	public long getBytesReceived() {
+		return countingInput.getCount();
+	}
+
+	/**
+	 * @return A name for this peer, for reporting.
+	 */
+	public String getPeerName() {
+		if (agencyId == Integer.MIN_VALUE) {
+			return "agency (unknown)";
+		}
+		return "agency " + agencyId;
+	}
+
 	/**
 	 * @param agencyId the agencyId to set
 	 */
@@ -28,10 +28,6 @@ public class Telecom {
 	private ThreadMXBean bean;
 	private long lastCpuRecording;
 
-	// Included for additional safety. Use the configurable
-	// MAX_THREADS instead.
-	public static final int MAX_THREADS_ALLOWED = 16;
-
 	public static final String PORT = "PORT";
 	public static final String INPUT_FILE = "INPUT";
 	public static final String ID = "ID";
@@ -40,6 +36,7 @@ public class Telecom {
 	public static final String NUM_AGENCIES = "AGENCIES";
 	public static final String NUM_TELECOMS = "TELECOMS";
 	public static final String MAX_THREADS = "MAXTHREADS";
+	public static final String CONTACT_FORMAT = "CONTACTFORMAT";
 
 	private static void usage() {
 		System.err.println("Usage: java cc.Telecom config_file [-c config_file] [-i input_data_file] [-k private_key_file] [-t threads] [-q]");
@@ -114,20 +111,22 @@ public class Telecom {
 		port = Integer.parseInt(config.getProperty(PORT));
 		numAgencies = Integer.parseInt(config.getProperty(NUM_AGENCIES, "0"));
 		numTelecoms = Integer.parseInt(config.getProperty(NUM_TELECOMS, "0"));
-		maxThreads = Integer.parseInt(config.getProperty(MAX_THREADS, "1"));
-		if (maxThreads < 0 || maxThreads > MAX_THREADS_ALLOWED) {
-			System.err.println("Number of threads must be between 1 and " + MAX_THREADS_ALLOWED);
+		// By default, use one thread per processor.
+		maxThreads = Integer.parseInt(config.getProperty(MAX_THREADS, "0"));
+		if (maxThreads < 0) {
+			System.err.println("Number of threads must be at least 1, or 0 for one per processor");
 			usage();
 			return;
 		} else if (maxThreads == 0) {
-			System.err.println("Treating 0 threads as " + MAX_THREADS_ALLOWED);
-			maxThreads = MAX_THREADS_ALLOWED;
+			maxThreads = Runtime.getRuntime().availableProcessors();
 		}
+		println("Using " + maxThreads + " threads");
 		id = Integer.parseInt(config.getProperty(ID));
 		println("ID = " + id);
 
-		data = new TelecomData(config.getProperty(INPUT_FILE), numTelecoms,
-				maxThreads);
+		data = new TelecomData(config.getProperty(INPUT_FILE),
+				config.getProperty(CONTACT_FORMAT, cc.TelecomData.SERIALIZED),
+				numTelecoms, maxThreads);
 
 		try {
 			listenSocket = new ServerSocket(port);
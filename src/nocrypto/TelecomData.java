@@ -1,10 +1,6 @@
 package nocrypto;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.util.HashMap;
-import java.util.HashSet;
 
 import nocrypto.BatchedTelecomRecord.QueryType;
 import nocrypto.TelecomResponse.MsgType;
@@ -15,15 +11,18 @@ import nocrypto.TelecomResponse.MsgType;
  */
 
 /*
- * How we decide how many threads to spawn for a given job:
- * We just divide up the items as evenly as we can among the threads.
+ * How we divide up a job among threads:
+ * maxThreads ResponseWorkers are started once and kept for the life of the
+ * telecom. Each job is handed out to them in small chunks by a WorkQueue, so
+ * that threads which finish early take on more of the work.
  */
 
 public class TelecomData {
 	// Stores plaintext data about who contacted who.
-	private HashMap<Integer, int[]> contacts;
+	private cc.ContactStore contacts;
 	// Records whether we sent the agencies information about each user.
-	private HashSet<Integer> alreadySent;
+	// Indexed by user id, which are small non-negative ints.
+	private cc.AtomicEpochBitSet alreadySent;
 	// The number of telecoms there are
 	private int numTelecoms;
 	// The maximum degree of users the agencies are interested in
@@ -34,32 +33,39 @@ public class TelecomData {
 	// current* are accessed by encryption threads
 	public TelecomRecord[] currentRecords;
 	public TelecomResponse[] currentResponses;
+	public QueryType currentType;
+	// Long-lived worker threads, started on the first query.
+	private ResponseWorker[] workers;
+	private cc.WorkQueue queue;
 
 	// Used for tracking CPU time.
 	private long cpuTime = 0L;
 
 
-	@SuppressWarnings("unchecked")
 	public TelecomData(String filename, int numTelecoms, int maxThreads) {
+		this(filename, cc.TelecomData.SERIALIZED, numTelecoms, maxThreads);
+	}
+
+	/**
+	 * @param filename The contact data file.
+	 * @param format cc.TelecomData.SERIALIZED or cc.TelecomData.MAPPED.
+	 */
+	public TelecomData(String filename, String format, int numTelecoms,
+			int maxThreads) {
 		try {
-			FileInputStream fis = new FileInputStream(filename);
-			ObjectInputStream ois = new ObjectInputStream(fis);
-			contacts = (HashMap<Integer, int[]>) ois.readObject();
-			ois.close();
+			contacts = cc.TelecomData.openContacts(filename, format);
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
 		}
-		alreadySent = new HashSet<Integer>();
+		alreadySent = newSentSet();
 		this.numTelecoms = numTelecoms;
 		this.maxDegree = Integer.MAX_VALUE;
 		this.maxThreads = maxThreads;
 	}
 
-	public TelecomData(HashMap<Integer, int[]> contacts, int numTelecoms) {
+	public TelecomData(cc.ContactStore contacts, int numTelecoms) {
 		this.contacts = contacts;
-		alreadySent = new HashSet<Integer>();
+		alreadySent = newSentSet();
 		this.numTelecoms = numTelecoms;
 	}
 
@@ -68,10 +74,18 @@ public class TelecomData {
 	 * Also resets maxDegree.
 	 */
 	public void resetSent() {
-		alreadySent = new HashSet<Integer>();
+		alreadySent.clear();
 		this.maxDegree = Integer.MAX_VALUE;
 	}
 
+	/**
+	 * @return An empty set big enough to hold every user id in contacts.
+	 */
+	private cc.AtomicEpochBitSet newSentSet() {
+		int maxUserId = contacts == null ? -1 : contacts.getMaxUserId();
+		return new cc.AtomicEpochBitSet(maxUserId + 1);
+	}
+
 	/**
 	 * Tests a user id to see what type of response it should get. That is, it
 	 * checks to make sure we have this user in our database, and that it hasn't
@@ -81,16 +95,13 @@ public class TelecomData {
 	 * @return The type of response we should be sending.
 	 */
 	public MsgType chooseResponseType(int userId) {
-		if (!contacts.containsKey(userId)) {
+		if (!contacts.contains(userId)) {
 			return MsgType.NOT_FOUND;
 		}
-		synchronized (alreadySent) {
-			if (alreadySent.contains(userId)) {
-				return MsgType.ALREADY_SENT;
-			} else {
-				alreadySent.add(userId);
-				return MsgType.DATA;
-			}
+		if (alreadySent.add(userId)) {
+			return MsgType.DATA;
+		} else {
+			return MsgType.ALREADY_SENT;
 		}
 	}
 
@@ -105,27 +116,29 @@ public class TelecomData {
 			QueryType type) {
 		currentRecords = telecomRecords;
 		currentResponses = new TelecomResponse[currentRecords.length];
-		int threads = Math.min(currentRecords.length, maxThreads);
-		int itemsPerThread = (currentRecords.length + threads - 1) / threads;
-		// Compute TelecomResponses to TelecomRecords in threads
-		ResponseWorker[] workers = new ResponseWorker[threads];
-		for (int i = 0; i < workers.length; i++) {
-			workers[i] = new ResponseWorker(this, itemsPerThread * i, 
-					itemsPerThread, type);
-			workers[i].start();
+		currentType = type;
+		if (workers == null) {
+			startWorkers();
 		}
-		for (int i = 0; i < workers.length; i++) {
-			try {
-				workers[i].join();
-			} catch (InterruptedException e) {
-			} finally {
-				cpuTime += workers[i].getCpuTime();
-			}
+		// Compute TelecomResponses to TelecomRecords in threads
+		queue.runBatch(currentRecords.length);
+		for (ResponseWorker worker : workers) {
+			cpuTime += worker.getNewCpuTime();
 		}
 		// At this point, we are done.
 		return currentResponses;
 	}
 
+	private void startWorkers() {
+		int threads = Math.max(maxThreads, 1);
+		queue = new cc.WorkQueue(threads);
+		workers = new ResponseWorker[threads];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new ResponseWorker(this, queue);
+			workers[i].start();
+		}
+	}
+
 	/**
 	 * Returns the CPU time used by the telecom's subthreads since the last time
 	 * this method was called.
@@ -143,7 +156,7 @@ public class TelecomData {
 	 * @return An array of that user's neighbors.
 	 */
 	public int[] getNeighbors(int userId) {
-		return contacts.get(userId);
+		return contacts.getNeighbors(userId);
 	}
 
 	/**